@@ -0,0 +1,12 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * Receives earth-frame vertical acceleration, in time order with the pressure samples.
+ */
+public interface AccelerationConsumer {
+    /**
+     * @param acceleration Vertical acceleration excluding gravity, in m/s^2 upwards.
+     * @param timestamp Sensor time in nanoseconds.
+     */
+    void onVerticalAcceleration(float acceleration, long timestamp);
+}
@@ -1,14 +1,5 @@
 package uk.co.phabvionics.pilotaltimeter;
 
-import android.graphics.Paint;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
 /**
  *
  */
@@ -17,7 +8,7 @@ import java.util.concurrent.TimeUnit;
  * @author david
  *
  */
-public class Altimeter
+public class Altimeter implements PressureResampler.SampleConsumer
 {
     private static final Altimeter INSTANCE = new Altimeter();
     public static Altimeter getInstance()
@@ -26,54 +17,77 @@ public class Altimeter
     }
 
     private float mPressureDatum; // Pressure datum is defined in hectoPascals (equivalent to millibars).
-    private float mPressureMeasurement; // Pressure measurement is defined in hectoPascals (equivalent to millibars).
     private boolean mPressureMeasurementValid; // Set to true when pressure measurement has been set.
-    private Paint mWhitePaint;
-    private Paint mTickPaint;
-    private Paint mBlackPaint;
-    private Paint mGraphPaint;
-    private Paint mGreyLeftPaint;
-    private Paint mGreyMidPaint;
-    private Paint mGreyRightPaint;
-    private Paint mAltitudePaint;
-    private Paint mDatumPaint;
-    private float mSize;
-    private float mxCentre;
-    private float myCentre;
-    private float mxAltPos;
-    private float myAltPos;
-    private float mxFLPos;
-    private float myFLPos;
-    private float mxDatumPos;
-    private float myDatumPos;
-    private float mxDatumTextPos;
-    private float myDatumTextPos;
-    private float mxTimePos;
-    private float myTimePos;
-    private Paint mTimePaint;
-    private float[] mTickCoords;
-    private float[] mDotCoords;
-    private float[] mNumberCoords;
     private boolean mMetricMode;
-    private long mTimestamp;
     private long mSampleTimestamp;
     private float mFilteredPressure;
-    private static final long TIME_STEP = 10000000; // 10ms
-    private IIRLowPassFilter mFilter;
-    private FilterStrength mFilterStrength;
+    private static final long TIME_STEP = PressureResampler.TIME_STEP;
+    private static final float STEPS_PER_SECOND = 1e9f / TIME_STEP;
+    private final IIRLowPassFilter mGridFilter = new IIRLowPassFilter(1.0f);
+    private final RCLowPassFilter mExactFilter = new RCLowPassFilter(0.0f);
+    private final BiquadCascadeFilter mBiquadFilter = new BiquadCascadeFilter();
+    private JointPressureEstimator mEstimator; // null unless using the Kalman filter.
+    /**
+     * Reads the joint estimate in place of filtering. It has already been updated with each
+     * sample by the time the altimeter is passed it.
+     */
+    private final PressureFilter mKalman = new PressureFilter() {
+        @Override
+        public float Filter(float sample, long timestamp) {
+            return mEstimator.GetPressure();
+        }
+
+        @Override
+        public float PeekAt(float sample, long timestamp) {
+            return mEstimator.PeekAt(sample, timestamp);
+        }
+
+        @Override
+        public void Reset(float output, long timestamp) {
+            // The estimate is shared with the VSI, so only the resampler moves it.
+        }
+    };
+    private PressureFilter mFilter = mGridFilter; // One of the above.
+    private boolean mExactTimeFiltering;
+    private BiquadCascadeFilter.Shape mBiquadShape; // null for the first order filters.
     private String mDatumText;
     private boolean mDisplayInFeet;
     private int mDisplayGraphSeconds;
-    private int mWidth;
-    private int mHeight;
-    private float mGraphTop;
-    private float mGraphBottom;
-    private float mGraphLeft;
-    private float mGraphRight;
-    private float[] mHistory;
-    private int mHistorySize;
+    private final TieredHistory mFlightHistory = TieredHistory.createFlightHistory();
+    private int mGraphTier; // The tier of mFlightHistory graphed.
+    private int mGraphPoints; // The number of points of the tier across the graph.
     private long mHistoryEndTime;
-    private static final long HISTORY_TIME_STEP = 500000000; // 500ms
+    private final PressureHeightConverter mConverter = new PressureHeightConverter();
+    private final TripleBuffer<Snapshot> mSnapshots =
+            new TripleBuffer<Snapshot>(new Snapshot(), new Snapshot(), new Snapshot());
+
+    /**
+     * A consistent copy of the state that the display shows, published after each sample so
+     * that another thread can read it while the next sample is processed.
+     */
+    public static class Snapshot {
+        private boolean mPressureMeasurementValid;
+        private float mFilteredPressure;
+        private int mGraphTier;
+        private final HistoryBuffer mHistory = new HistoryBuffer(1);
+
+        public boolean isPressureMeasurementValid() {
+            return mPressureMeasurementValid;
+        }
+
+        public float getFilteredPressure() {
+            return mFilteredPressure;
+        }
+
+        /**
+         * @return The points of the altitude history that span the display graph period,
+         * oldest first; its capacity covers the whole period but it may not yet be full.
+         */
+        public HistoryBuffer getHistory() {
+            return mHistory;
+        }
+    }
+    private static final long HISTORY_TIME_STEP = TieredHistory.FLIGHT_HISTORY_TIME_STEP;
 
     public boolean isPressureMeasurementValid() {
         return mPressureMeasurementValid;
@@ -92,22 +106,56 @@ public class Altimeter
     }
 
     /**
-     * Get historic values of altitude over the past five minutes.
-     * @return A 601-element array that contains altitude history ranging from t=minus 5 minutes to
-     * t=0 (i.e. now).
+     * Get historic values of altitude over the display graph period.
+     * @return A buffer of altitude history, oldest first, at the finest interval that covers the
+     * display graph period: the means over 500ms, 10s or 1 minute. Only the newest
+     * getHistorySize() points are graphed.
      */
-    public float[] getHistory() {
-        return mHistory;
+    public HistoryBuffer getHistory() {
+        return mFlightHistory.getMean(mGraphTier);
     }
 
+    /**
+     * @return The number of points of getHistory() that span the display graph period.
+     */
     public int getHistorySize() {
-        return mHistorySize;
+        return mGraphPoints;
     }
 
-    private boolean mStopped = true;
+    /**
+     * Get the latest published state, without waiting for the thread processing samples.
+     * Only to be called on one thread, normally the UI thread.
+     * @return The snapshot, which stays unchanged until the next call.
+     */
+    public Snapshot getSnapshot() {
+        return mSnapshots.getFront();
+    }
+
+    private void publishSnapshot() {
+        Snapshot snapshot = mSnapshots.getBack();
+        snapshot.mPressureMeasurementValid = mPressureMeasurementValid;
+        snapshot.mFilteredPressure = mFilteredPressure;
+        // Only copy the history when it has changed since this snapshot was last filled.
+        HistoryBuffer history = getHistory();
+        if (snapshot.mHistory.getAddedCount() != history.getAddedCount() || snapshot.mGraphTier != mGraphTier
+                || snapshot.mHistory.capacity() != mGraphPoints) {
+            snapshot.mHistory.copyNewest(history, mGraphPoints);
+            snapshot.mGraphTier = mGraphTier;
+        }
+        mSnapshots.publish();
+    }
+
+    /**
+     * @return The altitude history of the whole flight, at each of its resolutions.
+     */
+    public TieredHistory getFlightHistory() {
+        return mFlightHistory;
+    }
+
+    private final StalenessMonitor mStaleness;
 
     public boolean isStopped() {
-        return mStopped;
+        return mStaleness.isStopped();
     }
 
     public int getDisplayGraphSeconds() {
@@ -123,22 +171,36 @@ public class Altimeter
     }
 
     private Altimeter() {
+        this(StalenessMonitor.getInstance());
+    }
+
+    /**
+     * Create an altimeter independent of the one the app displays, such as for replaying
+     * several configurations side by side.
+     * @param staleness Tracks whether samples are still arriving for this altimeter.
+     */
+    public Altimeter(StalenessMonitor staleness) {
+        mStaleness = staleness;
         mPressureMeasurementValid = false;
         mMetricMode = true;
         mPressureDatum = 1013.25f;
+        mConverter.setDatum(mPressureDatum);
+        mConverter.setDisplayInFeet(mDisplayInFeet);
         SetFilterStrength(FilterStrength.FILTER_MEDIUM);
-        mHistorySize = 601;
-        mHistory = new float[mHistorySize];
+        SetDisplayGraphSeconds(300);
     }
 
     public void SetDisplayInFeet(boolean displayOption) {
         mDisplayInFeet = displayOption;
+        mConverter.setDisplayInFeet(displayOption);
     }
 
     public void SetDisplayGraphSeconds(int displaySeconds) {
         mDisplayGraphSeconds = displaySeconds;
-        mHistorySize = displaySeconds * 2 + 1;
-        mHistory = new float[mHistorySize];
+        long points = displaySeconds * 1000000000L / HISTORY_TIME_STEP;
+        mGraphTier = mFlightHistory.getTierCovering(points);
+        mGraphPoints = (int) Math.min(points / mFlightHistory.getRatio(mGraphTier) + 1,
+                mFlightHistory.getMean(mGraphTier).capacity());
     }
 
     public void SetDatumText(String datumText) {
@@ -146,40 +208,105 @@ public class Altimeter
     }
 
     /**
-     * Set the time it takes for the filtered sample to reach 99.3%
-     * of the difference between the filtered sample at the start of
-     * the time period and the unfiltered sample (5 time constants)
-     * @param strength FilterStrength.FILTER_xMS where x is 0, 500, 1000, 1500 or 2000
+     * Set the strength of the low pass filter.
+     * @param strength FILTER_OFF, or FILTER_WEAK to FILTER_VERY_STRONG for settling times of
+     *                 0.5s, 1s, 2s and 20s.
      */
     public void SetFilterStrength(FilterStrength strength) {
-        if (mFilterStrength != strength) {
-            switch (strength) {
-                case FILTER_OFF:
-                    break;
-                case FILTER_WEAK:
-                    mFilter = new IIRLowPassFilter(10); // time constant = 10 samples; settling time = 0.25s
-                    break;
-                case FILTER_MEDIUM:
-                    mFilter = new IIRLowPassFilter(20); // time constant = 20 samples; settling time = 0.5s
-                    break;
-                case FILTER_STRONG:
-                    mFilter = new IIRLowPassFilter(40); // time constant = 40 samples; settling time = 1s
-                    break;
-                case FILTER_VERY_STRONG:
-                    mFilter = new IIRLowPassFilter(400); // time constant = 400 samples; settling time = 10s
-                    break;
-            }
-            mFilterStrength = strength;
+        switch (strength) {
+            case FILTER_OFF:
+                SetFilterSettlingTime(0);
+                break;
+            case FILTER_WEAK:
+                SetFilterSettlingTime(0.5f);
+                break;
+            case FILTER_MEDIUM:
+                SetFilterSettlingTime(1.0f);
+                break;
+            case FILTER_STRONG:
+                SetFilterSettlingTime(2.0f);
+                break;
+            case FILTER_VERY_STRONG:
+                SetFilterSettlingTime(20.0f);
+                break;
         }
     }
 
-    private float mSettlingTime;
+    private float mSettlingTime = -1;
 
+    /**
+     * Set the time it takes for the low pass filtered pressure to reach 99.3% of a step change
+     * in pressure (5 time constants). The filter carries on from its current output.
+     * A second order filter is given the same noise bandwidth as the first order filter with
+     * this settling time; see BiquadCascadeFilter.
+     * @param settlingTime The settling time in seconds, or 0 for no filtering.
+     */
     public void SetFilterSettlingTime(float settlingTime) {
         if (mSettlingTime != settlingTime) {
             mSettlingTime = settlingTime;
-            mFilter = new IIRLowPassFilter(settlingTime * 20); // time constant = 20 * settlingTime samples in seconds
-            // settling time is considered to be 5 time constants
+            float timeConstant = settlingTime / 5;
+            mGridFilter.SetTimeConstant(timeConstant * STEPS_PER_SECOND);
+            mExactFilter.SetTimeConstant(timeConstant);
+            if (mBiquadShape != null) {
+                mBiquadFilter.SetResponse(mBiquadShape, settlingTime);
+            }
+        }
+    }
+
+    /**
+     * Choose a second order low pass filter in place of the first order one. Second order
+     * filters always run on the 10ms grid.
+     * @param shape The shape of the response, or null for the first order filter.
+     */
+    public void SetBiquadFilter(BiquadCascadeFilter.Shape shape) {
+        if (shape != null && shape != mBiquadShape) {
+            mBiquadFilter.SetResponse(shape, Math.max(mSettlingTime, 0));
+        }
+        mBiquadShape = shape;
+        selectFilter();
+    }
+
+    /**
+     * Choose how the low pass filter treats the times of the samples.
+     * @param exact true to filter each sample exactly at its own time, false to filter on the
+     *              10ms grid the VSI uses.
+     */
+    public void SetExactTimeFiltering(boolean exact) {
+        mExactTimeFiltering = exact;
+        selectFilter();
+    }
+
+    /**
+     * Show the altitude of the joint Kalman estimate of pressure and vertical speed, in place of
+     * the low pass filter set by SetFilterSettlingTime.
+     * @param estimator The estimator of the resampler feeding the altimeter, which must be
+     *                  enabled, or null to use the low pass filter.
+     */
+    public void SetKalmanFilter(JointPressureEstimator estimator) {
+        mEstimator = estimator;
+        selectFilter();
+    }
+
+    /**
+     * Switch to the filter chosen by the settings. The filter switched in carries on from the
+     * current filtered pressure, and the history is kept.
+     */
+    private void selectFilter() {
+        PressureFilter filter;
+        if (mEstimator != null) {
+            filter = mKalman;
+        } else if (mBiquadShape != null) {
+            filter = mBiquadFilter;
+        } else if (mExactTimeFiltering) {
+            filter = mExactFilter;
+        } else {
+            filter = mGridFilter;
+        }
+        if (filter != mFilter) {
+            if (mPressureMeasurementValid) {
+                filter.Reset(mFilteredPressure, mSampleTimestamp);
+            }
+            mFilter = filter;
         }
     }
 
@@ -189,6 +316,7 @@ public class Altimeter
      */
     public void setPressureDatum(float pressure) {
         mPressureDatum = pressure;
+        mConverter.setDatum(mPressureDatum);
     }
 
     public float getPressureDatum() {
@@ -201,6 +329,7 @@ public class Altimeter
         } else {
             mPressureDatum = inHg_to_hPa((float) (Math.floor(hPa_to_inHg(mPressureDatum) * 100.0 + 1.01) / 100.0));
         }
+        mConverter.setDatum(mPressureDatum);
         return mPressureDatum;
     }
 
@@ -210,6 +339,7 @@ public class Altimeter
         } else {
             mPressureDatum = inHg_to_hPa((float) (Math.floor(hPa_to_inHg(mPressureDatum) * 100.0 + 10.01) / 100.0));
         }
+        mConverter.setDatum(mPressureDatum);
         return mPressureDatum;
     }
 
@@ -219,6 +349,7 @@ public class Altimeter
         } else {
             mPressureDatum = inHg_to_hPa((float) (Math.floor(hPa_to_inHg(mPressureDatum) * 100.0 - 0.01) / 100.0));
         }
+        mConverter.setDatum(mPressureDatum);
         return mPressureDatum;
     }
 
@@ -228,66 +359,57 @@ public class Altimeter
         } else {
             mPressureDatum = inHg_to_hPa((float) (Math.floor(hPa_to_inHg(mPressureDatum) * 100.0 - 9.01) / 100.0));
         }
+        mConverter.setDatum(mPressureDatum);
         return mPressureDatum;
     }
 
     public float setPressureAlt() {
         mPressureDatum = 1013.25f;
+        mConverter.setDatum(mPressureDatum);
         return mPressureDatum;
     }
 
-    private void filterPressure(long timestamp) {
-        // Run the IIR filter on the pressure to bring it up to the given timestamp.
-        while (mTimestamp + TIME_STEP < timestamp) {
-            float pressure = mPressureMeasurement;
-            pressure = mFilter.Filter(pressure);
-            mFilteredPressure = pressure;
-            mTimestamp += TIME_STEP;
-            if (mTimestamp >= mHistoryEndTime + HISTORY_TIME_STEP) {
-                mHistoryEndTime = mTimestamp;
-                System.arraycopy(mHistory, 1, mHistory, 0, mHistorySize - 1);
-                mHistory[mHistorySize - 1] = pressureToHeight(mPressureDatum, mFilteredPressure);
-            }
-        }
-    }
-
-    /**
-     * The time before it is considered that the altimeter is no longer receiving data in ms.
-     */
-    private static final long STOPPED_RECEIVING_DATA_TIME = 1000;
-
     /**
-     * Provide this object with the latest raw pressure measurement.
-     * @param pressure Pressure in hPa.
-     * @param timestamp Time in nanoseconds.
+     * Filter each sample at its own time; the filters need no fixed time step.
      */
-    public void setPressure(float pressure, long timestamp) {
+    @Override
+    public void onSample(float pressure, long timestamp) {
         if (!mPressureMeasurementValid) {
-            mFilteredPressure = pressure;
             mPressureMeasurementValid = true;
-            mTimestamp = timestamp;
+            mFilter.Reset(pressure, timestamp);
+            mFilteredPressure = pressure;
+            // The first history point falls due one grid step after the first sample.
+            mHistoryEndTime = timestamp + TIME_STEP - HISTORY_TIME_STEP;
+        } else {
+            addHistory(pressure, timestamp);
+            mFilteredPressure = mFilter.Filter(pressure, timestamp);
         }
-        mPressureMeasurement = pressure;
         mSampleTimestamp = timestamp;
-        filterPressure(timestamp);
-        mStopped = false;
-        if (mIndicateStoppedThread != null) mIndicateStoppedThread.cancel(true);
-        mIndicateStoppedThread = mExecutor.schedule(mIndicateStopped, STOPPED_RECEIVING_DATA_TIME, TimeUnit.MILLISECONDS);
+        publishSnapshot();
     }
 
     /**
-     * The Runnable that indicates that data is no longer being received.
+     * Add the history points falling due before a sample. Only the points that the finest tier
+     * of the history will still hold are calculated, so a long gap in the samples costs no more
+     * than a full tier. By the first of those the filter has settled on the held pressure, so
+     * the earlier points take its value.
+     * @param pressure The sample in hPa, held over the interval before it.
+     * @param timestamp The sample time in nanoseconds.
      */
-    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
-    private final IndicateStopped mIndicateStopped = new IndicateStopped();
-    private ScheduledFuture<?> mIndicateStoppedThread;
-    class IndicateStopped implements Runnable
-    {
-        @Override
-        public void run()
-        {
-            mStopped = true;
+    private void addHistory(float pressure, long timestamp) {
+        long due = mHistoryEndTime + HISTORY_TIME_STEP;
+        if (due >= timestamp) {
+            return;
         }
+        long points = (timestamp - 1 - due) / HISTORY_TIME_STEP + 1;
+        long point = Math.max(0, points - mFlightHistory.getMean(0).capacity());
+        if (point > 0) {
+            mFlightHistory.addRepeated(pressureToHeight(mFilter.PeekAt(pressure, due + point * HISTORY_TIME_STEP)), point);
+        }
+        for (; point < points; point++) {
+            mFlightHistory.add(pressureToHeight(mFilter.PeekAt(pressure, due + point * HISTORY_TIME_STEP)));
+        }
+        mHistoryEndTime = due + (points - 1) * HISTORY_TIME_STEP;
     }
 
     public void setMetric(boolean metric) {
@@ -320,26 +442,11 @@ public class Altimeter
      * From the information already set, calculate the indicated altitude
      * given the atmospheric pressure and the pressure datum set (this is
      * what would be set in the Kollsman window of an altimeter).
-     * @return The height of indicated altitude in feet.
+     * @param measurement The pressure in hPa.
+     * @return The height of indicated altitude in feet or metres, depending on the display units.
      */
-    float pressureToHeight(float datum, float measurement) {
-        // Formula derived from the Aviation Formulary.
-        float pressureDatumAtm = hPa_to_atm(datum);
-        float pressureAtm = hPa_to_atm(measurement);
-        float pressureAlt = (float) Math.pow(pressureAtm, 1/5.2558797);
-        pressureAlt = 1 - pressureAlt;
-        pressureAlt = pressureAlt / 6.8755856e-6f;
-        float pressureAltCorr = (float) Math.pow(pressureDatumAtm, 1/5.2558797);
-        pressureAltCorr = 1 - pressureAltCorr;
-        pressureAltCorr = pressureAltCorr / 6.8755856e-6f;
-        float indicatedAlt = pressureAlt - pressureAltCorr;
-
-        // If display is in metres, convert height from feet to metres
-        if (!mDisplayInFeet) {
-            indicatedAlt = indicatedAlt * 12.0f * 25.4f / 1000.0f;
-        }
-
-        return indicatedAlt;
+    public float pressureToHeight(float measurement) {
+        return mConverter.toHeight(measurement);
     }
 
     public boolean isDisplayInFeet() {
@@ -1,6 +1,7 @@
 package uk.co.phabvionics.pilotaltimeter;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -52,6 +53,19 @@ public class AltimeterView extends View {
     private float mGraphRight;
     private static final long HISTORY_TIME_STEP = 500000000; // 500ms
     private int mDisplayGraphSeconds;
+    private final GraphLines mGraphLines = new GraphLines();
+    private final FormattedText mText = new FormattedText(); // Readouts are built here each frame.
+    private Bitmap mStaticLayer; // The parts of the display that only change in setCoordinates.
+    // What the last redraw showed, to tell whether another is needed.
+    private boolean mShownValid;
+    private long mShownHeight; // Tenths of a display unit.
+    private long mShownHistory;
+    private boolean mShownStopped;
+    private float mShownDatum;
+    private String mShownDatumText;
+    private boolean mShownMetric;
+    private boolean mShownFeet;
+    private int mShownGraphSeconds;
 
     public AltimeterView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -101,8 +115,9 @@ public class AltimeterView extends View {
         final float cx, cy, size;
         final float minGraphPixels = Math.max(mWidth, mHeight) / 4.0f;
         final float graphGuardPixels = 5.0f;
+        mDisplayGraphSeconds = mAltimeter.getDisplayGraphSeconds();
         // If mDisplayGraph is set,
-        if (mAltimeter.getDisplayGraphSeconds() > 0) {
+        if (mDisplayGraphSeconds > 0) {
             // If component wider than high or square,
             if (mWidth >= mHeight) {
                 // altimeter to display to the right and graph to the left.
@@ -176,15 +191,24 @@ public class AltimeterView extends View {
         mGreyRightPaint.setTextSize(0.075f * size);
         mxCentre = cx;
         myCentre = cy;
+
+        updateStaticLayer();
     }
 
-    @Override
-    protected void onDraw(Canvas canvas) {
-        if (mAltimeter.getDisplayGraphSeconds() != mDisplayGraphSeconds)
-        {
-            mDisplayGraphSeconds = mAltimeter.getDisplayGraphSeconds();
-            setCoordinates();
+    /**
+     * Draw the dial and the graph frame, grid and time labels into a bitmap once, so that each
+     * frame only has to draw over it the parts that change.
+     */
+    private void updateStaticLayer() {
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
         }
+        if (mWidth <= 0 || mHeight <= 0) {
+            return;
+        }
+        mStaticLayer = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mStaticLayer);
         // Draw a circle.
         canvas.drawCircle(mxCentre, myCentre, mSize * 0.49f, mWhitePaint);
         canvas.drawCircle(mxCentre, myCentre, mSize * 0.48f, mBlackPaint);
@@ -198,14 +222,86 @@ public class AltimeterView extends View {
             canvas.drawText(Integer.toString(number), mNumberCoords[number * 2], mNumberCoords[number * 2 + 1], mDatumPaint);
         }
 
+        // If the graph is to be displayed,
+        if (mDisplayGraphSeconds > 0) {
+            // Draw a box round the graph.
+            canvas.drawLine(mGraphLeft, mGraphTop, mGraphRight, mGraphTop, mBlackPaint);
+            canvas.drawLine(mGraphLeft, mGraphBottom, mGraphRight, mGraphBottom, mBlackPaint);
+            canvas.drawLine(mGraphLeft, mGraphTop, mGraphLeft, mGraphBottom, mBlackPaint);
+            canvas.drawLine(mGraphRight, mGraphTop, mGraphRight, mGraphBottom, mBlackPaint);
+            // Draw x-axis parallels.
+            float graphHeight = mGraphBottom - mGraphTop;
+            canvas.drawLine(mGraphLeft, mGraphTop + graphHeight / 4.0f, mGraphRight, mGraphTop + graphHeight / 4.0f, mGreyLeftPaint);
+            canvas.drawLine(mGraphLeft, mGraphTop + graphHeight / 2.0f, mGraphRight, mGraphTop + graphHeight / 2.0f, mGreyLeftPaint);
+            canvas.drawLine(mGraphLeft, mGraphBottom - graphHeight / 4.0f, mGraphRight, mGraphBottom - graphHeight / 4.0f, mGreyLeftPaint);
+            // Draw y-axis parallels.
+            float graphWidth = mGraphRight - mGraphLeft;
+            for (int interval = 1; interval < 6; interval++) {
+                canvas.drawLine(mGraphLeft + graphWidth * interval / 6.0f, mGraphTop, mGraphLeft + graphWidth * interval / 6.0f, mGraphBottom, mGreyLeftPaint);
+            }
+            // Draw labels.
+            int interval = mDisplayGraphSeconds;
+            canvas.drawText("<-" + interval + "s", mGraphLeft, mGraphBottom, mGreyLeftPaint);
+            canvas.drawText("-" + (interval / 2) + "s", mGraphLeft + graphWidth / 2, mGraphBottom, mGreyMidPaint);
+            canvas.drawText("Now>", mGraphRight, mGraphBottom, mGreyRightPaint);
+        }
+    }
+
+    /**
+     * Invalidate the view if anything it shows has visibly changed since it was last invalidated.
+     * Only to be called on the UI thread.
+     */
+    public void invalidateIfChanged() {
+        Altimeter.Snapshot snapshot = mAltimeter.getSnapshot();
+        boolean valid = snapshot.isPressureMeasurementValid();
+        long height = valid ? Math.round(mAltimeter.pressureToHeight(snapshot.getFilteredPressure()) * 10.0) : 0;
+        long history = snapshot.getHistory().getAddedCount();
+        boolean stopped = mAltimeter.isStopped();
+        float datum = mAltimeter.getPressureDatum();
+        String datumText = mAltimeter.getDatumText();
+        boolean metric = mAltimeter.isMetricPressure();
+        boolean feet = mAltimeter.isDisplayInFeet();
+        int graphSeconds = mAltimeter.getDisplayGraphSeconds();
+        if (valid != mShownValid || height != mShownHeight || history != mShownHistory
+                || stopped != mShownStopped || datum != mShownDatum || datumText != mShownDatumText
+                || metric != mShownMetric || feet != mShownFeet || graphSeconds != mShownGraphSeconds) {
+            mShownValid = valid;
+            mShownHeight = height;
+            mShownHistory = history;
+            mShownStopped = stopped;
+            mShownDatum = datum;
+            mShownDatumText = datumText;
+            mShownMetric = metric;
+            mShownFeet = feet;
+            mShownGraphSeconds = graphSeconds;
+            invalidate();
+        }
+    }
+
+    private static void drawText(Canvas canvas, FormattedText text, float x, float y, Paint paint) {
+        canvas.drawText(text.getChars(), 0, text.length(), x, y, paint);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mAltimeter.getDisplayGraphSeconds() != mDisplayGraphSeconds)
+        {
+            setCoordinates();
+        }
+        if (mStaticLayer != null) {
+            canvas.drawBitmap(mStaticLayer, 0, 0, null);
+        }
+
+        // Draw from a snapshot, so that samples processed meanwhile cannot tear the display.
+        Altimeter.Snapshot snapshot = mAltimeter.getSnapshot();
         float height = 0.0f;
         float pressureDatum = mAltimeter.getPressureDatum();
-        if (mAltimeter.isPressureMeasurementValid()) {
-            height = pressureToHeight(pressureDatum, mAltimeter.getFilteredPressure());
+        if (snapshot.isPressureMeasurementValid()) {
+            height = mAltimeter.pressureToHeight(snapshot.getFilteredPressure());
 
-            canvas.drawText(String.format("%.0f", height), mxAltPos, myAltPos, mAltitudePaint);
+            drawText(canvas, mText.clear().append(height, 0), mxAltPos, myAltPos, mAltitudePaint);
             if (pressureDatum == 1013.25 && mAltimeter.isDisplayInFeet()) {
-                canvas.drawText(String.format("FL%.0f", height / 100.0f), mxFLPos, myFLPos, mDatumPaint);
+                drawText(canvas, mText.clear().append("FL").append(height / 100.0f, 0), mxFLPos, myFLPos, mDatumPaint);
             }
             float angle = (float) ((height % 1000.0) / 1000.0 * Math.PI * 2.0);
             float x = (float) (mxCentre + mSize * (Math.sin(angle) * 0.45));
@@ -225,89 +321,38 @@ public class AltimeterView extends View {
         if (pressureDatum == 1013.25) {
             canvas.drawText(mAltimeter.isMetricPressure() ? "1013.25hPa" : "29.92126\"Hg", mxDatumPos, myDatumPos, mDatumPaint);
         } else if (mAltimeter.isMetricPressure()) {
-            canvas.drawText(String.format("%.0fhPa", pressureDatum), mxDatumPos, myDatumPos, mDatumPaint);
+            drawText(canvas, mText.clear().append(pressureDatum, 0).append("hPa"), mxDatumPos, myDatumPos, mDatumPaint);
         } else {
-            canvas.drawText(String.format("%.2f\"Hg", Altimeter.hPa_to_inHg(pressureDatum)), mxDatumPos, myDatumPos, mDatumPaint);
+            drawText(canvas, mText.clear().append(Altimeter.hPa_to_inHg(pressureDatum), 2).append("\"Hg"),
+                    mxDatumPos, myDatumPos, mDatumPaint);
         }
 
         canvas.drawText(mAltimeter.getDatumText(), mxDatumTextPos, myDatumTextPos, mDatumPaint);
 
         // If the graph is to be displayed,
-        if (mAltimeter.getDisplayGraphSeconds() > 0) {
+        if (mDisplayGraphSeconds > 0) {
             // Determine the units in use.
             String units = mAltimeter.isDisplayInFeet() ? "ft" : "m";
             // Determine the scale.
             float scale = mAltimeter.isDisplayInFeet() ? 100 : 50;
 
-            // Draw a box round the graph.
-            canvas.drawLine(mGraphLeft, mGraphTop, mGraphRight, mGraphTop, mBlackPaint);
-            canvas.drawLine(mGraphLeft, mGraphBottom, mGraphRight, mGraphBottom, mBlackPaint);
-            canvas.drawLine(mGraphLeft, mGraphTop, mGraphLeft, mGraphBottom, mBlackPaint);
-            canvas.drawLine(mGraphRight, mGraphTop, mGraphRight, mGraphBottom, mBlackPaint);
             // Find nearest display units.
             float mNearestHeight = Math.round(height / scale) * scale;
             float mTopHeight = mNearestHeight + scale * 2;
-            // Draw x-axis parallels.
             float graphHeight = mGraphBottom - mGraphTop;
-            canvas.drawLine(mGraphLeft, mGraphTop + graphHeight / 4.0f, mGraphRight, mGraphTop + graphHeight / 4.0f, mGreyLeftPaint);
-            canvas.drawLine(mGraphLeft, mGraphTop + graphHeight / 2.0f, mGraphRight, mGraphTop + graphHeight / 2.0f, mGreyLeftPaint);
-            canvas.drawLine(mGraphLeft, mGraphBottom - graphHeight / 4.0f, mGraphRight, mGraphBottom - graphHeight / 4.0f, mGreyLeftPaint);
             // Draw labels.
-            canvas.drawText("" + (int)(mTopHeight - scale) + units, mGraphLeft, mGraphTop + graphHeight / 4.0f, mGreyLeftPaint);
-            canvas.drawText("" + (int)(mTopHeight - 2 * scale) + units, mGraphLeft, mGraphTop + graphHeight / 2.0f, mGreyLeftPaint);
-            canvas.drawText("" + (int)(mTopHeight - 3 * scale) + units, mGraphLeft, mGraphBottom - graphHeight / 4.0f, mGreyLeftPaint);
-            // Draw y-axis parallels.
-            float graphWidth = mGraphRight - mGraphLeft;
-            for (int interval = 1; interval < 6; interval++) {
-                canvas.drawLine(mGraphLeft + graphWidth * interval / 6.0f, mGraphTop, mGraphLeft + graphWidth * interval / 6.0f, mGraphBottom, mGreyLeftPaint);
-            }
-            // Draw labels.
-            int interval = mAltimeter.getDisplayGraphSeconds();
-            canvas.drawText("<-" + interval + "s", mGraphLeft, mGraphBottom, mGreyLeftPaint);
-            canvas.drawText("-" + (interval / 2) + "s", mGraphLeft + graphWidth / 2, mGraphBottom, mGreyMidPaint);
-            canvas.drawText("Now>", mGraphRight, mGraphBottom, mGreyRightPaint);
-            // Calculate the x- and y-coordinate of the first graph position.
-            float x0 = mGraphLeft;
-            float[] history = mAltimeter.getHistory();
-            float y0 = mGraphTop + (mTopHeight - history[0]) / scale / 4 * graphHeight;
-            // For each of the next coordinates,
-            int historySize = mAltimeter.getHistorySize();
-            for (int index = 1; index < historySize; index++) {
-                // Calculate the x- and y-coordinate of the graph position.
-                float x1 = mGraphLeft + graphWidth * ((float)index / (historySize - 1));
-                float y1 = mGraphTop + (mTopHeight - history[index]) / scale / 4 * graphHeight;
-                // Draw a line between the two coordinates.
-                canvas.drawLine(x0, y0, x1, y1, mGraphPaint);
-                // Retain memory of the last coordinate.
-                x0 = x1;
-                y0 = y1;
-            }
+            drawText(canvas, mText.clear().append((int) (mTopHeight - scale)).append(units),
+                    mGraphLeft, mGraphTop + graphHeight / 4.0f, mGreyLeftPaint);
+            drawText(canvas, mText.clear().append((int) (mTopHeight - 2 * scale)).append(units),
+                    mGraphLeft, mGraphTop + graphHeight / 2.0f, mGreyLeftPaint);
+            drawText(canvas, mText.clear().append((int) (mTopHeight - 3 * scale)).append(units),
+                    mGraphLeft, mGraphBottom - graphHeight / 4.0f, mGreyLeftPaint);
+            // Draw the history in one call, with the newest sample at the right.
+            float yScale = -graphHeight / 4 / scale;
+            HistoryBuffer history = snapshot.getHistory();
+            int length = mGraphLines.build(history, history.capacity(),
+                    mGraphLeft, mGraphRight - mGraphLeft, mGraphTop - mTopHeight * yScale, yScale);
+            canvas.drawLines(mGraphLines.getLines(), 0, length, mGraphPaint);
         }
     }
-
-    /**
-     * From the information already set, calculate the indicated altitude
-     * given the atmospheric pressure and the pressure datum set (this is
-     * what would be set in the Kollsman window of an altimeter).
-     * @return The height of indicated altitude in feet.
-     */
-    float pressureToHeight(float datum, float measurement) {
-        // Formula derived from the Aviation Formulary.
-        float pressureDatumAtm = Altimeter.hPa_to_atm(datum);
-        float pressureAtm = Altimeter.hPa_to_atm(measurement);
-        float pressureAlt = (float) Math.pow(pressureAtm, 1/5.2558797);
-        pressureAlt = 1 - pressureAlt;
-        pressureAlt = pressureAlt / 6.8755856e-6f;
-        float pressureAltCorr = (float) Math.pow(pressureDatumAtm, 1/5.2558797);
-        pressureAltCorr = 1 - pressureAltCorr;
-        pressureAltCorr = pressureAltCorr / 6.8755856e-6f;
-        float indicatedAlt = pressureAlt - pressureAltCorr;
-
-        // If display is in metres, convert height from feet to metres
-        if (!mAltimeter.isDisplayInFeet()) {
-            indicatedAlt = indicatedAlt * 12.0f * 25.4f / 1000.0f;
-        }
-
-        return indicatedAlt;
-    }
 }
@@ -0,0 +1,362 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * A low pass filter made of cascaded second order sections, run once per step of the
+ * PressureResampler grid. A second order section rolls off at 40dB per decade rather than the
+ * 20dB of IIRLowPassFilter, so for the same noise it rejects much more of the faster
+ * disturbances, such as gusts, above the cutoff.
+ *
+ * The coefficients for each Shape and each of the SETTLING_TIMES offered by the settings are
+ * worked out once, when the class is loaded. Each preset has the same noise bandwidth as the
+ * first order filter with that settling time, so the noise left on a steady reading is the same;
+ * the second order shapes then have the same lag on a steady climb, and the fourth order shape
+ * trades some more lag for the sharpest cutoff.
+ *
+ * As a PressureFilter, samples are held over the grid steps between them and the output is that
+ * at the last grid step at or before each sample, as with IIRLowPassFilter. The sections filter
+ * the difference from the pressure at the last reset, in double precision, because the poles of
+ * the strong presets are so close to 1 that single precision would lose the signal. Nothing is
+ * allocated after construction.
+ *
+ * A run of steps over which a sample is held is taken in O(log n) rather than step by step: one
+ * step with a held input is a linear map of the state and the input, so the run is a power of its
+ * matrix, made up from the squarings worked out when the response is set. Once a run is long
+ * enough for the filter to have settled, it is simply reset to the sample.
+ */
+public class BiquadCascadeFilter implements PressureFilter {
+    public enum Shape {
+        /**
+         * Maximally flat second order response; a small overshoot on a step.
+         */
+        BUTTERWORTH,
+        /**
+         * Second order response with two equal poles; no overshoot on a step.
+         */
+        CRITICALLY_DAMPED,
+        /**
+         * Fourth order Butterworth response as two sections; the sharpest cutoff.
+         */
+        BUTTERWORTH_FOURTH_ORDER
+    }
+
+    /**
+     * The settling times in seconds of the presets, as offered by the settings: the time for a
+     * first order filter with the same noise bandwidth to reach 99.3% of a step (5 time constants).
+     */
+    public static final float[] SETTLING_TIMES = {0.0f, 0.5f, 1.0f, 2.5f, 5.0f, 10.0f};
+    private static final long TIME_STEP = PressureResampler.TIME_STEP;
+    private static final double SAMPLE_RATE = 1e9 / TIME_STEP;
+    private static final int MAX_SECTIONS = 2;
+    private static final int COEFFICIENTS = 5; // b0, b1, b2, a1, a2 for each section.
+    /**
+     * The size of the step matrix: the state of the sections and the held input.
+     */
+    private static final int MAX_MATRIX_SIZE = MAX_SECTIONS * 2 + 1;
+    /**
+     * Runs of up to this many steps are filtered step by step; longer ones by powers of the step
+     * matrix.
+     */
+    private static final long MAX_LOOP_STEPS = 32;
+    /**
+     * Once a constant input has been held this long, relative to the slowest pole, the output
+     * equals the input to within double precision and the filter is simply reset to it.
+     */
+    private static final double SETTLED_RESIDUAL = 1e-12;
+    /**
+     * The coefficients of each preset, by shape and settling time.
+     */
+    private static final double[][][] PRESETS = new double[Shape.values().length][SETTLING_TIMES.length][];
+
+    static {
+        for (Shape shape : Shape.values()) {
+            for (int index = 0; index < SETTLING_TIMES.length; index++) {
+                double[] coefficients = new double[MAX_SECTIONS * COEFFICIENTS];
+                design(shape, SETTLING_TIMES[index], coefficients);
+                PRESETS[shape.ordinal()][index] = coefficients;
+            }
+        }
+    }
+
+    private final double[] mCoefficients = new double[MAX_SECTIONS * COEFFICIENTS];
+    private int mSections;
+    private long mSettledSteps;
+    private final double[] mState = new double[MAX_SECTIONS * 2];
+    private final double[] mPeekState = new double[MAX_SECTIONS * 2];
+    // mStepPowers[k] is the matrix of 2^k steps with a held input, for k < mPowers.
+    private final double[][] mStepPowers = new double[Long.SIZE - 1][MAX_MATRIX_SIZE * MAX_MATRIX_SIZE];
+    private int mPowers;
+    private final double[] mVector = new double[MAX_MATRIX_SIZE];
+    private final double[] mProduct = new double[MAX_MATRIX_SIZE];
+    private double mOffset; // The input and output are relative to this pressure.
+    private double mOutput; // Relative to mOffset.
+    private boolean mAlreadyRun;
+    private long mTimestamp; // Grid time of mOutput in nanoseconds, when used as a PressureFilter.
+
+    /**
+     * Create a filter that passes samples unchanged until SetResponse is called.
+     */
+    public BiquadCascadeFilter() {
+        SetResponse(Shape.BUTTERWORTH, 0);
+    }
+
+    public BiquadCascadeFilter(Shape shape, float settlingTime) {
+        SetResponse(shape, settlingTime);
+    }
+
+    /**
+     * Work out the coefficients for a response.
+     * @param shape The shape of the response.
+     * @param settlingTime The settling time of the first order filter with the same noise
+     *                     bandwidth in seconds, or 0 for no filtering.
+     * @param coefficients Receives b0, b1, b2, a1 and a2 of each section, with a0 = 1.
+     */
+    static void design(Shape shape, float settlingTime, double[] coefficients) {
+        // The noise bandwidth of a first order filter with time constant tau is 1 / (4 tau).
+        double noiseBandwidth = settlingTime > 0 ? 5.0 / (4.0 * settlingTime) : Double.POSITIVE_INFINITY;
+        switch (shape) {
+            case BUTTERWORTH:
+                // The noise bandwidth of a second order Butterworth filter is pi / (2 sqrt(2)) fc.
+                designSection(noiseBandwidth * 2 * Math.sqrt(2) / Math.PI, 1 / Math.sqrt(2), coefficients, 0);
+                designSection(Double.POSITIVE_INFINITY, 0, coefficients, 1);
+                break;
+            case CRITICALLY_DAMPED:
+                // Two poles at fn have a noise bandwidth of pi fn / 4.
+                designSection(noiseBandwidth * 4 / Math.PI, 0.5, coefficients, 0);
+                designSection(Double.POSITIVE_INFINITY, 0, coefficients, 1);
+                break;
+            case BUTTERWORTH_FOURTH_ORDER:
+                // The noise bandwidth of a fourth order Butterworth filter is pi / (8 sin(pi / 8)) fc.
+                double cutoff = noiseBandwidth * 8 * Math.sin(Math.PI / 8) / Math.PI;
+                designSection(cutoff, 1 / (2 * Math.cos(Math.PI / 8)), coefficients, 0);
+                designSection(cutoff, 1 / (2 * Math.cos(3 * Math.PI / 8)), coefficients, 1);
+                break;
+        }
+    }
+
+    /**
+     * Work out one second order low pass section by the bilinear transform, with the frequency
+     * prewarped so that the digital section has the analogue one's natural frequency.
+     * @param frequency The natural frequency in Hz, or infinity to pass samples unchanged.
+     * @param q The quality factor.
+     * @param coefficients Receives the coefficients.
+     * @param section The index of the section.
+     */
+    private static void designSection(double frequency, double q, double[] coefficients, int section) {
+        int base = section * COEFFICIENTS;
+        if (frequency >= SAMPLE_RATE / 4) {
+            // Too close to the Nyquist frequency to filter anything; pass samples unchanged.
+            coefficients[base] = 1;
+            coefficients[base + 1] = 0;
+            coefficients[base + 2] = 0;
+            coefficients[base + 3] = 0;
+            coefficients[base + 4] = 0;
+            return;
+        }
+        double k = Math.tan(Math.PI * frequency / SAMPLE_RATE);
+        double norm = 1 / (1 + k / q + k * k);
+        coefficients[base] = k * k * norm;
+        coefficients[base + 1] = 2 * k * k * norm;
+        coefficients[base + 2] = k * k * norm;
+        coefficients[base + 3] = 2 * (k * k - 1) * norm;
+        coefficients[base + 4] = (1 - k / q + k * k) * norm;
+    }
+
+    /**
+     * Change the response, carrying on from the current output.
+     * @param shape The shape of the response.
+     * @param settlingTime The settling time in seconds (see SETTLING_TIMES), or 0 for no
+     *                     filtering. Settling times without a preset are worked out here.
+     */
+    public void SetResponse(Shape shape, float settlingTime) {
+        double[] preset = null;
+        for (int index = 0; index < SETTLING_TIMES.length; index++) {
+            if (SETTLING_TIMES[index] == settlingTime) {
+                preset = PRESETS[shape.ordinal()][index];
+            }
+        }
+        if (preset != null) {
+            System.arraycopy(preset, 0, mCoefficients, 0, mCoefficients.length);
+        } else {
+            design(shape, settlingTime, mCoefficients);
+        }
+        mSections = shape == Shape.BUTTERWORTH_FOURTH_ORDER ? 2 : 1;
+        mSettledSteps = settledSteps();
+        calculateStepPowers();
+        if (mAlreadyRun) {
+            Reset((float) (mOffset + mOutput), mTimestamp);
+        }
+    }
+
+    /**
+     * @return The number of steps after which a held input has passed through.
+     */
+    private long settledSteps() {
+        double slowest = 0;
+        for (int section = 0; section < mSections; section++) {
+            double a1 = mCoefficients[section * COEFFICIENTS + 3];
+            double a2 = mCoefficients[section * COEFFICIENTS + 4];
+            // The poles are the roots of z^2 + a1 z + a2.
+            double discriminant = a1 * a1 - 4 * a2;
+            double radius = discriminant < 0 ? Math.sqrt(a2) : (Math.abs(a1) + Math.sqrt(discriminant)) / 2;
+            slowest = Math.max(slowest, radius);
+        }
+        if (slowest == 0) {
+            return 0;
+        }
+        // Allow twice as long for repeated poles, whose response decays as n r^n.
+        return 2 * (long) Math.ceil(Math.log(SETTLED_RESIDUAL) / Math.log(slowest)) + 2 * mSections;
+    }
+
+    /**
+     * Work out the matrix of one step with a held input, by running a step from each unit state
+     * and input, and square it until it covers mSettledSteps steps.
+     */
+    private void calculateStepPowers() {
+        int size = mSections * 2 + 1;
+        double[] matrix = mStepPowers[0];
+        double[] state = mPeekState;
+        for (int column = 0; column < size; column++) {
+            for (int index = 0; index < state.length; index++) {
+                state[index] = 0;
+            }
+            double input = 0;
+            if (column < size - 1) {
+                state[column] = 1;
+            } else {
+                input = 1;
+            }
+            step(input, state);
+            for (int row = 0; row < size - 1; row++) {
+                matrix[row * size + column] = state[row];
+            }
+            // The input is held.
+            matrix[(size - 1) * size + column] = column == size - 1 ? 1 : 0;
+        }
+        mPowers = 1;
+        while (mPowers < mStepPowers.length && (1L << mPowers) <= mSettledSteps) {
+            double[] previous = mStepPowers[mPowers - 1];
+            double[] square = mStepPowers[mPowers];
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    double sum = 0;
+                    for (int index = 0; index < size; index++) {
+                        sum += previous[row * size + index] * previous[index * size + column];
+                    }
+                    square[row * size + column] = sum;
+                }
+            }
+            mPowers++;
+        }
+    }
+
+    /**
+     * Run a number of steps with a held input.
+     * @param input The input relative to mOffset.
+     * @param state The state of the sections, which is updated.
+     * @param output The output before the first step, relative to mOffset.
+     * @param steps The number of steps, no more than mSettledSteps.
+     * @return The output after the last step, relative to mOffset.
+     */
+    private double advance(double input, double[] state, double output, long steps) {
+        if (steps <= MAX_LOOP_STEPS) {
+            for (; steps > 0; steps--) {
+                output = step(input, state);
+            }
+            return output;
+        }
+        // Take all but the last step by the powers of the step matrix, and the last one as usual
+        // to find the output.
+        int size = mSections * 2 + 1;
+        double[] vector = mVector;
+        System.arraycopy(state, 0, vector, 0, size - 1);
+        vector[size - 1] = input;
+        long remaining = steps - 1;
+        for (int power = 0; remaining != 0; power++, remaining >>>= 1) {
+            if ((remaining & 1) != 0) {
+                double[] matrix = mStepPowers[power];
+                for (int row = 0; row < size; row++) {
+                    double sum = 0;
+                    for (int index = 0; index < size; index++) {
+                        sum += matrix[row * size + index] * vector[index];
+                    }
+                    mProduct[row] = sum;
+                }
+                System.arraycopy(mProduct, 0, vector, 0, size);
+            }
+        }
+        System.arraycopy(vector, 0, state, 0, size - 1);
+        return step(input, state);
+    }
+
+    /**
+     * Run one step through the sections, in transposed direct form II.
+     * @param input The input relative to mOffset.
+     * @param state The state of the sections, which is updated.
+     * @return The output relative to mOffset.
+     */
+    private double step(double input, double[] state) {
+        double[] c = mCoefficients;
+        for (int section = 0; section < mSections; section++) {
+            int base = section * COEFFICIENTS;
+            int z = section * 2;
+            double output = c[base] * input + state[z];
+            state[z] = c[base + 1] * input - c[base + 3] * output + state[z + 1];
+            state[z + 1] = c[base + 2] * input - c[base + 4] * output;
+            input = output;
+        }
+        return input;
+    }
+
+    /**
+     * Run one step.
+     * @param sample The sample in hPa.
+     * @return The filtered pressure in hPa.
+     */
+    public float Filter(float sample) {
+        if (!mAlreadyRun) {
+            Reset(sample, mTimestamp);
+            return sample;
+        }
+        mOutput = step(sample - mOffset, mState);
+        return (float) (mOffset + mOutput);
+    }
+
+    @Override
+    public float Filter(float sample, long timestamp) {
+        if (!mAlreadyRun) {
+            Reset(sample, timestamp);
+            return sample;
+        }
+        long steps = (timestamp - mTimestamp) / TIME_STEP;
+        mTimestamp += steps * TIME_STEP;
+        if (steps > mSettledSteps) {
+            Reset(sample, mTimestamp);
+            return sample;
+        }
+        mOutput = advance(sample - mOffset, mState, mOutput, steps);
+        return (float) (mOffset + mOutput);
+    }
+
+    @Override
+    public float PeekAt(float sample, long timestamp) {
+        long steps = (timestamp - mTimestamp) / TIME_STEP;
+        if (!mAlreadyRun || steps > mSettledSteps) {
+            return sample;
+        }
+        double[] state = mPeekState;
+        System.arraycopy(mState, 0, state, 0, state.length);
+        return (float) (mOffset + advance(sample - mOffset, state, mOutput, steps));
+    }
+
+    @Override
+    public void Reset(float output, long timestamp) {
+        // With the input and output at the new offset, every section is at rest.
+        mOffset = output;
+        mOutput = 0;
+        for (int index = 0; index < mState.length; index++) {
+            mState[index] = 0;
+        }
+        mAlreadyRun = true;
+        mTimestamp = timestamp;
+    }
+}
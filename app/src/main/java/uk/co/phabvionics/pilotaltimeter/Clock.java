@@ -0,0 +1,19 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * A source of monotonic time, so that anything timed against the wall clock can instead be driven
+ * from recorded timestamps when replaying.
+ */
+public interface Clock {
+    /**
+     * @return The current time in nanoseconds from an arbitrary origin.
+     */
+    long nanoTime();
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+}
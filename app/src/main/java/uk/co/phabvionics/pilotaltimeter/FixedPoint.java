@@ -0,0 +1,24 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * Converts pressures to fixed point so that running sums of them are exact: adding and later
+ * subtracting the same sample always leaves the sum as it was, however long a filter runs.
+ */
+final class FixedPoint {
+    /**
+     * 24 fractional bits, so every float from 0.5 upwards converts exactly, and a long holds the
+     * sum of millions of pressures.
+     */
+    private static final double ONE = 1 << 24;
+
+    private FixedPoint() {
+    }
+
+    static long fromFloat(float value) {
+        return Math.round(value * ONE);
+    }
+
+    static double toDouble(long value) {
+        return value / ONE;
+    }
+}
@@ -0,0 +1,161 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records a flight as fixed-size binary records appended to memory-mapped segment files.
+ * Each segment is preallocated and mapped when it is opened, so recording a sample is a handful
+ * of stores into the mapping with no formatting, no system call and no allocation.
+ *
+ * A segment is a HEADER_SIZE byte header followed by up to RECORDS_PER_SEGMENT records, all
+ * little-endian. The header holds MAGIC, VERSION, RECORD_SIZE, the segment number and the number
+ * of records written to the segment so far. Each record holds the sensor timestamp in ns (long),
+ * the raw pressure in hPa (float), the filtered pressure in hPa (float), the vertical speed in
+ * ft/min (float) and the mean vertical acceleration applied to the vertical speed in m/s^2
+ * upwards (float, NaN if there was none). Version 1 segments have 20 byte records without the
+ * acceleration. Segments are named name-000.palt, name-001.palt and so on.
+ */
+public class FlightRecorder {
+    static final int MAGIC = 0x544c4150; // "PALT"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 24;
+    static final int VERSION_1_RECORD_SIZE = 20;
+    static final int COUNT_OFFSET = 16;
+    static final String EXTENSION = ".palt";
+    /**
+     * About 24MB per segment, which holds over 8 hours of samples at 33ms intervals.
+     */
+    static final int RECORDS_PER_SEGMENT = 1 << 20;
+
+    private final File mDirectory;
+    private final String mName;
+    private final int mRecordsPerSegment;
+    private int mSegment;
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mBuffer;
+    private int mRecordCount; // Records in the current segment.
+    private long mTotalRecords;
+    private IOException mError;
+
+    /**
+     * Create a recorder and open its first segment.
+     * @param directory The directory to hold the segment files.
+     * @param name The name of the recording, used as the prefix of the segment file names.
+     * @throws IOException if the first segment cannot be created.
+     */
+    public FlightRecorder(File directory, String name) throws IOException {
+        this(directory, name, RECORDS_PER_SEGMENT);
+    }
+
+    FlightRecorder(File directory, String name, int recordsPerSegment) throws IOException {
+        mDirectory = directory;
+        mName = name;
+        mRecordsPerSegment = recordsPerSegment;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        openSegment(0);
+    }
+
+    /**
+     * @param name The name of the recording.
+     * @param segment The segment number.
+     * @return The file name of the segment.
+     */
+    static String segmentFileName(String name, int segment) {
+        return String.format("%s-%03d%s", name, segment, EXTENSION);
+    }
+
+    private void openSegment(int segment) throws IOException {
+        File file = new File(mDirectory, segmentFileName(mName, segment));
+        long size = HEADER_SIZE + (long) mRecordsPerSegment * RECORD_SIZE;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+        mFile = randomAccessFile;
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(8, RECORD_SIZE);
+        mBuffer.putInt(12, segment);
+        mBuffer.putInt(COUNT_OFFSET, 0);
+        mSegment = segment;
+        mRecordCount = 0;
+    }
+
+    private void closeSegment() throws IOException {
+        mBuffer.force();
+        mBuffer = null;
+        mFile.close();
+        mFile = null;
+    }
+
+    /**
+     * Append a record. When a segment fills up the next one is created.
+     * @param timestamp Sensor time in nanoseconds.
+     * @param pressure Raw pressure in hPa.
+     * @param filteredPressure Filtered pressure in hPa.
+     * @param verticalSpeed Vertical speed in ft/min.
+     * @param acceleration Vertical acceleration in m/s^2, or NaN if there was none.
+     * @return false if the recorder has stopped because a segment could not be created.
+     */
+    public boolean record(long timestamp, float pressure, float filteredPressure, float verticalSpeed,
+                          float acceleration) {
+        if (mBuffer == null) {
+            return false;
+        }
+        if (mRecordCount == mRecordsPerSegment) {
+            try {
+                closeSegment();
+                openSegment(mSegment + 1);
+            } catch (IOException e) {
+                mError = e;
+                mBuffer = null;
+                return false;
+            }
+        }
+        int position = HEADER_SIZE + mRecordCount * RECORD_SIZE;
+        MappedByteBuffer buffer = mBuffer;
+        buffer.putLong(position, timestamp);
+        buffer.putFloat(position + 8, pressure);
+        buffer.putFloat(position + 12, filteredPressure);
+        buffer.putFloat(position + 16, verticalSpeed);
+        buffer.putFloat(position + 20, acceleration);
+        mRecordCount++;
+        buffer.putInt(COUNT_OFFSET, mRecordCount);
+        mTotalRecords++;
+        return true;
+    }
+
+    /**
+     * Flush the current segment to storage and stop recording.
+     * @throws IOException if the segment could not be flushed or closed.
+     */
+    public void close() throws IOException {
+        if (mBuffer != null) {
+            closeSegment();
+        }
+    }
+
+    public long getTotalRecords() {
+        return mTotalRecords;
+    }
+
+    /**
+     * @return The error that stopped the recording, or null if there has been none.
+     */
+    public IOException getError() {
+        return mError;
+    }
+}
@@ -0,0 +1,152 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads back the records written by a FlightRecorder, segment by segment. Recordings made before
+ * acceleration was recorded are read with the acceleration NaN.
+ */
+public class FlightRecordingReader {
+    private final File mDirectory;
+    private final String mName;
+    private int mSegment;
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mBuffer;
+    private int mRecordCount; // Records in the current segment.
+    private int mRecord; // Index of the next record in the current segment.
+    private int mRecordSize; // Of the current segment.
+    private long mTimestamp;
+    private float mPressure;
+    private float mFilteredPressure;
+    private float mVerticalSpeed;
+    private float mAcceleration;
+
+    /**
+     * @param directory The directory holding the segment files.
+     * @param name The name the recording was made with.
+     * @throws IOException if the first segment cannot be opened or is not a flight recording.
+     */
+    public FlightRecordingReader(File directory, String name) throws IOException {
+        mDirectory = directory;
+        mName = name;
+        if (!openSegment(0)) {
+            throw new IOException("No recording " + name + " in " + directory);
+        }
+    }
+
+    /**
+     * Open the recording that a segment file belongs to, from its first segment.
+     * @param segmentFile Any segment file of the recording.
+     * @return The reader.
+     * @throws IOException if the file is not part of a flight recording.
+     */
+    public static FlightRecordingReader open(File segmentFile) throws IOException {
+        String fileName = segmentFile.getName();
+        // Strip "-nnn.palt" from the end.
+        int suffix = 4 + FlightRecorder.EXTENSION.length();
+        if (!fileName.endsWith(FlightRecorder.EXTENSION) || fileName.length() <= suffix) {
+            throw new IOException(segmentFile + " is not a flight recording segment");
+        }
+        File directory = segmentFile.getAbsoluteFile().getParentFile();
+        return new FlightRecordingReader(directory, fileName.substring(0, fileName.length() - suffix));
+    }
+
+    /**
+     * @param file A file.
+     * @return true if the file name is that of a flight recording segment.
+     */
+    public static boolean isSegmentFile(File file) {
+        return file.getName().endsWith(FlightRecorder.EXTENSION);
+    }
+
+    private boolean openSegment(int segment) throws IOException {
+        File file = new File(mDirectory, FlightRecorder.segmentFileName(mName, segment));
+        if (!file.isFile()) {
+            return false;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+        mFile = randomAccessFile;
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (mBuffer.capacity() < FlightRecorder.HEADER_SIZE
+                || mBuffer.getInt(0) != FlightRecorder.MAGIC
+                || !(mBuffer.getInt(4) == FlightRecorder.VERSION && mBuffer.getInt(8) == FlightRecorder.RECORD_SIZE
+                    || mBuffer.getInt(4) == 1 && mBuffer.getInt(8) == FlightRecorder.VERSION_1_RECORD_SIZE)) {
+            close();
+            throw new IOException(file + " is not a flight recording segment");
+        }
+        mRecordSize = mBuffer.getInt(8);
+        mRecordCount = Math.min(mBuffer.getInt(FlightRecorder.COUNT_OFFSET),
+                (mBuffer.capacity() - FlightRecorder.HEADER_SIZE) / mRecordSize);
+        mRecord = 0;
+        mSegment = segment;
+        return true;
+    }
+
+    /**
+     * Move on to the next record.
+     * @return false if there are no more records.
+     * @throws IOException if the next segment cannot be read.
+     */
+    public boolean next() throws IOException {
+        if (mBuffer == null) {
+            return false;
+        }
+        while (mRecord == mRecordCount) {
+            // A full segment is followed by the next one, if there is one.
+            close();
+            if (!openSegment(mSegment + 1)) {
+                return false;
+            }
+        }
+        int position = FlightRecorder.HEADER_SIZE + mRecord * mRecordSize;
+        mTimestamp = mBuffer.getLong(position);
+        mPressure = mBuffer.getFloat(position + 8);
+        mFilteredPressure = mBuffer.getFloat(position + 12);
+        mVerticalSpeed = mBuffer.getFloat(position + 16);
+        mAcceleration = mRecordSize > FlightRecorder.VERSION_1_RECORD_SIZE ? mBuffer.getFloat(position + 20) : Float.NaN;
+        mRecord++;
+        return true;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public float getPressure() {
+        return mPressure;
+    }
+
+    public float getFilteredPressure() {
+        return mFilteredPressure;
+    }
+
+    public float getVerticalSpeed() {
+        return mVerticalSpeed;
+    }
+
+    /**
+     * @return The vertical acceleration in m/s^2 upwards, or NaN if none was recorded.
+     */
+    public float getAcceleration() {
+        return mAcceleration;
+    }
+
+    public void close() throws IOException {
+        mBuffer = null;
+        if (mFile != null) {
+            mFile.close();
+            mFile = null;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * A reusable character buffer for building readouts, for drawing with
+ * Canvas.drawText(char[], int, int, ...). Numbers are formatted straight into the buffer, so once
+ * it has grown to fit, building a readout allocates nothing, unlike String.format.
+ */
+public class FormattedText {
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    private char[] mChars;
+    private int mLength;
+
+    public FormattedText() {
+        mChars = new char[32];
+    }
+
+    /**
+     * Empty the buffer.
+     * @return This buffer.
+     */
+    public FormattedText clear() {
+        mLength = 0;
+        return this;
+    }
+
+    public FormattedText append(char c) {
+        ensureSpace(1);
+        mChars[mLength++] = c;
+        return this;
+    }
+
+    public FormattedText append(String s) {
+        int length = s.length();
+        ensureSpace(length);
+        s.getChars(0, length, mChars, mLength);
+        mLength += length;
+        return this;
+    }
+
+    public FormattedText append(long value) {
+        if (value < 0) {
+            append('-');
+            if (value == Long.MIN_VALUE) {
+                return append("9223372036854775808");
+            }
+            value = -value;
+        }
+        appendDigits(value, 1);
+        return this;
+    }
+
+    /**
+     * Append a number rounded to a fixed number of decimal places, as String.format("%.nf") does
+     * except that a value that rounds to zero is never shown as -0.
+     * @param value The number.
+     * @param decimals The number of decimal places, from 0 to 6.
+     * @return This buffer.
+     */
+    public FormattedText append(float value, int decimals) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return append(Float.toString(value));
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(Math.abs((double) value) * scale);
+        if (value < 0 && scaled != 0) {
+            append('-');
+        }
+        appendDigits(scaled / scale, 1);
+        if (decimals > 0) {
+            append('.');
+            appendDigits(scaled % scale, decimals);
+        }
+        return this;
+    }
+
+    private void appendDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        ensureSpace(digits);
+        for (int index = mLength + digits - 1; index >= mLength; index--) {
+            mChars[index] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        mLength += digits;
+    }
+
+    private void ensureSpace(int count) {
+        if (mLength + count > mChars.length) {
+            char[] chars = new char[Math.max(mChars.length * 2, mLength + count)];
+            System.arraycopy(mChars, 0, chars, 0, mLength);
+            mChars = chars;
+        }
+    }
+
+    /**
+     * @return The characters; only the first length() are valid.
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
@@ -0,0 +1,151 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Paces display updates to the display's vsync, so that however many samples are processed
+ * between two frames the display is updated at most once, and no more often than a maximum
+ * frame rate. Frames may be requested from any thread; the display update runs on the UI thread.
+ * Before Android 4.1, which has no Choreographer, frames are timed with the handler instead.
+ */
+public class FrameScheduler {
+    /**
+     * Frames are allowed this much early, so that jitter in the vsync times does not make a
+     * capped rate skip a whole extra vsync.
+     */
+    private static final long FRAME_TOLERANCE = 4000000; // 4ms
+    private static final long TIMER_FRAME_INTERVAL = 16; // ms
+
+    private final Handler mHandler;
+    private final Runnable mUpdate;
+    private final FrameWaiter mWaiter;
+    private final AtomicBoolean mRequested = new AtomicBoolean();
+    private final Runnable mSchedule = new Runnable() {
+        @Override
+        public void run() {
+            if (!mWaiting && mRunning) {
+                mWaiting = true;
+                mWaiter.waitForFrame();
+            }
+        }
+    };
+    // Only used on the UI thread.
+    private boolean mRunning;
+    private boolean mWaiting;
+    private long mFrameInterval;
+    private long mLastFrameTime;
+
+    /**
+     * @param handler A handler on the UI thread.
+     * @param update Updates the display; run on the UI thread.
+     */
+    public FrameScheduler(Handler handler, Runnable update) {
+        mHandler = handler;
+        mUpdate = update;
+        mWaiter = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new VsyncWaiter() : new TimerWaiter();
+        setMaxFrameRate(60);
+    }
+
+    /**
+     * Only to be called on the UI thread.
+     * @param framesPerSecond The most display updates per second.
+     */
+    public void setMaxFrameRate(int framesPerSecond) {
+        mFrameInterval = 1000000000L / Math.max(framesPerSecond, 1);
+    }
+
+    /**
+     * Start running display updates when they are requested. Only to be called on the UI thread.
+     */
+    public void start() {
+        mRunning = true;
+        if (mRequested.get()) {
+            mSchedule.run();
+        }
+    }
+
+    /**
+     * Stop running display updates. Only to be called on the UI thread.
+     */
+    public void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mSchedule);
+        if (mWaiting) {
+            mWaiter.cancel();
+            mWaiting = false;
+        }
+    }
+
+    /**
+     * Ask for the display to be updated at the next frame that the maximum frame rate allows.
+     * May be called on any thread.
+     */
+    public void requestFrame() {
+        if (mRequested.compareAndSet(false, true)) {
+            mHandler.post(mSchedule);
+        }
+    }
+
+    private void onFrame(long frameTime) {
+        if (!mRunning) {
+            mWaiting = false;
+            return;
+        }
+        if (frameTime - mLastFrameTime < mFrameInterval - FRAME_TOLERANCE) {
+            mWaiter.waitForFrame();
+            return;
+        }
+        mWaiting = false;
+        mLastFrameTime = frameTime;
+        // Clear the request first, so that samples arriving during the update ask for another.
+        mRequested.set(false);
+        mUpdate.run();
+    }
+
+    private abstract static class FrameWaiter {
+        abstract void waitForFrame();
+
+        abstract void cancel();
+    }
+
+    /**
+     * Waits for vsync with Choreographer. Only loaded on Android 4.1 and later.
+     */
+    private class VsyncWaiter extends FrameWaiter implements Choreographer.FrameCallback {
+        @Override
+        void waitForFrame() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        void cancel() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onFrame(frameTimeNanos);
+        }
+    }
+
+    private class TimerWaiter extends FrameWaiter implements Runnable {
+        @Override
+        void waitForFrame() {
+            mHandler.postDelayed(this, TIMER_FRAME_INTERVAL);
+        }
+
+        @Override
+        void cancel() {
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            onFrame(System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * Builds the line segments of a history graph into a float array, in the form taken by
+ * Canvas.drawLines, so that the whole graph is drawn in one call.
+ * When the history holds more samples than the graph is pixels wide, the samples falling in each
+ * pixel column are reduced to their minimum and maximum, in the order they occurred. Peaks are
+ * kept, and the number of segments depends on the width of the graph rather than on how much
+ * history is kept.
+ */
+public class GraphLines {
+    private float[] mLines = new float[0];
+    private int mLength;
+    private boolean mHasPoint;
+    private float mLastX;
+    private float mLastY;
+
+    /**
+     * Build the segments for a history. Samples are spaced over the full capacity of the
+     * history, with the newest at the right.
+     * @param history The history to draw.
+     * @param left The x-coordinate of the left edge of the graph.
+     * @param width The width of the graph in pixels.
+     * @param yOrigin The y-coordinate of a sample of 0.
+     * @param yScale The change in y-coordinate per unit of the samples.
+     * @return The number of floats of getLines() to draw.
+     */
+    public int build(HistoryBuffer history, float left, float width, float yOrigin, float yScale) {
+        return build(history, history.capacity(), left, width, yOrigin, yScale);
+    }
+
+    /**
+     * Build the segments for the newest samples of a history, spaced over a number of points
+     * with the newest at the right.
+     * @param history The history to draw.
+     * @param capacity The number of points across the graph; older samples are not drawn.
+     * @param left The x-coordinate of the left edge of the graph.
+     * @param width The width of the graph in pixels.
+     * @param yOrigin The y-coordinate of a sample of 0.
+     * @param yScale The change in y-coordinate per unit of the samples.
+     * @return The number of floats of getLines() to draw.
+     */
+    public int build(HistoryBuffer history, int capacity, float left, float width, float yOrigin, float yScale) {
+        int skipped = Math.max(0, history.size() - capacity);
+        int samples = history.size() - skipped;
+        int columns = Math.max(1, (int) width);
+        int points = Math.min(samples, 2 * columns);
+        if (mLines.length < 4 * points) {
+            mLines = new float[4 * points];
+        }
+        mLength = 0;
+        mHasPoint = false;
+        if (samples < 2) {
+            return 0;
+        }
+        float xStep = width / (capacity - 1);
+        int first = capacity - samples;
+        if (samples <= 2 * columns) {
+            for (int index = 0; index < samples; index++) {
+                addPoint(left + (first + index) * xStep, yOrigin + history.get(skipped + index) * yScale);
+            }
+            return mLength;
+        }
+        // Reduce each pixel column to its minimum and maximum.
+        int index = 0;
+        while (index < samples) {
+            int column = column(first + index, xStep, columns);
+            float min = history.get(skipped + index);
+            float max = min;
+            int minIndex = index;
+            int maxIndex = index;
+            for (index++; index < samples && column(first + index, xStep, columns) == column; index++) {
+                float sample = history.get(skipped + index);
+                if (sample < min) {
+                    min = sample;
+                    minIndex = index;
+                } else if (sample > max) {
+                    max = sample;
+                    maxIndex = index;
+                }
+            }
+            float x = left + column;
+            if (minIndex == maxIndex) {
+                addPoint(x, yOrigin + min * yScale);
+            } else if (minIndex < maxIndex) {
+                addPoint(x, yOrigin + min * yScale);
+                addPoint(x, yOrigin + max * yScale);
+            } else {
+                addPoint(x, yOrigin + max * yScale);
+                addPoint(x, yOrigin + min * yScale);
+            }
+        }
+        return mLength;
+    }
+
+    private static int column(int position, float xStep, int columns) {
+        return Math.min((int) (position * xStep), columns - 1);
+    }
+
+    private void addPoint(float x, float y) {
+        if (mHasPoint) {
+            if (mLength + 4 > mLines.length) {
+                float[] lines = new float[mLines.length * 2 + 4];
+                System.arraycopy(mLines, 0, lines, 0, mLength);
+                mLines = lines;
+            }
+            mLines[mLength++] = mLastX;
+            mLines[mLength++] = mLastY;
+            mLines[mLength++] = x;
+            mLines[mLength++] = y;
+        }
+        mHasPoint = true;
+        mLastX = x;
+        mLastY = y;
+    }
+
+    /**
+     * @return The segments built by the last call to build, as x0, y0, x1, y1 for each.
+     */
+    public float[] getLines() {
+        return mLines;
+    }
+}
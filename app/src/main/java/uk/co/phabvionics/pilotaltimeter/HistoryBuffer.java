@@ -0,0 +1,129 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * A fixed-capacity circular buffer of float samples.
+ * Adding a sample is O(1); once the buffer is full the oldest sample is overwritten.
+ * Samples are indexed from 0 (the oldest retained sample) to size() - 1 (the newest).
+ */
+public class HistoryBuffer {
+    private float[] mSamples;
+    private int mCapacity;
+    private int mStart; // index into mSamples of the oldest sample
+    private int mSize;
+    private long mAdded;
+
+    public HistoryBuffer(int capacity) {
+        mCapacity = Math.max(capacity, 1);
+        mSamples = new float[mCapacity];
+    }
+
+    /**
+     * Append a sample, discarding the oldest sample if the buffer is full.
+     * @param sample The sample to append.
+     */
+    public void add(float sample) {
+        int end = mStart + mSize;
+        if (end >= mCapacity) {
+            end -= mCapacity;
+        }
+        mSamples[end] = sample;
+        mAdded++;
+        if (mSize < mCapacity) {
+            mSize++;
+        } else {
+            mStart++;
+            if (mStart == mCapacity) {
+                mStart = 0;
+            }
+        }
+    }
+
+    /**
+     * Get a retained sample.
+     * @param index 0 for the oldest retained sample up to size() - 1 for the newest.
+     * @return The sample.
+     */
+    public float get(int index) {
+        int position = mStart + index;
+        if (position >= mCapacity) {
+            position -= mCapacity;
+        }
+        return mSamples[position];
+    }
+
+    /**
+     * Get a retained sample counting back from the newest.
+     * @param age 0 for the newest sample up to size() - 1 for the oldest.
+     * @return The sample.
+     */
+    public float getRecent(int age) {
+        return get(mSize - 1 - age);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return The number of samples added since the buffer was created, which changes whenever
+     * the contents do.
+     */
+    public long getAddedCount() {
+        return mAdded;
+    }
+
+    public boolean isFull() {
+        return mSize == mCapacity;
+    }
+
+    public void clear() {
+        mStart = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Make this buffer a copy of the newest samples of another.
+     * @param source The buffer to copy.
+     * @param count The number of newest samples to copy, which becomes the capacity of this
+     *              buffer (at least 1).
+     */
+    public void copyNewest(HistoryBuffer source, int count) {
+        count = Math.max(count, 1);
+        if (count != mCapacity) {
+            mSamples = new float[count];
+            mCapacity = count;
+        }
+        int size = Math.min(source.mSize, count);
+        int first = source.mSize - size;
+        for (int index = 0; index < size; index++) {
+            mSamples[index] = source.get(first + index);
+        }
+        mStart = 0;
+        mSize = size;
+        mAdded = source.mAdded;
+    }
+
+    /**
+     * Change the capacity of the buffer, keeping as many of the newest samples as will fit.
+     * @param capacity The new capacity (at least 1).
+     */
+    public void resize(int capacity) {
+        capacity = Math.max(capacity, 1);
+        if (capacity == mCapacity) {
+            return;
+        }
+        float[] samples = new float[capacity];
+        int keep = Math.min(mSize, capacity);
+        for (int index = 0; index < keep; index++) {
+            samples[index] = get(mSize - keep + index);
+        }
+        mSamples = samples;
+        mCapacity = capacity;
+        mStart = 0;
+        mSize = keep;
+    }
+}
@@ -1,9 +1,22 @@
 package uk.co.phabvionics.pilotaltimeter;
 
-public class IIRLowPassFilter {
+/**
+ * A first order low pass filter run once per step of the PressureResampler grid.
+ * Filter(sample) runs one step. As a PressureFilter, samples are held over the grid steps
+ * between them and the output is that at the last grid step at or before each sample, so the
+ * results match those of running one step at a time, but a run of steps is taken in one go.
+ */
+public class IIRLowPassFilter implements PressureFilter {
+    private static final long TIME_STEP = PressureResampler.TIME_STEP;
+    /**
+     * Runs of up to this many steps are filtered step by step; longer ones in closed form.
+     */
+    private static final long MAX_LOOP_STEPS = 32;
+
     private float mAlpha;
     private float mSampleM1;
     private boolean mAlreadyRun;
+    private long mTimestamp; // Grid time of mSampleM1 in nanoseconds, when used as a PressureFilter.
 
     //public IIRLowPassFilter(float alpha) {
     //	mAlpha = alpha;
@@ -17,6 +30,14 @@ public class IIRLowPassFilter {
         mAlpha = (float) Math.exp(-1.0/samplesPerTimeConstant);
     }
 
+    /**
+     * Change the time constant, keeping the current output.
+     * @param samplesPerTimeConstant The time constant in steps.
+     */
+    public void SetTimeConstant(float samplesPerTimeConstant) {
+        mAlpha = (float) Math.exp(-1.0/samplesPerTimeConstant);
+    }
+
     public float Filter(float sample) {
         float newSample;
 
@@ -30,4 +51,99 @@ public class IIRLowPassFilter {
 
         return newSample;
     }
+
+    /**
+     * Calculate the output the filter would give after being fed the same sample a number of
+     * times, without changing the filter state.
+     * @param sample The sample fed on every step.
+     * @param steps The number of steps.
+     * @return The filter output after the last step.
+     */
+    public float Peek(float sample, long steps) {
+        if (!mAlreadyRun) {
+            return sample;
+        }
+        return (float) (sample + (mSampleM1 - sample) * Math.pow(mAlpha, steps));
+    }
+
+    /**
+     * Feed the same sample a number of times in O(1), as if Filter(sample) had been called
+     * once per step.
+     * @param sample The sample fed on every step.
+     * @param steps The number of steps.
+     * @return The filter output after the last step.
+     */
+    public float Advance(float sample, long steps) {
+        mSampleM1 = Peek(sample, steps);
+        mAlreadyRun = true;
+        return mSampleM1;
+    }
+
+    /**
+     * Calculate the output the filter would give after being fed a geometric sequence of
+     * samples amplitude * ratio^j for j = 1 to steps, without changing the filter state.
+     * @param amplitude The amplitude of the sequence.
+     * @param ratio The common ratio of the sequence.
+     * @param steps The number of steps.
+     * @return The filter output after the last step.
+     */
+    public float PeekGeometric(double amplitude, double ratio, long steps) {
+        double output = mAlreadyRun ? mSampleM1 : amplitude * ratio;
+        double alphaN = Math.pow(mAlpha, steps);
+        double ratioN = Math.pow(ratio, steps);
+        double sum;
+        if (Math.abs(mAlpha - ratio) < 1e-12) {
+            sum = steps * ratioN;
+        } else {
+            // Sum of alpha^(steps - j) * ratio^j for j = 1 to steps.
+            sum = ratio * (alphaN - ratioN) / (mAlpha - ratio);
+        }
+        return (float) (alphaN * output + (1 - mAlpha) * amplitude * sum);
+    }
+
+    /**
+     * Feed the geometric sequence of samples amplitude * ratio^j for j = 1 to steps in O(1).
+     * @param amplitude The amplitude of the sequence.
+     * @param ratio The common ratio of the sequence.
+     * @param steps The number of steps.
+     * @return The filter output after the last step.
+     */
+    public float AdvanceGeometric(double amplitude, double ratio, long steps) {
+        mSampleM1 = PeekGeometric(amplitude, ratio, steps);
+        mAlreadyRun = true;
+        return mSampleM1;
+    }
+
+    public float GetAlpha() {
+        return mAlpha;
+    }
+
+    @Override
+    public float Filter(float sample, long timestamp) {
+        if (!mAlreadyRun) {
+            Reset(sample, timestamp);
+            return sample;
+        }
+        long steps = (timestamp - mTimestamp) / TIME_STEP;
+        mTimestamp += steps * TIME_STEP;
+        if (steps > MAX_LOOP_STEPS) {
+            return Advance(sample, steps);
+        }
+        for (; steps > 0; steps--) {
+            Filter(sample);
+        }
+        return mSampleM1;
+    }
+
+    @Override
+    public float PeekAt(float sample, long timestamp) {
+        return Peek(sample, (timestamp - mTimestamp) / TIME_STEP);
+    }
+
+    @Override
+    public void Reset(float output, long timestamp) {
+        mSampleM1 = output;
+        mAlreadyRun = true;
+        mTimestamp = timestamp;
+    }
 }
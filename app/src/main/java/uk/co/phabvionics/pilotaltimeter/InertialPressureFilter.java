@@ -0,0 +1,253 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * A Kalman filter that fuses measured vertical acceleration with pressure, estimating pressure,
+ * its rate of change and the bias of the accelerometer together. Between pressure measurements
+ * the estimate is carried forward by integrating the acceleration, so the rate of change follows
+ * a pull-up as soon as it is felt rather than once the pressure has visibly changed; each
+ * pressure measurement then corrects the drift that integrating a noisy, biased accelerometer
+ * would otherwise build up.
+ *
+ * Accelerations are taken in m/s^2 upwards and converted to pressure units with the same
+ * sea-level factor the vertical speed indicator uses to convert back, so an acceleration
+ * integrated over time shows as exactly that change in vertical speed. Where no acceleration is
+ * available, the rate of change is modelled as a random walk, as in KalmanPressureFilter.
+ * Nothing is allocated after construction.
+ */
+public class InertialPressureFilter {
+    /**
+     * Metres of height per hPa of pressure near sea level.
+     */
+    public static final double METRES_PER_HPA = 8.32421;
+    /**
+     * Typical standard deviation of the error in earth-frame vertical acceleration from phone
+     * linear acceleration and rotation sensors, including errors in orientation, in m/s^2.
+     */
+    public static final double ACCELERATION_NOISE = 0.3;
+    /**
+     * How quickly the accelerometer bias is expected to wander: the standard deviation of its
+     * change over one second, in m/s^2.
+     */
+    public static final double BIAS_NOISE = 0.01;
+    /**
+     * Variance of the initial rate estimate, (hPa/s)^2; about 160ft/min standard deviation.
+     */
+    private static final double INITIAL_RATE_VARIANCE = 0.01;
+    /**
+     * Variance of the initial accelerometer bias estimate, (hPa/s^2)^2; about 0.25m/s^2
+     * standard deviation.
+     */
+    private static final double INITIAL_BIAS_VARIANCE = 0.001;
+    /**
+     * An interval longer than this many seconds between samples starts a new estimate, since the
+     * vertical speed over such a gap is unknown.
+     */
+    private static final double MAX_PREDICTION = 1.0;
+
+    private final double mAccelerationVariance; // Spectral density with acceleration, (hPa/s^2)^2 s.
+    private final double mBiasVariance; // Spectral density of the change in bias, (hPa/s^3)^2 s.
+    private final double mMeasurementVariance; // hPa^2
+    private double mRandomWalkVariance; // Spectral density without acceleration, (hPa/s^2)^2 s.
+    private double mPressure; // hPa
+    private double mRate; // hPa/s
+    private double mBias; // hPa/s^2, added to the true rate of change of rate by the accelerometer.
+    // Covariance of the estimate, row by row: pressure, rate and bias.
+    private final double[] mP = new double[9];
+    private boolean mInitialised;
+    private long mTimestamp; // Time of the estimate in nanoseconds.
+
+    /**
+     * @param accelerationNoise The standard deviation of the error in the measured vertical
+     *                          acceleration, in m/s^2; see ACCELERATION_NOISE.
+     * @param biasNoise The standard deviation of the change in accelerometer bias over one second,
+     *                  in m/s^2; see BIAS_NOISE.
+     * @param randomWalkNoise The standard deviation of the change in rate of change of pressure
+     *                        over one second when no acceleration is available, in hPa/s; see
+     *                        KalmanPressureFilter.
+     * @param measurementNoise The standard deviation of the pressure sensor noise in hPa.
+     */
+    public InertialPressureFilter(double accelerationNoise, double biasNoise, double randomWalkNoise,
+                                  double measurementNoise) {
+        mAccelerationVariance = square(accelerationNoise / METRES_PER_HPA);
+        mBiasVariance = square(biasNoise / METRES_PER_HPA);
+        mRandomWalkVariance = square(randomWalkNoise);
+        mMeasurementVariance = square(measurementNoise);
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+
+    /**
+     * Change how quickly the rate of change is expected to vary when no acceleration is available.
+     * @param randomWalkNoise See the constructor.
+     */
+    public void SetRandomWalkNoise(double randomWalkNoise) {
+        mRandomWalkVariance = square(randomWalkNoise);
+    }
+
+    /**
+     * Forget the estimate; the next measurement starts a new one. The accelerometer bias is kept.
+     */
+    public void Reset() {
+        mInitialised = false;
+        mRate = 0;
+    }
+
+    /**
+     * Advance the estimate in time with no pressure measurement.
+     * @param interval The time to advance in seconds.
+     * @param acceleration The mean vertical acceleration over the interval in m/s^2 upwards, or
+     *                     NaN if it is not known.
+     */
+    public void Predict(double interval, float acceleration) {
+        if (!mInitialised) {
+            return;
+        }
+        double[] p = mP;
+        double interval2 = interval * interval;
+        double q;
+        if (Float.isNaN(acceleration)) {
+            // The rate of change wanders with no measurement of its change; the bias is unobserved.
+            q = mRandomWalkVariance;
+            mPressure += mRate * interval;
+            predictCovariance(interval, 0);
+        } else {
+            // Climbing lowers the pressure.
+            double change = -acceleration / METRES_PER_HPA - mBias;
+            q = mAccelerationVariance;
+            mPressure += (mRate + change * interval / 2) * interval;
+            mRate += change * interval;
+            predictCovariance(interval, 1);
+        }
+        p[0] += q * interval2 * interval / 3;
+        p[1] += q * interval2 / 2;
+        p[3] = p[1];
+        p[4] += q * interval;
+        p[8] += mBiasVariance * interval;
+    }
+
+    /**
+     * Replace the covariance P with F P F', where F is the transition over an interval.
+     * @param interval The interval in seconds.
+     * @param coupling 1 if the bias is integrated into the rate, 0 if not.
+     */
+    private void predictCovariance(double interval, double coupling) {
+        double[] p = mP;
+        // F = [1, t, -c t^2/2; 0, 1, -c t; 0, 0, 1]
+        double f02 = -coupling * interval * interval / 2;
+        double f12 = -coupling * interval;
+        // A = F P
+        double a00 = p[0] + interval * p[3] + f02 * p[6];
+        double a01 = p[1] + interval * p[4] + f02 * p[7];
+        double a02 = p[2] + interval * p[5] + f02 * p[8];
+        double a11 = p[4] + f12 * p[7];
+        double a12 = p[5] + f12 * p[8];
+        // F P F' is symmetric; fill the upper triangle and mirror it. The bias variance is unchanged.
+        p[0] = a00 + interval * a01 + f02 * a02;
+        p[1] = a01 + f12 * a02;
+        p[2] = a02;
+        p[4] = a11 + f12 * a12;
+        p[5] = a12;
+        p[3] = p[1];
+        p[6] = p[2];
+        p[7] = p[5];
+    }
+
+    /**
+     * Correct the estimate with a pressure measurement taken at the current time.
+     * @param measurement The measured pressure in hPa.
+     */
+    public void Update(float measurement) {
+        double[] p = mP;
+        if (!mInitialised) {
+            double biasVariance = p[8] > 0 ? p[8] : INITIAL_BIAS_VARIANCE;
+            mPressure = measurement;
+            mRate = 0;
+            for (int index = 0; index < 9; index++) {
+                p[index] = 0;
+            }
+            p[0] = mMeasurementVariance;
+            p[4] = INITIAL_RATE_VARIANCE;
+            p[8] = biasVariance;
+            mInitialised = true;
+            return;
+        }
+        double innovation = measurement - mPressure;
+        double variance = p[0] + mMeasurementVariance;
+        double gainPressure = p[0] / variance;
+        double gainRate = p[1] / variance;
+        double gainBias = p[2] / variance;
+        mPressure += gainPressure * innovation;
+        mRate += gainRate * innovation;
+        mBias += gainBias * innovation;
+        // P -= K H P, where H P is the first row of P.
+        double p00 = p[0];
+        double p01 = p[1];
+        double p02 = p[2];
+        p[0] -= gainPressure * p00;
+        p[1] -= gainPressure * p01;
+        p[2] -= gainPressure * p02;
+        p[4] -= gainRate * p01;
+        p[5] -= gainRate * p02;
+        p[8] -= gainBias * p02;
+        p[3] = p[1];
+        p[6] = p[2];
+        p[7] = p[5];
+    }
+
+    /**
+     * Bring the estimate up to the time of a pressure measurement and correct it.
+     * @param pressure The measured pressure in hPa.
+     * @param acceleration The mean vertical acceleration since the previous measurement in m/s^2
+     *                     upwards, or NaN if it is not known.
+     * @param timestamp The time of the measurement in nanoseconds.
+     * @return The estimated pressure in hPa.
+     */
+    public float Filter(float pressure, float acceleration, long timestamp) {
+        double interval = (timestamp - mTimestamp) / 1e9;
+        if (interval > MAX_PREDICTION) {
+            Reset();
+        }
+        Predict(interval, acceleration);
+        Update(pressure);
+        mTimestamp = timestamp;
+        return (float) mPressure;
+    }
+
+    /**
+     * Carry on from a given pressure, with the rate of change unknown.
+     * @param pressure The pressure in hPa.
+     * @param timestamp The time of the pressure in nanoseconds.
+     */
+    public void Reset(float pressure, long timestamp) {
+        mInitialised = false;
+        Update(pressure);
+        mTimestamp = timestamp;
+    }
+
+    public boolean IsInitialised() {
+        return mInitialised;
+    }
+
+    /**
+     * @return The estimated pressure in hPa.
+     */
+    public float GetPressure() {
+        return (float) mPressure;
+    }
+
+    /**
+     * @return The estimated rate of change of pressure in hPa/s.
+     */
+    public float GetRate() {
+        return (float) mRate;
+    }
+
+    /**
+     * @return The estimated accelerometer bias in m/s^2 upwards.
+     */
+    public float GetAccelerationBias() {
+        return (float) (-mBias * METRES_PER_HPA);
+    }
+}
@@ -0,0 +1,76 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * The one joint estimate of pressure and its rate of change that the altimeter and VSI read when
+ * they use a Kalman filter, so that the two needles always show the same estimate whatever else
+ * differs between them. The PressureResampler owns it and updates it once with each sample before
+ * passing the sample on; the instruments only read it.
+ *
+ * The estimate from before the latest sample is kept too, so that the altimeter can work out its
+ * history points between two samples as it does with its own filters (see PeekAt).
+ */
+public class JointPressureEstimator implements PressureResampler.SampleConsumer {
+    private final KalmanPressureFilter mFilter = new KalmanPressureFilter(0, KalmanPressureFilter.SENSOR_NOISE);
+    private final KalmanPressureFilter mPrior = new KalmanPressureFilter(0, KalmanPressureFilter.SENSOR_NOISE);
+    private float mAccelerationNoise;
+
+    /**
+     * Start or stop estimating, or change how quickly the vertical speed is expected to change.
+     * Starting begins a new estimate with the next sample; otherwise the estimate is kept.
+     * @param accelerationNoise See KalmanPressureFilter, or 0 to stop estimating.
+     */
+    public void SetAccelerationNoise(float accelerationNoise) {
+        if (accelerationNoise > 0) {
+            if (mAccelerationNoise <= 0) {
+                mFilter.Reset();
+            }
+            mFilter.SetAccelerationNoise(accelerationNoise);
+        }
+        mAccelerationNoise = accelerationNoise;
+    }
+
+    /**
+     * @return true if samples are being estimated from.
+     */
+    public boolean IsEnabled() {
+        return mAccelerationNoise > 0;
+    }
+
+    /**
+     * Update the estimate with a sample, if enabled.
+     */
+    @Override
+    public void onSample(float pressure, long timestamp) {
+        if (mAccelerationNoise <= 0) {
+            return;
+        }
+        mPrior.CopyFrom(mFilter);
+        mFilter.Filter(pressure, timestamp);
+    }
+
+    /**
+     * @return The estimated pressure at the latest sample in hPa.
+     */
+    public float GetPressure() {
+        return mFilter.GetPressure();
+    }
+
+    /**
+     * @return The estimated rate of change of pressure at the latest sample in hPa/s.
+     */
+    public float GetRate() {
+        return mFilter.GetRate();
+    }
+
+    /**
+     * Calculate what the estimate would have been had the latest sample been taken earlier, as
+     * PressureFilter.PeekAt does before a sample is filtered.
+     * @param sample The latest sample in hPa.
+     * @param timestamp A time after the sample before the latest and not after the latest, in
+     *                  nanoseconds.
+     * @return The estimated pressure at that time.
+     */
+    public float PeekAt(float sample, long timestamp) {
+        return mPrior.PeekAt(sample, timestamp);
+    }
+}
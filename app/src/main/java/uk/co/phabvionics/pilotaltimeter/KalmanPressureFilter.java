@@ -0,0 +1,180 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * A constant-velocity Kalman filter that estimates pressure and its rate of change together.
+ * Pressure and rate of change of pressure are the altitude and vertical speed in the units the
+ * instruments filter in, so one estimator gives both needles a consistent, low-lag indication:
+ * the rate estimate lets the pressure estimate follow a steady climb without lagging behind it,
+ * and each measurement corrects both.
+ *
+ * The rate of change of pressure is modelled as a random walk driven by white noise (changes in
+ * vertical speed), and each measurement as the true pressure plus white noise. Predict() may be
+ * called with any interval and Update() whenever a measurement arrives, so irregular sample
+ * intervals are handled naturally. As a PressureFilter, each sample is a prediction up to its
+ * time followed by a measurement update. Nothing is allocated after construction.
+ */
+public class KalmanPressureFilter implements PressureFilter {
+    /**
+     * Variance of the initial rate estimate, (hPa/s)^2; about 160ft/min standard deviation.
+     * Larger values let the first few noisy samples after a reset swing the rate wildly.
+     */
+    private static final double INITIAL_RATE_VARIANCE = 0.01;
+    /**
+     * Typical standard deviation of the noise on phone pressure sensors, in hPa.
+     */
+    public static final double SENSOR_NOISE = 0.03;
+    /**
+     * As a PressureFilter, an interval longer than this many seconds between samples starts a new
+     * estimate, since the vertical speed over such a gap is unknown.
+     */
+    private static final double MAX_PREDICTION = 1.0;
+
+    private double mProcessNoise; // Spectral density of the change in rate, (hPa/s^2)^2 s.
+    private final double mMeasurementVariance; // hPa^2
+    private double mPressure; // hPa
+    private double mRate; // hPa/s
+    // Covariance of the estimate.
+    private double mP00;
+    private double mP01;
+    private double mP11;
+    private boolean mInitialised;
+    private long mTimestamp; // Time of the estimate in nanoseconds, when used as a PressureFilter.
+
+    /**
+     * @param accelerationNoise The standard deviation of the change in rate of change of pressure
+     *                          over one second, in hPa/s. Larger values respond faster to
+     *                          changes in vertical speed but pass more noise.
+     * @param measurementNoise The standard deviation of the sensor noise in hPa.
+     */
+    public KalmanPressureFilter(double accelerationNoise, double measurementNoise) {
+        mProcessNoise = accelerationNoise * accelerationNoise;
+        mMeasurementVariance = measurementNoise * measurementNoise;
+    }
+
+    /**
+     * Change how quickly the rate of change is expected to vary, keeping the current estimate.
+     * @param accelerationNoise See the constructor.
+     */
+    public void SetAccelerationNoise(double accelerationNoise) {
+        mProcessNoise = accelerationNoise * accelerationNoise;
+    }
+
+    /**
+     * Forget the estimate; the next measurement starts a new one.
+     */
+    public void Reset() {
+        mInitialised = false;
+        mRate = 0;
+    }
+
+    /**
+     * Advance the estimate in time with no measurement.
+     * @param interval The time to advance in seconds.
+     */
+    public void Predict(double interval) {
+        if (!mInitialised) {
+            return;
+        }
+        double q = mProcessNoise;
+        double interval2 = interval * interval;
+        mPressure += mRate * interval;
+        mP00 += interval * (2 * mP01 + interval * mP11) + q * interval2 * interval / 3;
+        mP01 += interval * mP11 + q * interval2 / 2;
+        mP11 += q * interval;
+    }
+
+    /**
+     * Correct the estimate with a measurement taken at the current time.
+     * @param measurement The measured pressure in hPa.
+     */
+    public void Update(float measurement) {
+        if (!mInitialised) {
+            mPressure = measurement;
+            mRate = 0;
+            mP00 = mMeasurementVariance;
+            mP01 = 0;
+            mP11 = INITIAL_RATE_VARIANCE;
+            mInitialised = true;
+            return;
+        }
+        double innovation = measurement - mPressure;
+        double p00 = mP00;
+        double p01 = mP01;
+        double gainPressure = p00 / (p00 + mMeasurementVariance);
+        double gainRate = p01 / (p00 + mMeasurementVariance);
+        mPressure += gainPressure * innovation;
+        mRate += gainRate * innovation;
+        mP00 = (1 - gainPressure) * p00;
+        mP01 = (1 - gainPressure) * p01;
+        mP11 -= gainRate * p01;
+    }
+
+    @Override
+    public float Filter(float sample, long timestamp) {
+        double interval = (timestamp - mTimestamp) / 1e9;
+        if (interval > MAX_PREDICTION) {
+            Reset();
+        }
+        Predict(interval);
+        Update(sample);
+        mTimestamp = timestamp;
+        return (float) mPressure;
+    }
+
+    @Override
+    public float PeekAt(float sample, long timestamp) {
+        double interval = (timestamp - mTimestamp) / 1e9;
+        if (!mInitialised || interval > MAX_PREDICTION) {
+            return sample;
+        }
+        double pressure = mPressure + mRate * interval;
+        double p00 = mP00 + interval * (2 * mP01 + interval * mP11)
+                + mProcessNoise * interval * interval * interval / 3;
+        return (float) (pressure + p00 / (p00 + mMeasurementVariance) * (sample - pressure));
+    }
+
+    /**
+     * Carry on from a given pressure, with the rate of change unknown.
+     * @param output The pressure in hPa.
+     * @param timestamp The time of the pressure in nanoseconds.
+     */
+    @Override
+    public void Reset(float output, long timestamp) {
+        mInitialised = false;
+        Update(output);
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * Take on the estimate and settings of another filter with the same measurement noise.
+     * @param other The filter to copy.
+     */
+    public void CopyFrom(KalmanPressureFilter other) {
+        mProcessNoise = other.mProcessNoise;
+        mPressure = other.mPressure;
+        mRate = other.mRate;
+        mP00 = other.mP00;
+        mP01 = other.mP01;
+        mP11 = other.mP11;
+        mInitialised = other.mInitialised;
+        mTimestamp = other.mTimestamp;
+    }
+
+    public boolean IsInitialised() {
+        return mInitialised;
+    }
+
+    /**
+     * @return The estimated pressure in hPa.
+     */
+    public float GetPressure() {
+        return (float) mPressure;
+    }
+
+    /**
+     * @return The estimated rate of change of pressure in hPa/s.
+     */
+    public float GetRate() {
+        return (float) mRate;
+    }
+}
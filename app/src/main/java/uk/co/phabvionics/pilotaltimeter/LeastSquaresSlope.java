@@ -0,0 +1,90 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * Estimates the slope of equally spaced samples by a least-squares straight-line fit over a
+ * sliding window of the most recent samples.
+ * The sums behind the fit are updated as each sample enters and leaves the window, so each sample
+ * costs O(1) however long the window is. To stop rounding errors building up over a long flight,
+ * the sums are recalculated from the window once per window length of samples.
+ */
+public class LeastSquaresSlope {
+    private final HistoryBuffer mSamples;
+    private double mReference; // Subtracted from samples before summing, to preserve precision.
+    private double mSum; // Sum of (sample - reference)
+    private double mWeightedSum; // Sum of index * (sample - reference), index 0 being the oldest
+    private int mSinceRecalculation;
+
+    /**
+     * @param windowSamples The number of samples to fit over (at least 2).
+     */
+    public LeastSquaresSlope(int windowSamples) {
+        mSamples = new HistoryBuffer(Math.max(windowSamples, 2));
+    }
+
+    /**
+     * Change the number of samples fitted over, keeping as many of the most recent as fit.
+     * @param windowSamples The number of samples to fit over (at least 2).
+     */
+    public void setWindow(int windowSamples) {
+        mSamples.resize(Math.max(windowSamples, 2));
+        recalculate();
+    }
+
+    public int getWindow() {
+        return mSamples.capacity();
+    }
+
+    public void add(float sample) {
+        double value = sample - mReference;
+        int size = mSamples.size();
+        if (size == mSamples.capacity()) {
+            // Every retained sample moves one place older and the oldest drops out.
+            double oldest = mSamples.get(0) - mReference;
+            mWeightedSum += (size - 1) * value - (mSum - oldest);
+            mSum += value - oldest;
+        } else {
+            mWeightedSum += size * value;
+            mSum += value;
+        }
+        mSamples.add(sample);
+        if (++mSinceRecalculation >= mSamples.capacity()) {
+            recalculate();
+        }
+    }
+
+    private void recalculate() {
+        int size = mSamples.size();
+        mReference = size > 0 ? mSamples.get(0) : 0;
+        mSum = 0;
+        mWeightedSum = 0;
+        for (int index = 0; index < size; index++) {
+            double value = mSamples.get(index) - mReference;
+            mSum += value;
+            mWeightedSum += index * value;
+        }
+        mSinceRecalculation = 0;
+    }
+
+    /**
+     * @return The slope of the best fit line, in sample units per sample interval, or 0 if there
+     * are fewer than two samples.
+     */
+    public float getSlope() {
+        double size = mSamples.size();
+        if (size < 2) {
+            return 0;
+        }
+        double sumIndex = size * (size - 1) / 2;
+        double sumIndexSquared = (size - 1) * size * (2 * size - 1) / 6;
+        return (float) ((size * mWeightedSum - sumIndex * mSum) / (size * sumIndexSquared - sumIndex * sumIndex));
+    }
+
+    public int size() {
+        return mSamples.size();
+    }
+
+    public void clear() {
+        mSamples.clear();
+        recalculate();
+    }
+}
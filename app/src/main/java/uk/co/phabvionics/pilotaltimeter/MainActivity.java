@@ -3,12 +3,12 @@ package uk.co.phabvionics.pilotaltimeter;
 import android.content.Context;
 import android.content.Intent;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.v7.app.ActionBarActivity;
 import android.util.Log;
@@ -19,28 +19,36 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 
-public class MainActivity extends ActionBarActivity implements SensorEventListener {
+public class MainActivity extends ActionBarActivity implements SensorPipeline.Listener {
     private SensorManager mSensorManager;
     private Sensor mPressure;
+    private SensorPipeline mPipeline;
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
+    private FrameScheduler mFrameScheduler;
+    private static volatile boolean mShowStatus;
     private AltimeterView mAltimeterView;
     private static final Altimeter mAltimeter = Altimeter.getInstance();
     private TextView mText;
     private static final VerticalSpeedIndicator mVSI = VerticalSpeedIndicator.getInstance();
+    private static final PressureResampler mResampler = new PressureResampler();
+    /**
+     * Enough for a 1 second spike rejection window at well over the fastest sensor rate.
+     */
+    private static final int SPIKE_FILTER_CAPACITY = 256;
+    private static int mSpikeRejection;
+    static {
+        mResampler.addConsumer(mAltimeter);
+        mResampler.addConsumer(mVSI);
+    }
     private VSIView mVSIView;
     private static android.content.SharedPreferences mSettings;
     private android.content.SharedPreferences.Editor mEditor;
     private boolean mMetric;
 
-    private File mFile;
-    private BufferedWriter mBufferedWriter;
-    private boolean mLogging;
-    private long mLogEnd;
-    private long mLastTimestamp;
+    private volatile FlightRecorder mRecorder;
     private int mPressureSelection;
 
     static final int SEL_QNH = 0;
@@ -56,7 +64,11 @@ public class MainActivity extends ActionBarActivity implements SensorEventListen
     static final String METRIC = "Metric";
 
     private static final String TAG = "MainActivity";
-    private static final boolean LoggingActive = false;
+
+    /**
+     * The maximum report latency in microseconds when sensor batching is turned on.
+     */
+    private static final int MAX_REPORT_LATENCY = 1000000;
 
     private Button mButtonPlus10;
     private Button mButtonPlus1;
@@ -73,28 +85,15 @@ public class MainActivity extends ActionBarActivity implements SensorEventListen
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        if (LoggingActive) {
-            mFile = new File(
-                    Environment
-                            .getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
-                    "nexus-4-pressure-log.txt");
-            try {
-                mBufferedWriter = new BufferedWriter(new FileWriter(mFile));
-                mLogging = true;
-            } catch (IOException e) {
-                e.printStackTrace();
-                mLogging = false;
-            }
-            mLogEnd = 0;
-        }
-
         // Get an instance of the sensor service, and use that to get an
         // instance of a particular sensor.
         mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
         mPressure = mSensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
+        mPipeline = new SensorPipeline(mSensorManager, mPressure, mResampler, this);
         mAltimeterView = (AltimeterView) findViewById(R.id.altimeter1);
         mVSIView = (VSIView) findViewById(R.id.verticalSpeedIndicator1);
         mText = (TextView) findViewById(R.id.textView1);
+        mFrameScheduler = new FrameScheduler(mUIHandler, mUpdateDisplay);
 
         mSettings = PreferenceManager.getDefaultSharedPreferences(this);
         mEditor = mSettings.edit();
@@ -275,6 +274,15 @@ public class MainActivity extends ActionBarActivity implements SensorEventListen
         // Register a listener for the sensor.
         super.onResume();
 
+        // Start or stop the flight recorder, which keeps recording across pauses.
+        if (mSettings.getBoolean("record_flight", false)) {
+            if (mRecorder == null) {
+                startRecording();
+            }
+        } else {
+            stopRecording();
+        }
+
         int rate = 0;
         switch (Integer.parseInt(mSettings.getString("sample_rate", "0"))) {
             case 0:
@@ -290,14 +298,66 @@ public class MainActivity extends ActionBarActivity implements SensorEventListen
                 rate = SensorManager.SENSOR_DELAY_NORMAL; // 200ms approx on Nexus 4
                 break;
         }
-        mSensorManager.registerListener(this, mPressure, rate);
+        int maxReportLatency = mSettings.getBoolean("sensor_batching", false) ? MAX_REPORT_LATENCY : 0;
+        // Without either sensor, the fused vertical speed is estimated from pressure alone.
+        if (mVSI.isAccelerationFusion()) {
+            mPipeline.setAccelerationSensors(mSensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION),
+                    mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR), mVSI);
+        } else {
+            mPipeline.setAccelerationSensors(null, null, null);
+        }
+        mPipeline.start(rate, maxReportLatency);
+        mUIHandler.postDelayed(mCheckStopped, STOPPED_CHECK_INTERVAL);
+        mFrameScheduler.setMaxFrameRate(Integer.parseInt(mSettings.getString("max_frame_rate", "60")));
+        mFrameScheduler.start();
+        mFrameScheduler.requestFrame();
     }
 
     @Override
     protected void onPause() {
         // Be sure to unregister the sensor when the activity pauses.
         super.onPause();
-        mSensorManager.unregisterListener(this);
+        mPipeline.stop();
+        mUIHandler.removeCallbacks(mCheckStopped);
+        mFrameScheduler.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        stopRecording();
+    }
+
+    private void startRecording() {
+        File directory = getExternalFilesDir("flights");
+        if (directory == null) {
+            Toast.makeText(getApplicationContext(),
+                    "Cannot record: storage unavailable", Toast.LENGTH_LONG).show();
+            return;
+        }
+        try {
+            mRecorder = new FlightRecorder(directory, "flight-" + System.currentTimeMillis());
+            mResampler.addConsumer(mRecordingConsumer);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot start flight recording", e);
+            Toast.makeText(getApplicationContext(),
+                    "Cannot record: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Only to be called while the sensor pipeline is stopped.
+     */
+    private void stopRecording() {
+        if (mRecorder != null) {
+            mResampler.removeConsumer(mRecordingConsumer);
+            try {
+                mRecorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot close flight recording", e);
+            }
+            mRecorder = null;
+        }
     }
 
     public boolean isExternalStorageWritable() {
@@ -315,69 +375,90 @@ public class MainActivity extends ActionBarActivity implements SensorEventListen
         return file;
     }
 
+    /**
+     * Records each sample, with the state of the instruments once they have been brought up to
+     * its time. Called on the sensor processing thread.
+     */
+    private final PressureResampler.SampleConsumer mRecordingConsumer = new PressureResampler.SampleConsumer() {
+        @Override
+        public void onSample(float pressure, long timestamp) {
+            FlightRecorder recorder = mRecorder;
+            if (recorder != null) {
+                recorder.record(timestamp, mResampler.getRawPressure(), mAltimeter.getFilteredPressure(),
+                        mVSI.getSpeed(), mVSI.getAcceleration());
+            }
+        }
+    };
+
+    /**
+     * Called on the sensor processing thread after each run of samples. Any number of runs
+     * processed between two frames result in a single display update.
+     */
     @Override
-    public final void onAccuracyChanged(Sensor sensor, int accuracy) {
-        // Do something here if sensor accuracy changes.
+    public void onSamplesProcessed() {
+        mFrameScheduler.requestFrame();
     }
 
-    @Override
-    public final void onSensorChanged(SensorEvent event) {
-        float millibars_of_pressure = event.values[0];
-        float deltaTime = event.timestamp - mLastTimestamp;
-        deltaTime /= 1000000.0f;
-        if (mSettings.getBoolean("show_status", true)) {
-            mText.setText(String.format("Status: Pressure = %04.2fhPa; Time interval = %.1fms (%.0fHz)", millibars_of_pressure, deltaTime, 1000 / deltaTime));
-        } else {
-            mText.setText(getString(R.string.not_approved_for_aircraft_navigation_use));
-        }
-        mLastTimestamp = event.timestamp;
-        mAltimeter.setPressure(millibars_of_pressure, event.timestamp);
-        if (mVSI != null) {
-            mVSI.setPressure(millibars_of_pressure, event.timestamp);
-        }
-        if (LoggingActive) {
-            if (mLogging) {
-                if (mLogEnd == 0) {
-                    mLogEnd = event.timestamp + 305 * 1000000000L;
-                }
-                if (event.timestamp > mLogEnd) {
-                    try {
-                        mBufferedWriter.flush();
-                        mBufferedWriter.close();
-                        Toast.makeText(getApplicationContext(),
-                                "Logging complete", Toast.LENGTH_LONG).show();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    mLogging = false;
-                } else {
-                    try {
-                        mBufferedWriter.write(String.format("%f,%f\n",
-                                (double) event.timestamp / 1000000000.0,
-                                millibars_of_pressure));
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        mLogging = false;
-                    }
-                }
+    /**
+     * The interval in ms at which to check whether data has stopped being received.
+     */
+    private static final long STOPPED_CHECK_INTERVAL = 250;
+    private boolean mStopped;
+
+    /**
+     * Redraws the instruments when data stops or restarts, since no samples arrive to trigger it.
+     */
+    private final Runnable mCheckStopped = new Runnable() {
+        @Override
+        public void run() {
+            boolean stopped = mAltimeter.isStopped();
+            if (stopped != mStopped) {
+                mStopped = stopped;
+                mFrameScheduler.requestFrame();
             }
+            mUIHandler.postDelayed(mCheckStopped, STOPPED_CHECK_INTERVAL);
         }
-        if (mAltimeterView != null) {
-            mAltimeterView.invalidate();
-        }
-        if (mVSI != null) {
-            if (mSettings.getInt(VSI_SECONDS, 30) == 0) {
-                mVSIView.setVisibility(View.GONE);
-            } else {
-                mVSIView.setVisibility(View.VISIBLE);
+    };
+
+    private final FormattedText mStatusText = new FormattedText();
+    private boolean mDisclaimerShown; // Whether mText holds the disclaimer rather than the status line.
+
+    private final Runnable mUpdateDisplay = new Runnable() {
+        @Override
+        public void run() {
+            if (mShowStatus) {
+                float deltaTime = mPipeline.getLastInterval() / 1000000.0f;
+                FormattedText status = mStatusText.clear()
+                        .append("Status: Pressure = ").append(mPipeline.getLastPressure(), 2)
+                        .append("hPa; Time interval = ").append(deltaTime, 1)
+                        .append("ms (").append(1000 / deltaTime, 0)
+                        .append("Hz); Dropped = ").append(mPipeline.getDroppedSamples());
+                mText.setText(status.getChars(), 0, status.length());
+                mDisclaimerShown = false;
+            } else if (!mDisclaimerShown) {
+                // The disclaimer never changes, so it is only set when the status line is turned off.
+                mText.setText(getString(R.string.not_approved_for_aircraft_navigation_use));
+                mDisclaimerShown = true;
+            }
+            if (mAltimeterView != null) {
+                mAltimeterView.invalidateIfChanged();
+            }
+            if (mVSI != null) {
+                int visibility = mVSISeconds == 0 ? View.GONE : View.VISIBLE;
+                if (mVSIView.getVisibility() != visibility) {
+                    mVSIView.setVisibility(visibility);
+                }
+                mVSIView.invalidateIfChanged();
             }
-            mVSIView.invalidate();
         }
-    }
+    };
 
     public static void setPreferences()
     {
+        mShowStatus = mSettings.getBoolean("show_status", true);
+
         // Set up pressure filtering.
+        float kalmanAccelerationNoise = 0;
         switch (Integer.parseInt(mSettings.getString("sample_filter_strength", "3"))) {
             case 0:
                 mAltimeter.SetFilterSettlingTime(0);
@@ -397,6 +478,40 @@ public class MainActivity extends ActionBarActivity implements SensorEventListen
             case 5:
                 mAltimeter.SetFilterSettlingTime(10.0f);
                 break;
+            case 6:
+                kalmanAccelerationNoise = 0.2f;
+                break;
+            case 7:
+                kalmanAccelerationNoise = 0.05f;
+                break;
+        }
+        mAltimeter.SetExactTimeFiltering(mSettings.getBoolean("exact_time_filtering", false));
+        switch (Integer.parseInt(mSettings.getString("filter_shape", "0"))) {
+            case 1:
+                mAltimeter.SetBiquadFilter(BiquadCascadeFilter.Shape.BUTTERWORTH);
+                break;
+            case 2:
+                mAltimeter.SetBiquadFilter(BiquadCascadeFilter.Shape.CRITICALLY_DAMPED);
+                break;
+            case 3:
+                mAltimeter.SetBiquadFilter(BiquadCascadeFilter.Shape.BUTTERWORTH_FOURTH_ORDER);
+                break;
+            default:
+                mAltimeter.SetBiquadFilter(null);
+                break;
+        }
+        // Both instruments read the one joint estimate, so the needles always agree.
+        JointPressureEstimator estimator = mResampler.getEstimator();
+        estimator.SetAccelerationNoise(kalmanAccelerationNoise);
+        mAltimeter.SetKalmanFilter(estimator.IsEnabled() ? estimator : null);
+        mVSI.setKalmanFilter(estimator.IsEnabled() ? estimator : null);
+        mVSI.setAccelerationFusion(mSettings.getBoolean("vsi_acceleration_fusion", false));
+
+        // Set up spike rejection ahead of the filters, keeping the window if it has not changed.
+        int spikeRejection = Integer.parseInt(mSettings.getString("spike_rejection", "0"));
+        if (spikeRejection != mSpikeRejection) {
+            mSpikeRejection = spikeRejection;
+            setSpikeRejection(spikeRejection);
         }
 
         // Set metric altimeter (uses hectoPascals rather than inHg)
@@ -423,6 +538,30 @@ public class MainActivity extends ActionBarActivity implements SensorEventListen
             mVSI.setDisplayGraphSeconds(30);
         }
 
+        // Set how vertical speed is estimated
+        try {
+            mVSI.setSpeedWindowSeconds(Float.valueOf(mSettings.getString("vsi_smoothing", "0")));
+        } catch (NumberFormatException e) {
+            mVSI.setSpeedWindowSeconds(0);
+        }
+
+    }
+
+    private static void setSpikeRejection(int setting) {
+        switch (setting) {
+            case 1:
+                mResampler.setPreFilter(new SlidingMedianFilter(500000000L, 0.5f, SPIKE_FILTER_CAPACITY));
+                break;
+            case 2:
+                mResampler.setPreFilter(new SlidingMedianFilter(1000000000L, 0.5f, SPIKE_FILTER_CAPACITY));
+                break;
+            case 3:
+                mResampler.setPreFilter(new SlidingMedianFilter(1000000000L, 0.25f, SPIKE_FILTER_CAPACITY));
+                break;
+            default:
+                mResampler.setPreFilter(null);
+                break;
+        }
     }
 
     private static String trimStringAfterSpace(String s)
@@ -1,11 +1,16 @@
 package uk.co.phabvionics.pilotaltimeter;
 
-public class MovingAverageFilter {
+/**
+ * The mean of the most recent samples. The window is counted in samples rather than time, so
+ * as a PressureFilter the timestamps are not used. The running sum is kept in fixed point so
+ * that it does not drift as samples are added and removed.
+ */
+public class MovingAverageFilter implements PressureFilter {
     private int mSampleLimit;
     private float[] mSamples;
     private int mNextSample;
     private int mNumSamples;
-    private float mRunningSum;
+    private long mRunningSum; // Fixed point
 
     public MovingAverageFilter(int sampleLimit) {
         mSampleLimit = sampleLimit;
@@ -18,17 +23,17 @@ public class MovingAverageFilter {
             // Add the sample to the array.
             mSamples[mNextSample] = sample;
             // Add the sample to the running sum.
-            mRunningSum += sample;
+            mRunningSum += FixedPoint.fromFloat(sample);
             // Increment the number of samples.
             mNumSamples++;
             // Else
         } else {
             // Subtract the value of the sample falling out of the array from the running sum.
-            mRunningSum -= mSamples[mNextSample];
+            mRunningSum -= FixedPoint.fromFloat(mSamples[mNextSample]);
             // Overwrite the sample in the array with the new sample.
             mSamples[mNextSample] = sample;
             // Add the value of the new sample to the running sum.
-            mRunningSum += sample;
+            mRunningSum += FixedPoint.fromFloat(sample);
         }
         // Point to the next element of the samples array.
         mNextSample++;
@@ -36,6 +41,30 @@ public class MovingAverageFilter {
             mNextSample = 0;
         }
         // Divide the running sum by the number of samples and return it.
-        return mRunningSum / mNumSamples;
+        return (float) (FixedPoint.toDouble(mRunningSum) / mNumSamples);
+    }
+
+    @Override
+    public float Filter(float sample, long timestamp) {
+        return Filter(sample);
+    }
+
+    @Override
+    public float PeekAt(float sample, long timestamp) {
+        long sum = mRunningSum + FixedPoint.fromFloat(sample);
+        if (mNumSamples < mSampleLimit) {
+            return (float) (FixedPoint.toDouble(sum) / (mNumSamples + 1));
+        }
+        return (float) (FixedPoint.toDouble(sum - FixedPoint.fromFloat(mSamples[mNextSample])) / mNumSamples);
+    }
+
+    @Override
+    public void Reset(float output, long timestamp) {
+        for (int index = 0; index < mSampleLimit; index++) {
+            mSamples[index] = output;
+        }
+        mNumSamples = mSampleLimit;
+        mNextSample = 0;
+        mRunningSum = FixedPoint.fromFloat(output) * mSampleLimit;
     }
 }
@@ -0,0 +1,35 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * A filter of timestamped pressure samples, driven by the samples themselves rather than by a
+ * fixed time step. Each sample is taken to have been held over the interval since the previous
+ * one, as PressureResampler holds it over the grid steps up to its time, so a filter can be fed
+ * samples at whatever irregular intervals the sensor delivers them.
+ *
+ * Filters can be swapped while running: the filter switched in is reset to the output of the
+ * one it replaces, so the filtered pressure carries on without a jump.
+ */
+public interface PressureFilter {
+    /**
+     * Filter a sample.
+     * @param sample The sample in hPa.
+     * @param timestamp The sample time in nanoseconds; not earlier than the previous sample.
+     * @return The filtered pressure at the time of the sample.
+     */
+    float Filter(float sample, long timestamp);
+
+    /**
+     * Calculate what Filter would return, without changing the filter state.
+     * @param sample The sample in hPa.
+     * @param timestamp The time in nanoseconds; not earlier than the previous sample.
+     * @return The filtered pressure at the given time.
+     */
+    float PeekAt(float sample, long timestamp);
+
+    /**
+     * Carry on filtering from a given output, discarding any other state.
+     * @param output The filtered pressure in hPa.
+     * @param timestamp The time of the output in nanoseconds.
+     */
+    void Reset(float output, long timestamp);
+}
@@ -0,0 +1,120 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * Converts pressure to indicated altitude for a given pressure datum.
+ * The pressure altitude of the datum is calculated only when the datum changes, and the pressure
+ * altitude of a measurement is interpolated from a table built once per process, so a conversion
+ * costs a few multiplications rather than two calls to Math.pow.
+ */
+public class PressureHeightConverter {
+    // Formula derived from the Aviation Formulary.
+    private static final double EXPONENT = 1 / 5.2558797;
+    private static final double FEET_PER_UNIT = 1 / 6.8755856e-6;
+    private static final float METRES_PER_FOOT = 12.0f * 25.4f / 1000.0f;
+
+    /**
+     * The table covers pressures from TABLE_MIN_PRESSURE up to TABLE_MAX_PRESSURE hPa (about
+     * 53000ft down to 2500ft below sea level); outside that the exact formula is used.
+     * At 0.5hPa spacing the interpolation error is below 0.1ft everywhere in the table.
+     */
+    static final float TABLE_MIN_PRESSURE = 100.0f;
+    static final float TABLE_MAX_PRESSURE = 1100.0f;
+    static final float TABLE_STEP = 0.5f;
+    private static final float TABLE_STEPS_PER_HPA = 1 / TABLE_STEP;
+    private static final float[] TABLE;
+
+    static {
+        int entries = (int) ((TABLE_MAX_PRESSURE - TABLE_MIN_PRESSURE) / TABLE_STEP) + 1;
+        TABLE = new float[entries];
+        for (int index = 0; index < entries; index++) {
+            TABLE[index] = (float) exactPressureAltitude(TABLE_MIN_PRESSURE + index * TABLE_STEP);
+        }
+    }
+
+    private float mDatum;
+    private float mDatumAltitude; // Pressure altitude of the datum in feet.
+    private boolean mDisplayInFeet;
+    private float mScale; // Feet to display units.
+
+    public PressureHeightConverter() {
+        setDatum(1013.25f);
+        setDisplayInFeet(true);
+    }
+
+    /**
+     * Calculate the pressure altitude (the height above the 1013.25hPa datum) exactly.
+     * @param pressure The pressure in hectoPascals.
+     * @return The pressure altitude in feet.
+     */
+    static double exactPressureAltitude(double pressure) {
+        return (1 - Math.pow(pressure / 1013.25, EXPONENT)) * FEET_PER_UNIT;
+    }
+
+    /**
+     * Calculate the pressure altitude (the height above the 1013.25hPa datum).
+     * @param pressure The pressure in hectoPascals.
+     * @return The pressure altitude in feet.
+     */
+    public static float pressureAltitude(float pressure) {
+        if (pressure >= TABLE_MIN_PRESSURE && pressure < TABLE_MAX_PRESSURE) {
+            float position = (pressure - TABLE_MIN_PRESSURE) * TABLE_STEPS_PER_HPA;
+            int index = (int) position;
+            float fraction = position - index;
+            float lower = TABLE[index];
+            return lower + (TABLE[index + 1] - lower) * fraction;
+        }
+        return (float) exactPressureAltitude(pressure);
+    }
+
+    /**
+     * Set the pressure datum (the pressure at which the altitude is zero).
+     * @param datum The pressure datum in hectoPascals.
+     */
+    public void setDatum(float datum) {
+        if (datum != mDatum) {
+            mDatum = datum;
+            mDatumAltitude = (float) exactPressureAltitude(datum);
+        }
+    }
+
+    public float getDatum() {
+        return mDatum;
+    }
+
+    /**
+     * Set the units of the heights returned.
+     * @param displayInFeet true for feet, false for metres.
+     */
+    public void setDisplayInFeet(boolean displayInFeet) {
+        mDisplayInFeet = displayInFeet;
+        mScale = displayInFeet ? 1.0f : METRES_PER_FOOT;
+    }
+
+    public boolean isDisplayInFeet() {
+        return mDisplayInFeet;
+    }
+
+    /**
+     * Calculate the indicated altitude above the datum.
+     * @param pressure The pressure in hectoPascals.
+     * @return The indicated altitude in feet or metres.
+     */
+    public float toHeight(float pressure) {
+        return (pressureAltitude(pressure) - mDatumAltitude) * mScale;
+    }
+
+    /**
+     * Calculate the indicated altitude above the datum for a run of pressures.
+     * @param pressures The pressures in hectoPascals.
+     * @param heights Receives the indicated altitudes in feet or metres; may be the same array
+     *                as pressures.
+     * @param count The number of pressures to convert.
+     */
+    public void toHeight(float[] pressures, float[] heights, int count) {
+        final float datumAltitude = mDatumAltitude;
+        final float scale = mScale;
+        for (int index = 0; index < count; index++) {
+            heights[index] = (pressureAltitude(pressures[index]) - datumAltitude) * scale;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * Resamples the pressure sensor stream onto a common grid of TIME_STEP steps, once, and passes
+ * the resampled pressure to each subscribed consumer. The cost of stepping through the grid is
+ * paid once per sample however many consumers there are. Consumers that filter each sample at
+ * its own time (see PressureFilter) subscribe as SampleConsumers and are passed only the
+ * samples, as are Consumers while they do not need the grid; if no consumer needs the grid it is
+ * not stepped through at all.
+ *
+ * Each sample's pressure is held over the grid steps up to its timestamp. Gaps of more than
+ * CATCH_UP_STEPS steps are passed to consumers in a single call so that they can catch up in
+ * closed form.
+ *
+ * An optional pre-filter, such as a SlidingMedianFilter to reject spikes, is applied to each
+ * sample before it is resampled, so that every consumer sees the same filtered stream.
+ *
+ * The resampler also owns the joint Kalman estimate of pressure and its rate of change, which it
+ * updates with each sample, while enabled, before any consumer is passed the sample.
+ */
+public class PressureResampler {
+    public static final long TIME_STEP = 10000000; // 10ms
+    /**
+     * Gaps longer than this many steps are passed to consumers by onGap rather than step by step.
+     */
+    public static final long CATCH_UP_STEPS = 100;
+
+    /**
+     * Receives the samples. Called on the thread adding samples.
+     */
+    public interface SampleConsumer {
+        /**
+         * Called for each sample once the grid has been advanced to it.
+         * @param pressure The pressure in hPa, after the pre-filter if there is one.
+         * @param timestamp The sample time in nanoseconds.
+         */
+        void onSample(float pressure, long timestamp);
+    }
+
+    /**
+     * Receives the resampled pressure as well as the samples. All methods are called on the
+     * thread adding samples.
+     */
+    public interface Consumer extends SampleConsumer {
+        /**
+         * Called before the grid steps up to each sample are passed on.
+         * @return false if only the samples are needed for now, in which case none of the steps
+         * up to the sample are passed to the consumer.
+         */
+        boolean isSteppingNeeded();
+
+        /**
+         * Called for each grid step.
+         * @param pressure The pressure held over the step, in hPa.
+         * @param timestamp The time at the end of the step in nanoseconds.
+         */
+        void onStep(float pressure, long timestamp);
+
+        /**
+         * Called in place of onStep for a run of more than CATCH_UP_STEPS steps over which the
+         * pressure is held. A new sample arrived before the first of the steps.
+         * @param pressure The pressure held over the steps, in hPa.
+         * @param steps The number of steps.
+         * @param timestamp The time at the end of the last step in nanoseconds.
+         */
+        void onGap(float pressure, long steps, long timestamp);
+    }
+
+    private final StalenessMonitor mStaleness;
+    private SampleConsumer[] mConsumers = new SampleConsumer[0];
+    private Consumer[] mStepConsumers = new Consumer[0]; // Those of mConsumers that may need the grid.
+    private PressureFilter mPreFilter;
+    private final JointPressureEstimator mEstimator = new JointPressureEstimator();
+    private float mRawPressure;
+    private long mRawTimestamp; // Time of the latest sample.
+    private boolean mStarted;
+    private long mTimestamp; // Time at the end of the last grid step.
+
+    public PressureResampler() {
+        this(StalenessMonitor.getInstance());
+    }
+
+    /**
+     * @param staleness Told each time samples arrive; the one the instruments fed ask whether
+     *                  samples have stopped.
+     */
+    public PressureResampler(StalenessMonitor staleness) {
+        mStaleness = staleness;
+    }
+
+    /**
+     * Subscribe a consumer. Only to be called while no samples are being added.
+     * @param consumer The consumer; it is passed the resampled pressure after those already
+     *                 subscribed. If it is a Consumer it is also passed the grid steps.
+     */
+    public void addConsumer(SampleConsumer consumer) {
+        SampleConsumer[] consumers = new SampleConsumer[mConsumers.length + 1];
+        System.arraycopy(mConsumers, 0, consumers, 0, mConsumers.length);
+        consumers[mConsumers.length] = consumer;
+        mConsumers = consumers;
+        updateStepConsumers();
+    }
+
+    /**
+     * Unsubscribe a consumer. Only to be called while no samples are being added.
+     * @param consumer The consumer.
+     */
+    public void removeConsumer(SampleConsumer consumer) {
+        for (int index = 0; index < mConsumers.length; index++) {
+            if (mConsumers[index] == consumer) {
+                SampleConsumer[] consumers = new SampleConsumer[mConsumers.length - 1];
+                System.arraycopy(mConsumers, 0, consumers, 0, index);
+                System.arraycopy(mConsumers, index + 1, consumers, index, consumers.length - index);
+                mConsumers = consumers;
+                updateStepConsumers();
+                return;
+            }
+        }
+    }
+
+    private void updateStepConsumers() {
+        int count = 0;
+        for (SampleConsumer consumer : mConsumers) {
+            if (consumer instanceof Consumer) {
+                count++;
+            }
+        }
+        Consumer[] stepConsumers = new Consumer[count];
+        count = 0;
+        for (SampleConsumer consumer : mConsumers) {
+            if (consumer instanceof Consumer) {
+                stepConsumers[count++] = (Consumer) consumer;
+            }
+        }
+        mStepConsumers = stepConsumers;
+    }
+
+    /**
+     * Set the filter applied to each sample before it is resampled. Only to be called while no
+     * samples are being added.
+     * @param filter The filter, or null for none. It is reset to the latest raw pressure at the
+     *               time of that sample, so its next output covers the interval since then.
+     */
+    public void setPreFilter(PressureFilter filter) {
+        if (filter != null && mStarted) {
+            filter.Reset(mRawPressure, mRawTimestamp);
+        }
+        mPreFilter = filter;
+    }
+
+    /**
+     * Add the latest raw pressure measurement.
+     * @param pressure Pressure in hPa.
+     * @param timestamp Time in nanoseconds.
+     */
+    public void setPressure(float pressure, long timestamp) {
+        addSample(pressure, timestamp);
+        mStaleness.sampleReceived();
+    }
+
+    /**
+     * Add a run of raw pressure measurements, such as a batch of sensor events, in one call.
+     * @param pressures Pressures in hPa, oldest first.
+     * @param timestamps Times in nanoseconds.
+     * @param count The number of measurements to take from the arrays.
+     */
+    public void setPressureBatch(float[] pressures, long[] timestamps, int count) {
+        for (int sample = 0; sample < count; sample++) {
+            addSample(pressures[sample], timestamps[sample]);
+        }
+        if (count > 0) {
+            mStaleness.sampleReceived();
+        }
+    }
+
+    private void addSample(float pressure, long timestamp) {
+        mRawPressure = pressure;
+        mRawTimestamp = timestamp;
+        PressureFilter preFilter = mPreFilter;
+        if (preFilter != null) {
+            pressure = preFilter.Filter(pressure, timestamp);
+        }
+        if (!mStarted) {
+            mStarted = true;
+            mTimestamp = timestamp;
+        }
+        if (mTimestamp + TIME_STEP < timestamp) {
+            Consumer[] stepConsumers = mStepConsumers;
+            long steps = (timestamp - mTimestamp - 1) / TIME_STEP;
+            if (!isSteppingNeeded(stepConsumers)) {
+                mTimestamp += steps * TIME_STEP;
+            } else if (steps > CATCH_UP_STEPS) {
+                mTimestamp += steps * TIME_STEP;
+                for (Consumer consumer : stepConsumers) {
+                    if (consumer.isSteppingNeeded()) {
+                        consumer.onGap(pressure, steps, mTimestamp);
+                    }
+                }
+            } else {
+                for (; steps > 0; steps--) {
+                    mTimestamp += TIME_STEP;
+                    for (Consumer consumer : stepConsumers) {
+                        if (consumer.isSteppingNeeded()) {
+                            consumer.onStep(pressure, mTimestamp);
+                        }
+                    }
+                }
+            }
+        }
+        mEstimator.onSample(pressure, timestamp);
+        for (SampleConsumer consumer : mConsumers) {
+            consumer.onSample(pressure, timestamp);
+        }
+    }
+
+    private static boolean isSteppingNeeded(Consumer[] consumers) {
+        for (Consumer consumer : consumers) {
+            if (consumer.isSteppingNeeded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The monitor told each time samples arrive.
+     */
+    public StalenessMonitor getStalenessMonitor() {
+        return mStaleness;
+    }
+
+    /**
+     * @return The joint estimate the instruments share when using a Kalman filter; it is only
+     * updated once enabled.
+     */
+    public JointPressureEstimator getEstimator() {
+        return mEstimator;
+    }
+
+    /**
+     * @return The pressure of the latest sample before the pre-filter, in hPa. While consumers
+     * are being called this is the raw pressure of the sample being passed to them.
+     */
+    public float getRawPressure() {
+        return mRawPressure;
+    }
+
+    /**
+     * @return The time at the end of the last grid step in nanoseconds.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+}
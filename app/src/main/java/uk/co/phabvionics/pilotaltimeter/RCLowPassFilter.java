@@ -1,16 +1,31 @@
 package uk.co.phabvionics.pilotaltimeter;
 
-public class RCLowPassFilter {
+/**
+ * A first order low pass filter calculated exactly for any interval between samples.
+ * NewSample holds each sample until the next one arrives. As a PressureFilter the time constant
+ * is in seconds and, as on the resampling grid, each sample is held over the interval before it;
+ * no time step is involved, so the cost per sample is the same at any sample rate.
+ */
+public class RCLowPassFilter implements PressureFilter {
     private float mSample; // input sample
     private float mTime; // time in arbitrary units
     private float mFunction; // value of RC-filtered f(mTime)
-    private float mTimeConstant; // value of 1/RC
+    private float mTimeConstant; // value of RC
     private boolean mInitialised; // false if no samples yet set
+    private long mTimestamp; // Time of mFunction in nanoseconds, when used as a PressureFilter.
 
     public RCLowPassFilter(float timeConstant) {
         mTimeConstant = timeConstant;
     }
 
+    /**
+     * Change the time constant, keeping the current output.
+     * @param timeConstant The time constant.
+     */
+    public void SetTimeConstant(float timeConstant) {
+        mTimeConstant = timeConstant;
+    }
+
     public float SampleAtTime(float time) {
         float deltaTime = time - mTime;
         float deltaSample = mSample - mFunction;
@@ -28,4 +43,33 @@ public class RCLowPassFilter {
         mTime = time;
         return mFunction;
     }
+
+    @Override
+    public float Filter(float sample, long timestamp) {
+        if (!mInitialised) {
+            Reset(sample, timestamp);
+            return sample;
+        }
+        mFunction = PeekAt(sample, timestamp);
+        mSample = sample;
+        mTimestamp = timestamp;
+        return mFunction;
+    }
+
+    @Override
+    public float PeekAt(float sample, long timestamp) {
+        if (!mInitialised || mTimeConstant <= 0) {
+            return sample;
+        }
+        double deltaTime = (timestamp - mTimestamp) / 1e9;
+        return (float) (sample + (mFunction - sample) * Math.exp(-deltaTime / mTimeConstant));
+    }
+
+    @Override
+    public void Reset(float output, long timestamp) {
+        mFunction = output;
+        mSample = output;
+        mTimestamp = timestamp;
+        mInitialised = true;
+    }
 }
@@ -0,0 +1,102 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free bounded queue of timestamped samples for exactly one producer thread and one
+ * consumer thread. Samples are held in primitive arrays so nothing is allocated per sample.
+ */
+public class SampleQueue {
+    private final float[] mValues;
+    private final long[] mTimestamps;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong(); // Next sample to read; written by the consumer.
+    private final AtomicLong mTail = new AtomicLong(); // Next sample to write; written by the producer.
+
+    /**
+     * @param capacity The maximum number of samples held; rounded up to a power of two.
+     */
+    public SampleQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mValues = new float[size];
+        mTimestamps = new long[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Add a sample. Only to be called from the producer thread.
+     * @param value The sample value.
+     * @param timestamp The sample time.
+     * @return false if the queue was full and the sample was not added.
+     */
+    public boolean offer(float value, long timestamp) {
+        long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            return false;
+        }
+        int index = (int) tail & mMask;
+        mValues[index] = value;
+        mTimestamps[index] = timestamp;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Remove as many samples as are available, up to the size of the arrays given.
+     * Only to be called from the consumer thread.
+     * @param values Receives the sample values.
+     * @param timestamps Receives the sample times.
+     * @return The number of samples removed.
+     */
+    public int drainTo(float[] values, long[] timestamps) {
+        long head = mHead.get();
+        int count = (int) Math.min(mTail.get() - head, Math.min(values.length, timestamps.length));
+        for (int sample = 0; sample < count; sample++) {
+            int index = (int) (head + sample) & mMask;
+            values[sample] = mValues[index];
+            timestamps[sample] = mTimestamps[index];
+        }
+        mHead.lazySet(head + count);
+        return count;
+    }
+
+    /**
+     * Remove samples in order, as many as are available up to the size of the arrays given, but
+     * none later than a given time; the rest stay queued. Only to be called from the consumer
+     * thread.
+     * @param values Receives the sample values.
+     * @param timestamps Receives the sample times.
+     * @param latest The latest sample time to remove.
+     * @return The number of samples removed.
+     */
+    public int drainTo(float[] values, long[] timestamps, long latest) {
+        long head = mHead.get();
+        int available = (int) Math.min(mTail.get() - head, Math.min(values.length, timestamps.length));
+        int count = 0;
+        for (; count < available; count++) {
+            int index = (int) (head + count) & mMask;
+            if (mTimestamps[index] > latest) {
+                break;
+            }
+            values[count] = mValues[index];
+            timestamps[count] = mTimestamps[index];
+        }
+        mHead.lazySet(head + count);
+        return count;
+    }
+
+    /**
+     * Remove every sample. Only to be called while the producer thread is not adding samples.
+     */
+    public void clear() {
+        mHead.set(mTail.get());
+    }
+
+    public boolean isEmpty() {
+        return mTail.get() == mHead.get();
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+}
@@ -0,0 +1,249 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Receives pressure sensor events on a dedicated thread and processes them on another, keeping
+ * both the sensor callbacks and the filtering off the UI thread.
+ * The sensor thread only copies each sample into a lock-free queue; the processing thread drains
+ * the queue into the PressureResampler that feeds the instruments, a run at a time. Samples that arrive
+ * while the queue is full are dropped and counted.
+ *
+ * Optionally the sensor can be asked to batch events in its hardware FIFO and deliver them up to a
+ * maximum report latency late, which saves waking the CPU for every sample.
+ *
+ * Optionally the linear acceleration and rotation vector sensors are read too. The sensor thread
+ * rotates each linear acceleration into the earth frame with the latest rotation and queues its
+ * vertical component; the processing thread passes those on interleaved with the pressure samples
+ * in time order (see SensorQueues).
+ */
+public class SensorPipeline implements SensorEventListener {
+    /**
+     * Receives the results of processing. All methods are called on the processing thread.
+     */
+    public interface Listener {
+        /**
+         * Called after each run of samples has been processed.
+         */
+        void onSamplesProcessed();
+    }
+
+    private static final int QUEUE_CAPACITY = 256;
+    /**
+     * Linear acceleration is typically reported several times as often as pressure, and runs up to
+     * the maximum report latency ahead of batched pressure samples.
+     */
+    private static final int ACCELERATION_QUEUE_CAPACITY = 1024;
+
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+    private final PressureResampler mResampler;
+    private final Listener mListener;
+    private final SensorQueues mQueues = new SensorQueues(QUEUE_CAPACITY, ACCELERATION_QUEUE_CAPACITY);
+    private final AtomicBoolean mDrainPending = new AtomicBoolean();
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private HandlerThread mSensorThread;
+    private HandlerThread mProcessingThread;
+    private Handler mProcessingHandler;
+    private Sensor mAccelerationSensor;
+    private Sensor mRotationSensor;
+    private AccelerationConsumer mAccelerationConsumer;
+
+    // Only used by the sensor thread.
+    private final float[] mRotationVector = new float[4];
+    private final float[] mRotationMatrix = new float[9];
+    private boolean mHaveRotation;
+
+    // Written by the sensor thread only.
+    private volatile long mDroppedSamples;
+    private volatile float mLastPressure;
+    private volatile long mLastTimestamp;
+    private volatile long mLastInterval;
+
+    public SensorPipeline(SensorManager sensorManager, Sensor sensor, PressureResampler resampler,
+                          Listener listener) {
+        mSensorManager = sensorManager;
+        mSensor = sensor;
+        mResampler = resampler;
+        mListener = listener;
+    }
+
+    /**
+     * Choose whether vertical acceleration is read as well as pressure. Only to be called while
+     * the pipeline is stopped.
+     * @param linearAcceleration The linear acceleration sensor, or null to read only pressure.
+     * @param rotation The rotation vector sensor, or null to read only pressure.
+     * @param consumer Receives the vertical acceleration on the processing thread.
+     */
+    public void setAccelerationSensors(Sensor linearAcceleration, Sensor rotation, AccelerationConsumer consumer) {
+        if (linearAcceleration == null || rotation == null) {
+            mAccelerationSensor = null;
+            mRotationSensor = null;
+            mAccelerationConsumer = null;
+        } else {
+            mAccelerationSensor = linearAcceleration;
+            mRotationSensor = rotation;
+            mAccelerationConsumer = consumer;
+        }
+    }
+
+    /**
+     * Start the pipeline threads and register for sensor events.
+     * @param rate The sensor rate, one of the SensorManager.SENSOR_DELAY_ constants.
+     * @param maxReportLatency The longest time in microseconds the sensor may hold events in its
+     *                         FIFO before delivering them, or 0 to deliver each event as it
+     *                         happens. Ignored before Android 4.4.
+     */
+    public void start(int rate, int maxReportLatency) {
+        if (mSensorThread != null) {
+            return;
+        }
+        mProcessingThread = new HandlerThread("PressureProcessing", Process.THREAD_PRIORITY_DISPLAY);
+        mProcessingThread.start();
+        mProcessingHandler = new Handler(mProcessingThread.getLooper());
+        // A callback that raced the last stop() may have left this set with its drain discarded,
+        // which would keep every later sample from waking the processing thread.
+        mDrainPending.set(false);
+        // Accelerations left from before the last stop() belong to no sample still to come.
+        mQueues.clearAccelerations();
+        mSensorThread = new HandlerThread("PressureSensor", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mSensorThread.start();
+        Handler sensorHandler = new Handler(mSensorThread.getLooper());
+        if (maxReportLatency > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mSensorManager.registerListener(this, mSensor, rate, maxReportLatency, sensorHandler);
+            mResampler.getStalenessMonitor().setReportLatency(maxReportLatency / 1000);
+        } else {
+            mSensorManager.registerListener(this, mSensor, rate, sensorHandler);
+            mResampler.getStalenessMonitor().setReportLatency(0);
+        }
+        if (mAccelerationSensor != null) {
+            // Acceleration is only useful promptly, so it is never batched.
+            mHaveRotation = false;
+            mSensorManager.registerListener(this, mRotationSensor, SensorManager.SENSOR_DELAY_GAME, sensorHandler);
+            mSensorManager.registerListener(this, mAccelerationSensor, SensorManager.SENSOR_DELAY_GAME, sensorHandler);
+        }
+    }
+
+    /**
+     * Unregister from the sensor and stop the pipeline threads. When this returns the
+     * resampler and its consumers are no longer being written to.
+     */
+    public void stop() {
+        if (mSensorThread == null) {
+            return;
+        }
+        mSensorManager.unregisterListener(this);
+        // Wait for any callback already under way, so that none posts to the processing thread
+        // once it has gone.
+        mSensorThread.quit();
+        join(mSensorThread);
+        mProcessingThread.quit();
+        join(mProcessingThread);
+        mSensorThread = null;
+        mProcessingThread = null;
+        mProcessingHandler = null;
+        mDrainPending.set(false);
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // Do something here if sensor accuracy changes.
+    }
+
+    /**
+     * Called on the sensor thread.
+     */
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        int type = event.sensor.getType();
+        if (type == Sensor.TYPE_ROTATION_VECTOR) {
+            // Before Android 4.3 there are only three values; some devices report more than
+            // four, which getRotationMatrixFromVector rejects on older versions of Android.
+            float[] vector = event.values;
+            if (vector.length > 4) {
+                System.arraycopy(vector, 0, mRotationVector, 0, 4);
+                vector = mRotationVector;
+            }
+            SensorManager.getRotationMatrixFromVector(mRotationMatrix, vector);
+            mHaveRotation = true;
+            return;
+        }
+        if (type == Sensor.TYPE_LINEAR_ACCELERATION) {
+            if (mHaveRotation) {
+                // The bottom row of the rotation matrix gives the earth's upward axis in device axes.
+                float[] values = event.values;
+                float vertical = mRotationMatrix[6] * values[0] + mRotationMatrix[7] * values[1]
+                        + mRotationMatrix[8] * values[2];
+                // Dropped accelerations only make the mean over a sample interval a little noisier.
+                mQueues.offerAcceleration(vertical, event.timestamp);
+            }
+            return;
+        }
+        float pressure = event.values[0];
+        mLastInterval = event.timestamp - mLastTimestamp;
+        mLastTimestamp = event.timestamp;
+        mLastPressure = pressure;
+        if (!mQueues.offerPressure(pressure, event.timestamp)) {
+            mDroppedSamples++;
+        }
+        // Only wake the processing thread if it is not already due to drain the queue.
+        if (mDrainPending.compareAndSet(false, true)) {
+            Handler handler = mProcessingHandler;
+            if (handler != null) {
+                handler.post(mDrain);
+            }
+        }
+    }
+
+    /**
+     * Called on the processing thread.
+     */
+    private void drain() {
+        mDrainPending.set(false);
+        mQueues.drainTo(mResampler, mAccelerationConsumer);
+        mListener.onSamplesProcessed();
+    }
+
+    /**
+     * @return The number of samples dropped because the processing thread fell behind.
+     */
+    public long getDroppedSamples() {
+        return mDroppedSamples;
+    }
+
+    /**
+     * @return The most recent raw pressure received, in hPa.
+     */
+    public float getLastPressure() {
+        return mLastPressure;
+    }
+
+    /**
+     * @return The time between the two most recent sensor events, in nanoseconds.
+     */
+    public long getLastInterval() {
+        return mLastInterval;
+    }
+}
@@ -0,0 +1,98 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * The queues that carry pressure samples, and optionally vertical accelerations, from the sensor
+ * thread of a SensorPipeline to its processing thread. Each is lock-free with one producer and one
+ * consumer, and nothing is allocated per sample.
+ *
+ * The processing thread passes the two on interleaved in time order. Accelerations later than the
+ * newest pressure sample drained stay queued until a later sample arrives: when pressure is
+ * batched in the sensor FIFO but acceleration is not, the accelerations run ahead of the pressure
+ * samples, and each must still reach the VSI just ahead of the sample that follows it.
+ * Accelerations no later than the last pressure sample passed on, such as those held over a
+ * stall in pressure samples, are thrown away, as they belong to an interval already passed on.
+ */
+public class SensorQueues {
+    private final SampleQueue mPressureQueue;
+    private final float[] mPressures;
+    private final long[] mTimestamps;
+    private final SampleQueue mAccelerationQueue;
+    private final float[] mAccelerations;
+    private final long[] mAccelerationTimestamps;
+    private long mPressureTimestamp = Long.MIN_VALUE; // Of the last pressure sample passed on.
+
+    /**
+     * @param pressureCapacity The most pressure samples held.
+     * @param accelerationCapacity The most accelerations held; enough for the longest time by which
+     *                             they may run ahead of pressure samples.
+     */
+    public SensorQueues(int pressureCapacity, int accelerationCapacity) {
+        mPressureQueue = new SampleQueue(pressureCapacity);
+        mPressures = new float[mPressureQueue.capacity()];
+        mTimestamps = new long[mPressureQueue.capacity()];
+        mAccelerationQueue = new SampleQueue(accelerationCapacity);
+        mAccelerations = new float[mAccelerationQueue.capacity()];
+        mAccelerationTimestamps = new long[mAccelerationQueue.capacity()];
+    }
+
+    /**
+     * Queue a pressure sample. Only to be called from the sensor thread.
+     * @return false if the queue was full and the sample was dropped.
+     */
+    public boolean offerPressure(float pressure, long timestamp) {
+        return mPressureQueue.offer(pressure, timestamp);
+    }
+
+    /**
+     * Queue a vertical acceleration. Only to be called from the sensor thread.
+     * @return false if the queue was full and the acceleration was dropped.
+     */
+    public boolean offerAcceleration(float acceleration, long timestamp) {
+        return mAccelerationQueue.offer(acceleration, timestamp);
+    }
+
+    /**
+     * Throw away any queued accelerations, such as those left from before the sensors were last
+     * unregistered. Only to be called while neither thread is using the queues.
+     */
+    public void clearAccelerations() {
+        mAccelerationQueue.clear();
+    }
+
+    /**
+     * Pass on everything queued, a run of pressure samples at a time. Only to be called from the
+     * processing thread.
+     * @param resampler Receives the pressure samples.
+     * @param consumer Receives the accelerations no later than each pressure sample just ahead of
+     *                 it, or null to pass on the pressure samples in batches and leave any
+     *                 accelerations queued.
+     */
+    public void drainTo(PressureResampler resampler, AccelerationConsumer consumer) {
+        int count;
+        while ((count = mPressureQueue.drainTo(mPressures, mTimestamps)) > 0) {
+            if (consumer == null) {
+                resampler.setPressureBatch(mPressures, mTimestamps, count);
+                mPressureTimestamp = mTimestamps[count - 1];
+            } else {
+                drainInterleaved(count, resampler, consumer);
+            }
+        }
+    }
+
+    private void drainInterleaved(int count, PressureResampler resampler, AccelerationConsumer consumer) {
+        int accelerations = mAccelerationQueue.drainTo(mAccelerations, mAccelerationTimestamps,
+                mTimestamps[count - 1]);
+        int acceleration = 0;
+        for (int sample = 0; sample < count; sample++) {
+            long timestamp = mTimestamps[sample];
+            while (acceleration < accelerations && mAccelerationTimestamps[acceleration] <= timestamp) {
+                if (mAccelerationTimestamps[acceleration] > mPressureTimestamp) {
+                    consumer.onVerticalAcceleration(mAccelerations[acceleration], mAccelerationTimestamps[acceleration]);
+                }
+                acceleration++;
+            }
+            resampler.setPressure(mPressures[sample], timestamp);
+            mPressureTimestamp = timestamp;
+        }
+    }
+}
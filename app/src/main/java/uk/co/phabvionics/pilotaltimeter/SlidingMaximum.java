@@ -0,0 +1,78 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * The largest magnitude among the most recent samples, kept up to date as samples are added.
+ * The candidates for the maximum are held in a monotonic deque: each new sample removes the
+ * candidates it outlasts and is at least as large as, so the front is always the maximum. Adding
+ * a sample costs O(1) amortised and reading the maximum O(1), however long the window.
+ */
+public class SlidingMaximum {
+    private float[] mValues; // Magnitudes of the candidates, decreasing from the front.
+    private long[] mSequence; // The sample number of each candidate.
+    private int mFront;
+    private int mSize;
+    private long mAdded;
+    private int mWindow;
+
+    /**
+     * @param window The number of most recent samples to take the maximum over (at least 1).
+     */
+    public SlidingMaximum(int window) {
+        mWindow = Math.max(window, 1);
+        mValues = new float[mWindow];
+        mSequence = new long[mWindow];
+    }
+
+    public void add(float sample) {
+        float magnitude = Math.abs(sample);
+        int capacity = mValues.length;
+        // Drop candidates from the back that the new sample outlasts and is at least as large as.
+        while (mSize > 0 && mValues[index(mSize - 1)] <= magnitude) {
+            mSize--;
+        }
+        // Drop the front candidate if it has left the window.
+        if (mSize > 0 && mSequence[mFront] <= mAdded - mWindow) {
+            mFront = mFront + 1 == capacity ? 0 : mFront + 1;
+            mSize--;
+        }
+        int back = index(mSize);
+        mValues[back] = magnitude;
+        mSequence[back] = mAdded;
+        mSize++;
+        mAdded++;
+    }
+
+    private int index(int offset) {
+        int index = mFront + offset;
+        return index < mValues.length ? index : index - mValues.length;
+    }
+
+    /**
+     * @return The largest magnitude of the samples in the window, or 0 if there are none.
+     */
+    public float getMaximum() {
+        return mSize > 0 ? mValues[mFront] : 0.0f;
+    }
+
+    public void clear() {
+        mFront = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Change the window and refill it from the newest samples of a history buffer.
+     * @param history The samples.
+     * @param window The number of most recent samples to take the maximum over (at least 1).
+     */
+    public void resize(HistoryBuffer history, int window) {
+        mWindow = Math.max(window, 1);
+        if (mValues.length != mWindow) {
+            mValues = new float[mWindow];
+            mSequence = new long[mWindow];
+        }
+        clear();
+        for (int index = Math.max(0, history.size() - mWindow); index < history.size(); index++) {
+            add(history.get(index));
+        }
+    }
+}
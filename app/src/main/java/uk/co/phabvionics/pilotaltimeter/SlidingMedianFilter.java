@@ -0,0 +1,257 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * Rejects pressure spikes, such as those from a door slamming or a window being opened, by
+ * taking the median or a trimmed mean of the samples received over a sliding time window.
+ * Unlike the low-pass filters a short spike does not move the output at all, so this filter is
+ * meant to go ahead of them.
+ *
+ * The window's samples are held in arrival order in a ring and in pressure order in a treap (a
+ * binary search tree kept balanced by random node priorities) whose nodes record the size and sum
+ * of their subtree. Both live in primitive arrays, so adding or removing a sample and finding the
+ * median or trimmed mean each take O(log n) for n samples in the window, with nothing allocated.
+ * The sums are kept in fixed point, so they are exact however long the filter runs.
+ */
+public class SlidingMedianFilter implements PressureFilter {
+    private static final int NIL = 0; // Node 0 is the empty tree.
+
+    private final long mWindow;
+    private final float mTrim;
+
+    // The samples in the window, oldest first.
+    private final float[] mRingValues;
+    private final long[] mRingTimes;
+    private int mRingStart;
+    private int mRingCount;
+
+    // The treap.
+    private final long[] mKey; // Pressure in fixed point.
+    private final int[] mPriority;
+    private final int[] mLeft;
+    private final int[] mRight;
+    private final int[] mSize;
+    private final long[] mSum;
+    private final int[] mFree; // Stack of unused nodes.
+    private int mFreeCount;
+    private int mRoot;
+    private int mRandom = 0x2545f491;
+
+    // Samples taken out of the tree while peeking.
+    private int mPeekExpired;
+
+    /**
+     * @param window The length of the window in nanoseconds. Samples older than this (relative
+     *               to the latest) are dropped.
+     * @param trim The fraction of the window's samples discarded from each end before taking the
+     *             mean: 0.5 gives the median, 0.25 the interquartile mean and 0 the plain mean.
+     * @param capacity The most samples held. If more than this arrive within the window the
+     *                 oldest are dropped early.
+     */
+    public SlidingMedianFilter(long window, float trim, int capacity) {
+        mWindow = window;
+        mTrim = Math.max(0, Math.min(trim, 0.5f));
+        mRingValues = new float[capacity];
+        mRingTimes = new long[capacity];
+        mKey = new long[capacity + 2];
+        mPriority = new int[capacity + 2];
+        mLeft = new int[capacity + 2];
+        mRight = new int[capacity + 2];
+        mSize = new int[capacity + 2];
+        mSum = new long[capacity + 2];
+        mFree = new int[capacity + 1];
+        clear();
+    }
+
+    private void clear() {
+        mRingStart = 0;
+        mRingCount = 0;
+        mRoot = NIL;
+        mFreeCount = 0;
+        for (int node = mFree.length; node > 0; node--) {
+            mFree[mFreeCount++] = node;
+        }
+    }
+
+    @Override
+    public float Filter(float sample, long timestamp) {
+        if (mRingCount == mRingValues.length) {
+            removeOldest();
+        }
+        int end = ringIndex(mRingCount);
+        mRingValues[end] = sample;
+        mRingTimes[end] = timestamp;
+        mRingCount++;
+        mRoot = insert(mRoot, newNode(FixedPoint.fromFloat(sample)));
+        while (mRingCount > 1 && mRingTimes[mRingStart] < timestamp - mWindow) {
+            removeOldest();
+        }
+        return output();
+    }
+
+    /**
+     * Calculate what Filter would return for a sample without adding it. Costs O(log n) for each
+     * sample that would leave the window.
+     */
+    @Override
+    public float PeekAt(float sample, long timestamp) {
+        // Take out the samples that would leave the window, add the new one, then put it all back.
+        mPeekExpired = 0;
+        int limit = mRingCount == mRingValues.length ? 1 : 0;
+        while (mPeekExpired < mRingCount
+                && (mPeekExpired < limit || mRingTimes[ringIndex(mPeekExpired)] < timestamp - mWindow)) {
+            mRoot = delete(mRoot, FixedPoint.fromFloat(mRingValues[ringIndex(mPeekExpired)]));
+            mPeekExpired++;
+        }
+        long key = FixedPoint.fromFloat(sample);
+        mRoot = insert(mRoot, newNode(key));
+        float output = output();
+        mRoot = delete(mRoot, key);
+        for (int expired = 0; expired < mPeekExpired; expired++) {
+            mRoot = insert(mRoot, newNode(FixedPoint.fromFloat(mRingValues[ringIndex(expired)])));
+        }
+        return output;
+    }
+
+    @Override
+    public void Reset(float output, long timestamp) {
+        clear();
+        Filter(output, timestamp);
+    }
+
+    /**
+     * @return The number of samples in the window.
+     */
+    public int getCount() {
+        return mRingCount;
+    }
+
+    private int ringIndex(int offset) {
+        int index = mRingStart + offset;
+        return index < mRingValues.length ? index : index - mRingValues.length;
+    }
+
+    private void removeOldest() {
+        mRoot = delete(mRoot, FixedPoint.fromFloat(mRingValues[mRingStart]));
+        mRingStart = ringIndex(1);
+        mRingCount--;
+    }
+
+    /**
+     * @return The mean of the samples in the tree after trimming.
+     */
+    private float output() {
+        int count = mSize[mRoot];
+        int low = Math.min((int) (count * mTrim), (count - 1) / 2);
+        int high = count - low;
+        return (float) (FixedPoint.toDouble(sumOfSmallest(high) - sumOfSmallest(low)) / (high - low));
+    }
+
+    /**
+     * @return The sum of the smallest count keys in the tree.
+     */
+    private long sumOfSmallest(int count) {
+        long sum = 0;
+        int node = mRoot;
+        while (node != NIL && count > 0) {
+            int left = mLeft[node];
+            if (count <= mSize[left]) {
+                node = left;
+            } else {
+                sum += mSum[left] + mKey[node];
+                count -= mSize[left] + 1;
+                node = mRight[node];
+            }
+        }
+        return sum;
+    }
+
+    private int newNode(long key) {
+        int node = mFree[--mFreeCount];
+        // Xorshift priorities keep the tree balanced whatever order the keys arrive in.
+        mRandom ^= mRandom << 13;
+        mRandom ^= mRandom >>> 17;
+        mRandom ^= mRandom << 5;
+        mKey[node] = key;
+        mPriority[node] = mRandom;
+        mLeft[node] = NIL;
+        mRight[node] = NIL;
+        mSize[node] = 1;
+        mSum[node] = key;
+        return node;
+    }
+
+    private void update(int node) {
+        int left = mLeft[node];
+        int right = mRight[node];
+        mSize[node] = mSize[left] + mSize[right] + 1;
+        mSum[node] = mSum[left] + mSum[right] + mKey[node];
+    }
+
+    private int rotateRight(int node) {
+        int left = mLeft[node];
+        mLeft[node] = mRight[left];
+        mRight[left] = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private int rotateLeft(int node) {
+        int right = mRight[node];
+        mRight[node] = mLeft[right];
+        mLeft[right] = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private int insert(int root, int node) {
+        if (root == NIL) {
+            return node;
+        }
+        if (mKey[node] < mKey[root]) {
+            mLeft[root] = insert(mLeft[root], node);
+            if (mPriority[mLeft[root]] > mPriority[root]) {
+                return rotateRight(root);
+            }
+        } else {
+            mRight[root] = insert(mRight[root], node);
+            if (mPriority[mRight[root]] > mPriority[root]) {
+                return rotateLeft(root);
+            }
+        }
+        update(root);
+        return root;
+    }
+
+    /**
+     * Remove one node with the given key, which must be in the tree.
+     */
+    private int delete(int root, long key) {
+        if (root == NIL) {
+            return NIL;
+        }
+        if (key < mKey[root]) {
+            mLeft[root] = delete(mLeft[root], key);
+        } else if (key > mKey[root]) {
+            mRight[root] = delete(mRight[root], key);
+        } else {
+            int left = mLeft[root];
+            int right = mRight[root];
+            if (left == NIL || right == NIL) {
+                mFree[mFreeCount++] = root;
+                return left == NIL ? right : left;
+            }
+            // Rotate the node down below its higher priority child and delete it from there.
+            if (mPriority[left] > mPriority[right]) {
+                root = rotateRight(root);
+                mRight[root] = delete(mRight[root], key);
+            } else {
+                root = rotateLeft(root);
+                mLeft[root] = delete(mLeft[root], key);
+            }
+        }
+        update(root);
+        return root;
+    }
+}
@@ -0,0 +1,65 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * Tracks whether pressure data is still being received.
+ * Receiving a sample only records the time it arrived; whether data has stopped is worked out
+ * when somebody asks, so there is no timer to reschedule and nothing is allocated per sample.
+ */
+public class StalenessMonitor {
+    private static final StalenessMonitor INSTANCE = new StalenessMonitor();
+
+    public static StalenessMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The time before it is considered that the instruments are no longer receiving data in ms.
+     */
+    static final long STOPPED_RECEIVING_DATA_TIME = 1000;
+
+    private volatile Clock mClock = Clock.SYSTEM;
+    private volatile long mLastSampleTime; // mClock time when the last sample arrived.
+    private volatile boolean mSampleReceived;
+    private volatile long mStoppedTime = STOPPED_RECEIVING_DATA_TIME * 1000000L; // ns without a sample before data has stopped.
+
+    /**
+     * Set the clock against which sample arrival is timed.
+     * @param clock The clock; Clock.SYSTEM by default.
+     */
+    public void setClock(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Allow for samples being delivered in batches, which can leave gaps of up to the report
+     * latency between deliveries without data having stopped.
+     * @param latency The maximum report latency in ms, or 0 if samples are not batched.
+     */
+    public void setReportLatency(long latency) {
+        mStoppedTime = (STOPPED_RECEIVING_DATA_TIME + latency) * 1000000L;
+    }
+
+    /**
+     * Record that a sample has just been received.
+     */
+    public void sampleReceived() {
+        mLastSampleTime = mClock.nanoTime();
+        mSampleReceived = true;
+    }
+
+    /**
+     * @return true once any sample has been received.
+     */
+    public boolean isSampleReceived() {
+        return mSampleReceived;
+    }
+
+    /**
+     * @return true if no sample has been received in the last STOPPED_RECEIVING_DATA_TIME ms
+     * (plus any report latency), or none has been received at all.
+     */
+    public boolean isStopped() {
+        return !mSampleReceived
+                || mClock.nanoTime() - mLastSampleTime >= mStoppedTime;
+    }
+}
@@ -0,0 +1,167 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+/**
+ * A history kept at several resolutions, so that a whole flight can be graphed without keeping
+ * or rescanning every point. Each tier summarises a fixed number of the points added as their
+ * minimum, mean and maximum, in ring buffers of fixed capacity; the summaries are rolled up as
+ * the points arrive, so adding a point costs O(tiers) and the memory used never grows.
+ */
+public class TieredHistory {
+    /**
+     * The points of a flight history are added every 500ms.
+     */
+    public static final long FLIGHT_HISTORY_TIME_STEP = 500000000; // 500ms
+    private static final int[] FLIGHT_RATIOS = {1, 20, 120}; // 500ms, 10s and 1 minute.
+    private static final int[] FLIGHT_CAPACITIES = {601, 361, 1441}; // 5 minutes, 1 hour and 24 hours.
+
+    private final int[] mRatios;
+    private final HistoryBuffer[] mMinimum;
+    private final HistoryBuffer[] mMean;
+    private final HistoryBuffer[] mMaximum;
+    // The summary of the points not yet rolled up into each tier.
+    private final float[] mPendingMinimum;
+    private final float[] mPendingMaximum;
+    private final double[] mPendingSum;
+    private final int[] mPendingCount;
+
+    /**
+     * @param ratios The number of points summarised by each entry of each tier, finest first.
+     * @param capacities The number of entries kept in each tier.
+     */
+    public TieredHistory(int[] ratios, int[] capacities) {
+        int tiers = ratios.length;
+        mRatios = ratios.clone();
+        mMinimum = new HistoryBuffer[tiers];
+        mMean = new HistoryBuffer[tiers];
+        mMaximum = new HistoryBuffer[tiers];
+        for (int tier = 0; tier < tiers; tier++) {
+            mMinimum[tier] = new HistoryBuffer(capacities[tier]);
+            mMean[tier] = new HistoryBuffer(capacities[tier]);
+            mMaximum[tier] = new HistoryBuffer(capacities[tier]);
+        }
+        mPendingMinimum = new float[tiers];
+        mPendingMaximum = new float[tiers];
+        mPendingSum = new double[tiers];
+        mPendingCount = new int[tiers];
+    }
+
+    /**
+     * @return A history of points every FLIGHT_HISTORY_TIME_STEP, kept at 500ms for 5 minutes,
+     * 10s for an hour and 1 minute for 24 hours.
+     */
+    public static TieredHistory createFlightHistory() {
+        return new TieredHistory(FLIGHT_RATIOS, FLIGHT_CAPACITIES);
+    }
+
+    /**
+     * Add a point.
+     * @param value The point.
+     */
+    public void add(float value) {
+        for (int tier = 0; tier < mRatios.length; tier++) {
+            accumulate(tier, value, 1);
+            if (mPendingCount[tier] == mRatios[tier]) {
+                rollUp(tier);
+            }
+        }
+    }
+
+    /**
+     * Add the same point many times, as over a gap in the data. Costs no more than filling each
+     * tier, however many points are added.
+     * @param value The point.
+     * @param count The number of times to add it.
+     */
+    public void addRepeated(float value, long count) {
+        for (int tier = 0; tier < mRatios.length; tier++) {
+            int ratio = mRatios[tier];
+            long remaining = count;
+            if (mPendingCount[tier] + remaining < ratio) {
+                accumulate(tier, value, (int) remaining);
+                continue;
+            }
+            // Complete the pending entry, add whole entries, then start the next entry.
+            remaining -= ratio - mPendingCount[tier];
+            accumulate(tier, value, ratio - mPendingCount[tier]);
+            rollUp(tier);
+            long entries = Math.min(remaining / ratio, mMean[tier].capacity());
+            for (long entry = 0; entry < entries; entry++) {
+                mMinimum[tier].add(value);
+                mMean[tier].add(value);
+                mMaximum[tier].add(value);
+            }
+            accumulate(tier, value, (int) (remaining % ratio));
+        }
+    }
+
+    private void accumulate(int tier, float value, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (mPendingCount[tier] == 0) {
+            mPendingMinimum[tier] = value;
+            mPendingMaximum[tier] = value;
+        } else {
+            mPendingMinimum[tier] = Math.min(mPendingMinimum[tier], value);
+            mPendingMaximum[tier] = Math.max(mPendingMaximum[tier], value);
+        }
+        mPendingSum[tier] += (double) value * count;
+        mPendingCount[tier] += count;
+    }
+
+    private void rollUp(int tier) {
+        mMinimum[tier].add(mPendingMinimum[tier]);
+        mMean[tier].add((float) (mPendingSum[tier] / mPendingCount[tier]));
+        mMaximum[tier].add(mPendingMaximum[tier]);
+        mPendingSum[tier] = 0;
+        mPendingCount[tier] = 0;
+    }
+
+    public void clear() {
+        for (int tier = 0; tier < mRatios.length; tier++) {
+            mMinimum[tier].clear();
+            mMean[tier].clear();
+            mMaximum[tier].clear();
+            mPendingSum[tier] = 0;
+            mPendingCount[tier] = 0;
+        }
+    }
+
+    public int getTierCount() {
+        return mRatios.length;
+    }
+
+    /**
+     * @param tier The tier, 0 for the finest.
+     * @return The number of points summarised by each entry of the tier.
+     */
+    public int getRatio(int tier) {
+        return mRatios[tier];
+    }
+
+    /**
+     * Find the finest tier that covers a span.
+     * @param points The span as a number of points.
+     * @return The finest tier whose capacity covers the span, or the coarsest tier if none does.
+     */
+    public int getTierCovering(long points) {
+        for (int tier = 0; tier < mRatios.length; tier++) {
+            if ((long) (mMean[tier].capacity() - 1) * mRatios[tier] >= points) {
+                return tier;
+            }
+        }
+        return mRatios.length - 1;
+    }
+
+    public HistoryBuffer getMinimum(int tier) {
+        return mMinimum[tier];
+    }
+
+    public HistoryBuffer getMean(int tier) {
+        return mMean[tier];
+    }
+
+    public HistoryBuffer getMaximum(int tier) {
+        return mMaximum[tier];
+    }
+}
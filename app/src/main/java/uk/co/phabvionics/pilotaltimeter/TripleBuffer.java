@@ -0,0 +1,57 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes snapshots of state from one writer thread to one reader thread without locks.
+ * There are three snapshot objects: the writer fills the back one and publishes it by swapping
+ * it with the middle one, and the reader takes the latest by swapping the front one with the
+ * middle one. Neither thread ever waits for the other, nothing is allocated, and the reader
+ * always sees a snapshot that the writer has finished with.
+ * @param <T> The type of the snapshots.
+ */
+public class TripleBuffer<T> {
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4; // Set in mMiddle when it has not been taken by the reader.
+
+    private final T[] mBuffers;
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    private int mBack = 0; // Only used by the writer.
+    private int mFront = 2; // Only used by the reader.
+
+    /**
+     * @param first The snapshot first taken by the reader, before anything is published.
+     * @param second Another snapshot.
+     * @param third Another snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    public TripleBuffer(T first, T second, T third) {
+        mBuffers = (T[]) new Object[] {second, third, first};
+    }
+
+    /**
+     * @return The snapshot for the writer to fill. Only to be called by the writer.
+     */
+    public T getBack() {
+        return mBuffers[mBack];
+    }
+
+    /**
+     * Make the back snapshot the latest. The writer must not touch it afterwards; it is given
+     * another by getBack. Only to be called by the writer.
+     */
+    public void publish() {
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * @return The latest snapshot published, which stays unchanged until the next call.
+     * Only to be called by the reader.
+     */
+    public T getFront() {
+        if ((mMiddle.get() & FRESH) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        }
+        return mBuffers[mFront];
+    }
+}
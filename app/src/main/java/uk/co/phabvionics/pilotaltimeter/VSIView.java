@@ -1,6 +1,7 @@
 package uk.co.phabvionics.pilotaltimeter;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -36,6 +37,16 @@ public class VSIView extends View {
     private float mGraphLeft;
     private float mGraphRight;
     private int mDisplayGraphSeconds;
+    private final GraphLines mGraphLines = new GraphLines();
+    private final FormattedText mText = new FormattedText(); // Readouts are built here each frame.
+    private Bitmap mStaticLayer; // The parts of the display that only change in setCoordinates.
+    // What the last redraw showed, to tell whether another is needed.
+    private boolean mShownValid;
+    private long mShownSpeed; // Display units.
+    private long mShownHistory;
+    private boolean mShownStopped;
+    private boolean mShownFeet;
+    private int mShownGraphSeconds;
 
     public VSIView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -84,8 +95,9 @@ public class VSIView extends View {
         final float cx, cy, size;
         final float minGraphPixels = Math.max(mWidth, mHeight) / 4.0f;
         final float graphGuardPixels = 5.0f;
+        mDisplayGraphSeconds = mVSI.getDisplayGraphSeconds();
         // If mDisplayGraph is set,
-        if (mVSI.getDisplayGraphSeconds() > 0) {
+        if (mDisplayGraphSeconds > 0) {
             // If component wider than high or square,
             if (mWidth >= mHeight) {
                 // VSI to display to the right and graph to the left.
@@ -160,6 +172,59 @@ public class VSIView extends View {
         mGreyRightPaint.setTextSize(0.075f * size);
         mxCentre = cx;
         myCentre = cy;
+
+        updateStaticLayer();
+    }
+
+    /**
+     * Draw the dial and the graph frame, grid and time labels into a bitmap once, so that each
+     * frame only has to draw over it the parts that change.
+     */
+    private void updateStaticLayer() {
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+        }
+        if (mWidth <= 0 || mHeight <= 0) {
+            return;
+        }
+        mStaticLayer = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mStaticLayer);
+        // Draw a circle.
+        canvas.drawCircle(mxCentre, myCentre, mSize * 0.49f, mWhitePaint);
+        canvas.drawCircle(mxCentre, myCentre, mSize * 0.48f, mBlackPaint);
+
+        canvas.drawLines(mTickCoords, mTickPaint);
+
+        canvas.drawPoints(mDotCoords, mTickPaint);
+
+        for (int number = 0; number < 9; number++) {
+            canvas.drawText(Integer.toString(20 - number * 5), mNumberCoords[number * 2], mNumberCoords[number * 2 + 1], mDatumPaint);
+        }
+
+        // If the graph is to be displayed,
+        if (mDisplayGraphSeconds > 0) {
+            // Draw a box round the graph.
+            canvas.drawLine(mGraphLeft, mGraphTop, mGraphRight, mGraphTop, mBlackPaint);
+            canvas.drawLine(mGraphLeft, mGraphBottom, mGraphRight, mGraphBottom, mBlackPaint);
+            canvas.drawLine(mGraphLeft, mGraphTop, mGraphLeft, mGraphBottom, mBlackPaint);
+            canvas.drawLine(mGraphRight, mGraphTop, mGraphRight, mGraphBottom, mBlackPaint);
+            // Draw x-axis parallels.
+            float graphHeight = mGraphBottom - mGraphTop;
+            canvas.drawLine(mGraphLeft, mGraphTop + graphHeight / 4.0f, mGraphRight, mGraphTop + graphHeight / 4.0f, mGreyLeftPaint);
+            canvas.drawLine(mGraphLeft, mGraphTop + graphHeight / 2.0f, mGraphRight, mGraphTop + graphHeight / 2.0f, mGreyLeftPaint);
+            canvas.drawLine(mGraphLeft, mGraphBottom - graphHeight / 4.0f, mGraphRight, mGraphBottom - graphHeight / 4.0f, mGreyLeftPaint);
+            // Draw y-axis parallels.
+            float graphWidth = mGraphRight - mGraphLeft;
+            for (int interval = 1; interval < 6; interval++) {
+                canvas.drawLine(mGraphLeft + graphWidth * interval / 6.0f, mGraphTop, mGraphLeft + graphWidth * interval / 6.0f, mGraphBottom, mGreyLeftPaint);
+            }
+            // Draw labels.
+            int interval = mDisplayGraphSeconds;
+            canvas.drawText("<-" + interval + "s", mGraphLeft, mGraphBottom, mGreyLeftPaint);
+            canvas.drawText("-" + (interval / 2) + "s", mGraphLeft + graphWidth / 2, mGraphBottom, mGreyMidPaint);
+            canvas.drawText("Now>", mGraphRight, mGraphBottom, mGreyRightPaint);
+        }
     }
 
     /**
@@ -176,33 +241,54 @@ public class VSIView extends View {
         return (float) (Math.PI - verticalSpeed / 2000.0 * 17 / 18 * Math.PI);
     }
 
+    /**
+     * Invalidate the view if anything it shows has visibly changed since it was last invalidated.
+     * Only to be called on the UI thread.
+     */
+    public void invalidateIfChanged() {
+        VerticalSpeedIndicator.Snapshot snapshot = mVSI.getSnapshot();
+        boolean valid = snapshot.isIndicationValid();
+        long speed = valid ? Math.round(snapshot.getSpeed()) : 0;
+        long history = snapshot.getHistory().getAddedCount();
+        boolean stopped = mVSI.isStopped();
+        boolean feet = mVSI.isDisplayInFeet();
+        int graphSeconds = mVSI.getDisplayGraphSeconds();
+        if (valid != mShownValid || speed != mShownSpeed || history != mShownHistory
+                || stopped != mShownStopped || feet != mShownFeet || graphSeconds != mShownGraphSeconds) {
+            mShownValid = valid;
+            mShownSpeed = speed;
+            mShownHistory = history;
+            mShownStopped = stopped;
+            mShownFeet = feet;
+            mShownGraphSeconds = graphSeconds;
+            invalidate();
+        }
+    }
+
+    private static void drawText(Canvas canvas, FormattedText text, float x, float y, Paint paint) {
+        canvas.drawText(text.getChars(), 0, text.length(), x, y, paint);
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         if (mVSI.getDisplayGraphSeconds() != mDisplayGraphSeconds)
         {
-            mDisplayGraphSeconds = mVSI.getDisplayGraphSeconds();
             setCoordinates();
         }
-        // Draw a circle.
-        canvas.drawCircle(mxCentre, myCentre, mSize * 0.49f, mWhitePaint);
-        canvas.drawCircle(mxCentre, myCentre, mSize * 0.48f, mBlackPaint);
-
-        canvas.drawLines(mTickCoords, mTickPaint);
-
-        canvas.drawPoints(mDotCoords, mTickPaint);
-
-        for (int number = 0; number < 9; number++) {
-            canvas.drawText(Integer.toString(20 - number * 5), mNumberCoords[number * 2], mNumberCoords[number * 2 + 1], mDatumPaint);
+        if (mStaticLayer != null) {
+            canvas.drawBitmap(mStaticLayer, 0, 0, null);
         }
 
+        // Draw from a snapshot, so that samples processed meanwhile cannot tear the display.
+        VerticalSpeedIndicator.Snapshot snapshot = mVSI.getSnapshot();
         boolean displayInFeet = mVSI.isDisplayInFeet();
-        if (mVSI.isIndicationValid()) {
+        if (snapshot.isIndicationValid()) {
             //canvas.drawText(String.format("%d", Math.round(speed / 10) * 10), mxAltPos, myAltPos, mAltitudePaint);
-            float speed = mVSI.getSpeed();
+            float speed = snapshot.getSpeed();
             if (!displayInFeet) {
                 speed = speed * 12.0f * 25.4f / 1000.0f;
             }
-            canvas.drawText(String.format("%.0f", speed), mxAltPos, myAltPos, mAltitudePaint);
+            drawText(canvas, mText.clear().append(speed, 0), mxAltPos, myAltPos, mAltitudePaint);
             float angle = calcAngle(speed);
             float x = (float) (mxCentre + mSize * (Math.cos(angle) * 0.45));
             float y = (float) (myCentre - mSize * (Math.sin(angle) * 0.45));
@@ -218,72 +304,44 @@ public class VSIView extends View {
             canvas.drawText("No Data", mxAltPos, myAltPos, mAltitudePaint);
         }
         // If the graph is to be displayed,
-        if (mVSI.getDisplayGraphSeconds() > 0) {
+        if (mDisplayGraphSeconds > 0) {
             // Determine the units in use.
             String units = displayInFeet ? "ft/min" : "m/min";
             // Determine the scale.
             int scaleMantissa = displayInFeet ? 2 : 1;
-            float scaleExponent = 2;
-            float scale = scaleMantissa * (float)Math.pow(10, scaleExponent);
-
-            int historySize = mVSI.getHistorySize();
-            float[] history = mVSI.getHistory();
-            for (int index = 0; index < historySize; index++) {
-                while (Math.abs(history[index]) > scale) {
-                    switch (scaleMantissa) {
-                        case 1:
-                            scaleMantissa = 2;
-                            break;
-                        case 2:
-                            scaleMantissa = 5;
-                            break;
-                        case 5:
-                            scaleMantissa = 1;
-                            scaleExponent++;
-                            break;
-                    }
-                    scale = scaleMantissa * (float)Math.pow(10, scaleExponent);
+            float scaleDecade = 100;
+            float scale = scaleMantissa * scaleDecade;
+            // Step through the 1, 2, 5 sequence until the scale covers the largest speed shown.
+            float maximum = snapshot.getHistoryMaximum();
+            while (maximum > scale) {
+                switch (scaleMantissa) {
+                    case 1:
+                        scaleMantissa = 2;
+                        break;
+                    case 2:
+                        scaleMantissa = 5;
+                        break;
+                    case 5:
+                        scaleMantissa = 1;
+                        scaleDecade *= 10;
+                        break;
                 }
+                scale = scaleMantissa * scaleDecade;
             }
 
-            // Draw a box round the graph.
-            canvas.drawLine(mGraphLeft, mGraphTop, mGraphRight, mGraphTop, mBlackPaint);
-            canvas.drawLine(mGraphLeft, mGraphBottom, mGraphRight, mGraphBottom, mBlackPaint);
-            canvas.drawLine(mGraphLeft, mGraphTop, mGraphLeft, mGraphBottom, mBlackPaint);
-            canvas.drawLine(mGraphRight, mGraphTop, mGraphRight, mGraphBottom, mBlackPaint);
-            // Draw x-axis parallels.
+            HistoryBuffer history = snapshot.getHistory();
             float graphHeight = mGraphBottom - mGraphTop;
-            canvas.drawLine(mGraphLeft, mGraphTop + graphHeight / 4.0f, mGraphRight, mGraphTop + graphHeight / 4.0f, mGreyLeftPaint);
-            canvas.drawLine(mGraphLeft, mGraphTop + graphHeight / 2.0f, mGraphRight, mGraphTop + graphHeight / 2.0f, mGreyLeftPaint);
-            canvas.drawLine(mGraphLeft, mGraphBottom - graphHeight / 4.0f, mGraphRight, mGraphBottom - graphHeight / 4.0f, mGreyLeftPaint);
             // Draw labels.
-            canvas.drawText("+" + (int)(scale / 2.0f) + units, mGraphLeft, mGraphTop + graphHeight / 4.0f, mGreyLeftPaint);
-            canvas.drawText("+0" + units, mGraphLeft, mGraphTop + graphHeight / 2.0f, mGreyLeftPaint);
-            canvas.drawText("-" + (int)(scale / 2.0f) + units, mGraphLeft, mGraphBottom - graphHeight / 4.0f, mGreyLeftPaint);
-            // Draw y-axis parallels.
-            float graphWidth = mGraphRight - mGraphLeft;
-            for (int interval = 1; interval < 6; interval++) {
-                canvas.drawLine(mGraphLeft + graphWidth * interval / 6.0f, mGraphTop, mGraphLeft + graphWidth * interval / 6.0f, mGraphBottom, mGreyLeftPaint);
-            }
-            // Draw labels.
-            int interval = mVSI.getDisplayGraphSeconds();
-            canvas.drawText("<-" + interval + "s", mGraphLeft, mGraphBottom, mGreyLeftPaint);
-            canvas.drawText("-" + (interval / 2) + "s", mGraphLeft + graphWidth / 2, mGraphBottom, mGreyMidPaint);
-            canvas.drawText("Now>", mGraphRight, mGraphBottom, mGreyRightPaint);
-            // Calculate the x- and y-coordinate of the first graph position.
-            float x0 = mGraphLeft;
-            float y0 = mGraphTop + (1 - history[0] / scale) * graphHeight / 2.0f;
-            // For each of the next coordinates,
-            for (int index = 1; index < historySize; index++) {
-                // Calculate the x- and y-coordinate of the graph position.
-                float x1 = mGraphLeft + graphWidth * ((float)index / (historySize - 1));
-                float y1 = mGraphTop + (1 - history[index] / scale) * graphHeight / 2.0f;
-                // Draw a line between the two coordinates.
-                canvas.drawLine(x0, y0, x1, y1, mGraphPaint);
-                // Retain memory of the last coordinate.
-                x0 = x1;
-                y0 = y1;
-            }
+            drawText(canvas, mText.clear().append('+').append((int) (scale / 2.0f)).append(units),
+                    mGraphLeft, mGraphTop + graphHeight / 4.0f, mGreyLeftPaint);
+            drawText(canvas, mText.clear().append("+0").append(units),
+                    mGraphLeft, mGraphTop + graphHeight / 2.0f, mGreyLeftPaint);
+            drawText(canvas, mText.clear().append('-').append((int) (scale / 2.0f)).append(units),
+                    mGraphLeft, mGraphBottom - graphHeight / 4.0f, mGreyLeftPaint);
+            // Draw the history in one call, with the newest sample at the right.
+            int length = mGraphLines.build(history, history.capacity(), mGraphLeft, mGraphRight - mGraphLeft,
+                    mGraphTop + graphHeight / 2.0f, -graphHeight / 2.0f / scale);
+            canvas.drawLines(mGraphLines.getLines(), 0, length, mGraphPaint);
         }
     }
 }
@@ -1,39 +1,103 @@
 package uk.co.phabvionics.pilotaltimeter;
 
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
-public class VerticalSpeedIndicator
+public class VerticalSpeedIndicator implements PressureResampler.Consumer, AccelerationConsumer
 {
     private static final VerticalSpeedIndicator INSTANCE = new VerticalSpeedIndicator();
+    /**
+     * The defaults of setDifferenceSmoothing: the pressure difference over one second, with the
+     * pressure filtered with a time constant of one second and the speed with one of two.
+     */
+    public static final float DEFAULT_DELTA_SECONDS = 1.0f;
+    public static final float DEFAULT_PRESSURE_TIME_CONSTANT = 1.0f;
+    public static final float DEFAULT_OUTPUT_TIME_CONSTANT = 2.0f;
 
     private float mPressureMeasurement; // Pressure measurement is defined in hectoPascals (equivalent to millibars).
-    private long mTimestamp;
+    private long mTimestamp; // Time at the end of the last grid step.
+    private long mStartTimestamp; // Time of the first sample.
     private long mSampleTimestamp;
-    private float mFilteredPressureHistory[];
-    private static final long TIME_STEP = 10000000; // 10ms
+    private HistoryBuffer mFilteredPressureHistory;
+    private static final long TIME_STEP = PressureResampler.TIME_STEP;
     private IIRLowPassFilter mFilter;
-    private static final int PRESSURE_HISTORY = 100;
-    private static final int DELTA_SAMPLES = 100;
+    private int mDeltaSamples; // Steps over which the pressure difference is taken.
+    private static final int STEPS_PER_SECOND = 100;
     private IIRLowPassFilter mOutputFilter;
+    private LeastSquaresSlope mSlope; // null when using the filtered one-second difference
+    private JointPressureEstimator mKalman; // null unless reading speed from the joint Kalman estimate
+    private InertialPressureFilter mInertial; // null unless fusing vertical acceleration
+    /**
+     * How quickly vertical speed is expected to change while fusing acceleration but none is
+     * being received; see KalmanPressureFilter.
+     */
+    private static final float INERTIAL_RANDOM_WALK_NOISE = 0.2f;
+    private double mAccelerationSum; // Of the accelerations received since the latest sample.
+    private int mAccelerationCount;
+    private float mAcceleration = Float.NaN; // The mean acceleration applied at the latest sample.
     private float mVerticalSpeed;
     private boolean mDisplayInFeet;
     private int mDisplayGraphSeconds;
-    private float[] mHistory;
-    private int mHistorySize;
+    private final TieredHistory mFlightHistory = TieredHistory.createFlightHistory();
+    private int mGraphTier; // The tier of mFlightHistory graphed.
+    private int mGraphPoints; // The number of points of the tier across the graph.
+    private final SlidingMaximum mHistoryMaximum = new SlidingMaximum(1); // The largest speed graphed.
     private long mHistoryEndTime;
-    private static final long HISTORY_TIME_STEP = 500000000; // 500ms
-    private boolean mStopped;
+    private static final long HISTORY_TIME_STEP = TieredHistory.FLIGHT_HISTORY_TIME_STEP;
+    private final StalenessMonitor mStaleness;
+    private final TripleBuffer<Snapshot> mSnapshots =
+            new TripleBuffer<Snapshot>(new Snapshot(), new Snapshot(), new Snapshot());
+
+    /**
+     * A consistent copy of the state that the display shows, published after each sample so
+     * that another thread can read it while the next sample is processed.
+     */
+    public static class Snapshot {
+        private boolean mIndicationValid;
+        private float mSpeed;
+        private float mHistoryMaximum;
+        private int mGraphTier;
+        private final HistoryBuffer mHistory = new HistoryBuffer(1);
+
+        public boolean isIndicationValid() {
+            return mIndicationValid;
+        }
+
+        /**
+         * @return The vertical speed in ft/min, or 0 if the indication is not valid.
+         */
+        public float getSpeed() {
+            return mSpeed;
+        }
+
+        /**
+         * @return The largest magnitude of vertical speed in getHistory(), in ft/min.
+         */
+        public float getHistoryMaximum() {
+            return mHistoryMaximum;
+        }
+
+        /**
+         * @return The points of the vertical speed history that span the display graph period,
+         * oldest first; its capacity covers the whole period but it may not yet be full.
+         */
+        public HistoryBuffer getHistory() {
+            return mHistory;
+        }
+    }
 
     public VerticalSpeedIndicator() {
-        mFilteredPressureHistory = new float[PRESSURE_HISTORY + 1];
-        //mFilter = new IIRLowPassFilter(0.980198673307f); // time constant = 50 samples
-        //mFilter = new IIRLowPassFilter(0.960789439152f); // time constant = 25 samples
-        mFilter = new IIRLowPassFilter(100); // time constant = 100 samples
-        //mFilter = new IIRLowPassFilter(0.01f); // time constant = 0 samples
-        //mFilter = new IIRLowPassFilter(0.951229424501f); // time constant = 20 samples
-        mOutputFilter = new IIRLowPassFilter(200); // time constant = 200 samples
+        this(StalenessMonitor.getInstance());
+    }
+
+    /**
+     * Create an indicator independent of the one the app displays, such as for replaying
+     * several configurations side by side.
+     * @param staleness Tracks whether samples are still arriving for this indicator.
+     */
+    public VerticalSpeedIndicator(StalenessMonitor staleness) {
+        mStaleness = staleness;
+        mFilteredPressureHistory = new HistoryBuffer(1);
+        mFilter = new IIRLowPassFilter(1.0f);
+        mOutputFilter = new IIRLowPassFilter(1.0f);
+        setDifferenceSmoothing(DEFAULT_DELTA_SECONDS, DEFAULT_PRESSURE_TIME_CONSTANT, DEFAULT_OUTPUT_TIME_CONSTANT);
         setDisplayGraphSeconds(30);
     }
 
@@ -47,93 +111,430 @@ public class VerticalSpeedIndicator
 
     public void setDisplayGraphSeconds(int displaySeconds) {
         mDisplayGraphSeconds = displaySeconds;
-        mHistorySize = displaySeconds * 2 + 1;
-        mHistory = new float[mHistorySize];
+        long points = displaySeconds * 1000000000L / HISTORY_TIME_STEP;
+        mGraphTier = mFlightHistory.getTierCovering(points);
+        mGraphPoints = (int) Math.min(points / mFlightHistory.getRatio(mGraphTier) + 1,
+                mFlightHistory.getMean(mGraphTier).capacity());
+        mHistoryMaximum.resize(getHistory(), mGraphPoints);
     }
 
-    public boolean isIndicationValid() {
-        // If indication is valid, the oldest mFilteredPressureHistory value will be non-zero.
-        return mFilteredPressureHistory[PRESSURE_HISTORY] != 0.0f;
-    }
-
-    private void filterPressure(long timestamp) {
-        // Run the IIR filter on the pressure to bring it up to the given timestamp.
-        while (mTimestamp + TIME_STEP < timestamp) {
-            float pressure = mPressureMeasurement;
-            pressure = mFilter.Filter(pressure);
-            System.arraycopy(mFilteredPressureHistory, 0, mFilteredPressureHistory, 1, PRESSURE_HISTORY);
-            mFilteredPressureHistory[0] = pressure;
-            mTimestamp += TIME_STEP;
-            if (isIndicationValid()) {
-                mVerticalSpeed = mOutputFilter.Filter(calcVerticalSpeed());
-                if (mTimestamp >= mHistoryEndTime + HISTORY_TIME_STEP) {
-                    mHistoryEndTime = mTimestamp;
-                    System.arraycopy(mHistory, 1, mHistory, 0, mHistorySize - 1);
-                    mHistory[mHistorySize - 1] = mVerticalSpeed;
-                }
+    /**
+     * Tune the estimate of vertical speed from the difference in filtered pressure, which is used
+     * when setSpeedWindowSeconds is given 0. The indication carries on from its current value.
+     * @param deltaSeconds The time over which the pressure difference is taken, at least one step.
+     * @param pressureTimeConstant The time constant in seconds of the filter on the pressure
+     *                             ahead of the difference, or 0 for none.
+     * @param outputTimeConstant The time constant in seconds of the filter on the speed, or 0
+     *                           for none.
+     */
+    public void setDifferenceSmoothing(float deltaSeconds, float pressureTimeConstant, float outputTimeConstant) {
+        mDeltaSamples = Math.max(1, Math.round(deltaSeconds * STEPS_PER_SECOND));
+        mFilteredPressureHistory.resize(mDeltaSamples + 1);
+        mFilter.SetTimeConstant(pressureTimeConstant * STEPS_PER_SECOND);
+        mOutputFilter.SetTimeConstant(outputTimeConstant * STEPS_PER_SECOND);
+    }
+
+    /**
+     * Choose how vertical speed is estimated.
+     * @param seconds 0 to take the difference in filtered pressure and smooth it (see
+     *                setDifferenceSmoothing), otherwise the length of the window over which to
+     *                fit the rate of change of pressure by least squares.
+     */
+    public void setSpeedWindowSeconds(float seconds) {
+        if (seconds <= 0) {
+            mSlope = null;
+        } else {
+            int samples = Math.round(seconds * STEPS_PER_SECOND);
+            if (mSlope == null) {
+                mSlope = new LeastSquaresSlope(samples);
+            } else if (mSlope.getWindow() != samples) {
+                mSlope.setWindow(samples);
+            }
+        }
+    }
+
+    /**
+     * Show the rate of the joint Kalman estimate of pressure and its rate of change, in place of
+     * the method chosen by setSpeedWindowSeconds. The altimeter reads the same estimate.
+     * @param estimator The estimator of the resampler feeding the VSI, which must be enabled, or
+     *                  null to stop using the Kalman estimate.
+     */
+    public void setKalmanFilter(JointPressureEstimator estimator) {
+        boolean stepping = isSteppingNeeded();
+        mKalman = estimator;
+        restartGrid(stepping);
+    }
+
+    /**
+     * Estimate vertical speed by fusing vertical acceleration with pressure, in place of the
+     * other methods, so that the indication responds within a fraction of a second of a change.
+     * Acceleration is received through onVerticalAcceleration; without it, speed is estimated
+     * from pressure alone as by the Kalman filter.
+     * @param fuse true to fuse acceleration.
+     */
+    public void setAccelerationFusion(boolean fuse) {
+        boolean stepping = isSteppingNeeded();
+        if (!fuse) {
+            mInertial = null;
+        } else if (mInertial == null) {
+            mInertial = new InertialPressureFilter(InertialPressureFilter.ACCELERATION_NOISE,
+                    InertialPressureFilter.BIAS_NOISE, INERTIAL_RANDOM_WALK_NOISE,
+                    KalmanPressureFilter.SENSOR_NOISE);
+            if (mStartTimestamp != 0) {
+                mInertial.Reset(mPressureMeasurement, mSampleTimestamp);
             }
         }
+        restartGrid(stepping);
+    }
+
+    /**
+     * Start the grid filters again from the latest sample if they have just become needed, as
+     * they were not stepped while the speed was read from the Kalman or inertial filter. The
+     * indication then settles again as after the first sample.
+     * @param wasStepping Whether the grid was needed before the change of method.
+     */
+    private void restartGrid(boolean wasStepping) {
+        if (wasStepping || !isSteppingNeeded() || mStartTimestamp == 0) {
+            return;
+        }
+        mFilter.Reset(mPressureMeasurement, mSampleTimestamp);
+        mOutputFilter.Reset(mVerticalSpeed, mSampleTimestamp);
+        if (mSlope != null) {
+            mSlope.clear();
+        }
+        mFilteredPressureHistory.clear();
+    }
+
+    public boolean isAccelerationFusion() {
+        return mInertial != null;
+    }
+
+    /**
+     * Accelerations are averaged until the next sample, when the mean is applied over the time
+     * since the previous sample. Replaying a recording that holds just those means therefore
+     * gives exactly the indication seen in flight.
+     */
+    @Override
+    public void onVerticalAcceleration(float acceleration, long timestamp) {
+        mAccelerationSum += acceleration;
+        mAccelerationCount++;
     }
 
     /**
-     * The time before it is considered that the altimeter is no longer receiving data in ms.
+     * @return The mean vertical acceleration applied at the latest sample in m/s^2 upwards, or
+     * NaN if none was received since the sample before.
      */
-    private static final long STOPPED_RECEIVING_DATA_TIME = 1000;
+    public float getAcceleration() {
+        return mAcceleration;
+    }
+
+    public boolean isIndicationValid() {
+        if (isSteppingNeeded()) {
+            // If indication is valid, mFilteredPressureHistory will hold the samples to take the difference over.
+            return mFilteredPressureHistory.isFull();
+        }
+        // Valid from the first sample after the grid would have filled the pressure history.
+        return mStartTimestamp != 0 && mSampleTimestamp - mStartTimestamp > (mDeltaSamples + 1) * TIME_STEP;
+    }
+
+    /**
+     * @return false while the speed is read from the Kalman or inertial filter, which are
+     * updated at each sample's own time, so that the resampler need not step through the grid
+     * for the VSI.
+     */
+    @Override
+    public boolean isSteppingNeeded() {
+        return mKalman == null && mInertial == null;
+    }
+
+    private static final long HISTORY_STEPS = HISTORY_TIME_STEP / TIME_STEP;
+
+    /**
+     * @return The number of steps after which the pressure history, and the least-squares window
+     * if in use, hold only samples from within a gap.
+     */
+    private int settlingSteps() {
+        return mSlope == null ? mDeltaSamples + 1 : Math.max(mDeltaSamples + 1, mSlope.getWindow());
+    }
+
+    @Override
+    public void onStep(float pressure, long timestamp) {
+        mPressureMeasurement = pressure;
+        // Steps are not passed on while not needed, so carry on from the resampler's grid.
+        mTimestamp = timestamp - TIME_STEP;
+        step();
+    }
 
-    public void setPressure(float pressure, long timestamp) {
-        if (mTimestamp == 0) {
+    @Override
+    public void onGap(float pressure, long steps, long timestamp) {
+        mPressureMeasurement = pressure;
+        mTimestamp = timestamp - steps * TIME_STEP;
+        // Gaps much longer than it takes to settle are caught up in closed form rather than step by step.
+        if (steps > 2 * settlingSteps()) {
+            catchUp(steps);
+            return;
+        }
+        for (long index = 0; index < steps; index++) {
+            step();
+        }
+    }
+
+    @Override
+    public void onSample(float pressure, long timestamp) {
+        if (mStartTimestamp == 0) {
+            mStartTimestamp = timestamp;
             mTimestamp = timestamp;
         }
         mPressureMeasurement = pressure;
+        boolean stepping = isSteppingNeeded();
+        if (!stepping) {
+            addHistoryBefore(timestamp);
+        }
         mSampleTimestamp = timestamp;
-        filterPressure(timestamp);
-        mStopped = false;
-        if (mIndicateStoppedThread != null) mIndicateStoppedThread.cancel(true);
-        mIndicateStoppedThread = mExecutor.schedule(mIndicateStopped, STOPPED_RECEIVING_DATA_TIME, TimeUnit.MILLISECONDS);
+        mAcceleration = mAccelerationCount > 0 ? (float) (mAccelerationSum / mAccelerationCount) : Float.NaN;
+        mAccelerationSum = 0;
+        mAccelerationCount = 0;
+        if (mInertial != null) {
+            mInertial.Filter(pressure, mAcceleration, timestamp);
+            if (isIndicationValid()) {
+                mVerticalSpeed = -mInertial.GetRate() * (27.3104136394385f * 60.0f);
+            }
+        } else if (mKalman != null) {
+            // The resampler has already updated the estimate with the sample, at its own time
+            // rather than on the grid.
+            if (isIndicationValid()) {
+                // Convert hPa/s to feet per minute; falling pressure means climbing.
+                mVerticalSpeed = -mKalman.GetRate() * (27.3104136394385f * 60.0f);
+            }
+        }
+        if (!stepping) {
+            addHistoryAt(timestamp);
+        }
+        publishSnapshot();
     }
 
     /**
-     * The Runnable that indicates that data is no longer being received.
+     * Add the history points falling due after the sample before and before a sample, while the
+     * grid is not stepped. They take the speed held since the sample before, as on the grid.
      */
-    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
-    private final IndicateStopped mIndicateStopped = new IndicateStopped();
-    private ScheduledFuture<?> mIndicateStoppedThread;
+    private void addHistoryBefore(long timestamp) {
+        if (mHistoryEndTime == 0 || !isIndicationValid()) {
+            return;
+        }
+        long points = (timestamp - 1 - mHistoryEndTime) / HISTORY_TIME_STEP;
+        if (points <= 0) {
+            return;
+        }
+        long point = Math.max(0, points - mFlightHistory.getMean(0).capacity());
+        if (point > 0) {
+            // Points older than the finest tier holds take the same value.
+            addHistory(mVerticalSpeed, point);
+        }
+        for (; point < points; point++) {
+            addHistory(mVerticalSpeed);
+        }
+        mHistoryEndTime += points * HISTORY_TIME_STEP;
+    }
+
+    /**
+     * Add the history point falling due at a sample, or the first once the indication is valid,
+     * while the grid is not stepped.
+     */
+    private void addHistoryAt(long timestamp) {
+        if (!isIndicationValid()) {
+            return;
+        }
+        if (mHistoryEndTime == 0) {
+            mHistoryEndTime = timestamp;
+        } else if (timestamp >= mHistoryEndTime + HISTORY_TIME_STEP) {
+            mHistoryEndTime += HISTORY_TIME_STEP;
+        } else {
+            return;
+        }
+        addHistory(mVerticalSpeed);
+    }
+
+    private void step() {
+        float pressure = mPressureMeasurement;
+        if (mSlope != null) {
+            mSlope.add(pressure);
+        }
+        pressure = mFilter.Filter(pressure);
+        mFilteredPressureHistory.add(pressure);
+        mTimestamp += TIME_STEP;
+        if (isIndicationValid()) {
+            if (mSlope != null) {
+                mVerticalSpeed = calcLeastSquaresSpeed();
+            } else {
+                mVerticalSpeed = mOutputFilter.Filter(calcVerticalSpeed());
+            }
+            if (mTimestamp >= mHistoryEndTime + HISTORY_TIME_STEP) {
+                mHistoryEndTime = mTimestamp;
+                addHistory(mVerticalSpeed);
+            }
+        }
+    }
+
+    /**
+     * Advance the filters and the histories over a gap in the samples.
+     * The pressure is held constant over the gap, so once the pressure history holds only
+     * samples from within the gap, the filtered pressure decays geometrically towards it and
+     * so does the unsmoothed vertical speed. Both filters can then be advanced in closed form,
+     * and only the history points that will still be retained at the end are calculated.
+     * Once the least-squares window holds only samples from within the gap, its slope is zero.
+     * @param steps The number of TIME_STEP steps to advance.
+     */
+    private void catchUp(long steps) {
+        boolean settlesToZero = mSlope != null;
+        // Step until the pressure history holds only samples from within the gap.
+        int settlingSteps = settlingSteps();
+        for (int index = 0; index < settlingSteps; index++) {
+            step();
+        }
+        long remaining = steps - settlingSteps;
+        float pressure = mPressureMeasurement;
+        double alpha = mFilter.GetAlpha();
+        // The filtered pressure j steps on is pressure + excess * alpha^j.
+        double excess = mFilteredPressureHistory.getRecent(0) - pressure;
+        // The unsmoothed vertical speed j steps on is gain * alpha^j. Without the pressure filter
+        // there is no excess to decay.
+        double gain = alpha == 0 ? 0 : excess * (Math.pow(alpha, -mDeltaSamples) - 1)
+                * 27.3104136394385 / ((double) mDeltaSamples / STEPS_PER_SECOND) * 60.0;
+
+        long start = mTimestamp;
+        // Find the first step at which a history point falls due.
+        long firstStep = Math.max(1, (mHistoryEndTime + HISTORY_TIME_STEP - start + TIME_STEP - 1) / TIME_STEP);
+        if (firstStep <= remaining) {
+            long points = (remaining - firstStep) / HISTORY_STEPS + 1;
+            long point = Math.max(0, points - mFlightHistory.getMean(0).capacity());
+            if (point > 0) {
+                // Points older than the finest tier holds take the value of the first it keeps.
+                addHistory(settlesToZero ? 0.0f : mOutputFilter.PeekGeometric(gain, alpha, firstStep + point * HISTORY_STEPS),
+                        point);
+            }
+            for (; point < points; point++) {
+                if (settlesToZero) {
+                    addHistory(0.0f);
+                } else {
+                    addHistory(mOutputFilter.PeekGeometric(gain, alpha, firstStep + point * HISTORY_STEPS));
+                }
+            }
+            mHistoryEndTime = start + (firstStep + (points - 1) * HISTORY_STEPS) * TIME_STEP;
+        }
+        if (settlesToZero) {
+            mVerticalSpeed = 0.0f;
+        } else {
+            mVerticalSpeed = mOutputFilter.AdvanceGeometric(gain, alpha, remaining);
+        }
+
+        // Refill the pressure history with the samples at the end of the gap.
+        long refill = Math.min(remaining, mDeltaSamples + 1);
+        double decay = excess * Math.pow(alpha, remaining - refill + 1);
+        for (long index = 0; index < refill; index++) {
+            mFilteredPressureHistory.add((float) (pressure + decay));
+            decay *= alpha;
+        }
+        mFilter.Advance(pressure, remaining);
+        mTimestamp = start + remaining * TIME_STEP;
+    }
 
     public float getSpeed() {
-        return calcVerticalSpeed();
+        if (!isIndicationValid()) {
+            return 0.0f;
+        }
+        return mSlope != null || mKalman != null || mInertial != null ? mVerticalSpeed : calcVerticalSpeed();
     }
 
+    /**
+     * Get the latest published state, without waiting for the thread processing samples.
+     * Only to be called on one thread, normally the UI thread.
+     * @return The snapshot, which stays unchanged until the next call.
+     */
+    public Snapshot getSnapshot() {
+        return mSnapshots.getFront();
+    }
+
+    private void publishSnapshot() {
+        Snapshot snapshot = mSnapshots.getBack();
+        snapshot.mIndicationValid = isIndicationValid();
+        snapshot.mSpeed = getSpeed();
+        snapshot.mHistoryMaximum = getHistoryMaximum();
+        // Only copy the history when it has changed since this snapshot was last filled.
+        HistoryBuffer history = getHistory();
+        if (snapshot.mHistory.getAddedCount() != history.getAddedCount() || snapshot.mGraphTier != mGraphTier
+                || snapshot.mHistory.capacity() != mGraphPoints) {
+            snapshot.mHistory.copyNewest(history, mGraphPoints);
+            snapshot.mGraphTier = mGraphTier;
+        }
+        mSnapshots.publish();
+    }
+
+    /**
+     * @return true if samples have stopped arriving. Unlike the altimeter, the VSI is not shown
+     * as stopped before the first sample has arrived.
+     */
     public boolean isStopped() {
-        return mStopped;
+        return mStaleness.isSampleReceived() && mStaleness.isStopped();
     }
 
+    /**
+     * @return The number of points of getHistory() that span the display graph period.
+     */
     public int getHistorySize() {
-        return mHistorySize;
+        return mGraphPoints;
     }
 
     /**
-     * Get historic values of vertical speed over the past five minutes.
-     * @return A 601-element array that contains vertical speed history ranging from
-     * t=minus 5 minutes to t=0 (i.e. now).
+     * Get historic values of vertical speed over the display graph period.
+     * @return A buffer of vertical speed history, oldest first, at the finest interval that
+     * covers the display graph period: the means over 500ms, 10s or 1 minute. Only the newest
+     * getHistorySize() points are graphed.
      */
-    public float[] getHistory() {
-        return mHistory;
+    public HistoryBuffer getHistory() {
+        return mFlightHistory.getMean(mGraphTier);
     }
 
-    class IndicateStopped implements Runnable
-    {
-        @Override
-        public void run()
-        {
-            mStopped = true;
+    /**
+     * @return The vertical speed history of the whole flight, at each of its resolutions.
+     */
+    public TieredHistory getFlightHistory() {
+        return mFlightHistory;
+    }
+
+    /**
+     * @return The largest magnitude of vertical speed graphed, in ft/min.
+     */
+    public float getHistoryMaximum() {
+        return mHistoryMaximum.getMaximum();
+    }
+
+    private void addHistory(float speed) {
+        HistoryBuffer graph = getHistory();
+        long added = graph.getAddedCount();
+        mFlightHistory.add(speed);
+        if (graph.getAddedCount() != added) {
+            mHistoryMaximum.add(graph.getRecent(0));
         }
     }
 
+    private void addHistory(float speed, long count) {
+        mFlightHistory.addRepeated(speed, count);
+        mHistoryMaximum.resize(getHistory(), mGraphPoints);
+    }
+
+    /**
+     * @return The vertical speed in ft/min from the least-squares rate of change of pressure.
+     */
+    private float calcLeastSquaresSpeed() {
+        // Convert hPa per step to feet per minute; falling pressure means climbing.
+        return -mSlope.getSlope() * (STEPS_PER_SECOND * 27.3104136394385f * 60.0f);
+    }
+
     private float calcVerticalSpeed() {
-        // Calculate the pressure delta over the last second.
-        float result = mFilteredPressureHistory[PRESSURE_HISTORY] - mFilteredPressureHistory[PRESSURE_HISTORY - DELTA_SAMPLES];
-        // Convert to the number of feet that have been traversed over the last second.
-        result *= 27.3104136394385f / (DELTA_SAMPLES / 100.0f);
+        // Calculate the pressure delta over the last mDeltaSamples steps.
+        float result = mFilteredPressureHistory.getRecent(mDeltaSamples) - mFilteredPressureHistory.getRecent(0);
+        // Convert to the number of feet that are traversed in a second.
+        result *= 27.3104136394385f / ((float) mDeltaSamples / STEPS_PER_SECOND);
         // Convert to the number of feet that would be traversed over 60 seconds.
         result *= 60.0f;
         return result;
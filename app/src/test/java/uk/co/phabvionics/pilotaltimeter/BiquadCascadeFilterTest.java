@@ -0,0 +1,160 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BiquadCascadeFilterTest {
+    private static final long TIME_STEP = PressureResampler.TIME_STEP;
+
+    /**
+     * @return The standard deviation of the output for white noise of standard deviation 1.
+     */
+    private static double noiseOut(BiquadCascadeFilter biquad, IIRLowPassFilter iir, boolean useBiquad) {
+        Random random = new Random(1);
+        double sumOfSquares = 0;
+        int count = 0;
+        for (int step = 0; step < 200000; step++) {
+            float sample = 1000.0f + (float) random.nextGaussian();
+            float output = useBiquad ? biquad.Filter(sample) : iir.Filter(sample);
+            if (step >= 10000) {
+                sumOfSquares += (output - 1000.0) * (output - 1000.0);
+                count++;
+            }
+        }
+        return Math.sqrt(sumOfSquares / count);
+    }
+
+    /**
+     * @return The lag in seconds behind a steady ramp, once settled.
+     */
+    private static double rampLag(BiquadCascadeFilter biquad, IIRLowPassFilter iir, boolean useBiquad) {
+        double rate = -0.1; // hPa/s
+        float output = 0;
+        double input = 0;
+        for (int step = 0; step < 10000; step++) {
+            input = 1000.0 + rate * step * TIME_STEP / 1e9;
+            output = useBiquad ? biquad.Filter((float) input) : iir.Filter((float) input);
+        }
+        return (output - input) / -rate;
+    }
+
+    @Test
+    public void SecondOrderShapesMatchNoiseAndLagOfFirstOrder()
+    {
+        IIRLowPassFilter iir = new IIRLowPassFilter(0.5f * 100);
+        double iirNoise = noiseOut(null, iir, false);
+        double iirLag = rampLag(null, new IIRLowPassFilter(0.5f * 100), false);
+        for (BiquadCascadeFilter.Shape shape : new BiquadCascadeFilter.Shape[] {
+                BiquadCascadeFilter.Shape.BUTTERWORTH, BiquadCascadeFilter.Shape.CRITICALLY_DAMPED}) {
+            assertEquals(iirNoise, noiseOut(new BiquadCascadeFilter(shape, 2.5f), null, true), iirNoise * 0.05);
+            assertEquals(iirLag, rampLag(new BiquadCascadeFilter(shape, 2.5f), null, true), iirLag * 0.05);
+        }
+        BiquadCascadeFilter fourth = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.BUTTERWORTH_FOURTH_ORDER, 2.5f);
+        assertEquals(iirNoise, noiseOut(fourth, null, true), iirNoise * 0.05);
+    }
+
+    @Test
+    public void RejectsFastDisturbancesBetterThanFirstOrder()
+    {
+        // A 2Hz disturbance, well above the cutoff of the 2.5s presets.
+        IIRLowPassFilter iir = new IIRLowPassFilter(0.5f * 100);
+        BiquadCascadeFilter butterworth = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.BUTTERWORTH, 2.5f);
+        BiquadCascadeFilter fourth = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.BUTTERWORTH_FOURTH_ORDER, 2.5f);
+        double iirPeak = 0;
+        double butterworthPeak = 0;
+        double fourthPeak = 0;
+        for (int step = 0; step < 3000; step++) {
+            float sample = 1000.0f + (float) Math.sin(2 * Math.PI * 2.0 * step / 100);
+            float iirOutput = iir.Filter(sample);
+            float butterworthOutput = butterworth.Filter(sample);
+            float fourthOutput = fourth.Filter(sample);
+            if (step >= 2000) {
+                iirPeak = Math.max(iirPeak, Math.abs(iirOutput - 1000.0));
+                butterworthPeak = Math.max(butterworthPeak, Math.abs(butterworthOutput - 1000.0));
+                fourthPeak = Math.max(fourthPeak, Math.abs(fourthOutput - 1000.0));
+            }
+        }
+        assertTrue(butterworthPeak < iirPeak / 3);
+        assertTrue(fourthPeak < butterworthPeak / 3);
+    }
+
+    @Test
+    public void CriticallyDampedDoesNotOvershootStep()
+    {
+        BiquadCascadeFilter filter = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.CRITICALLY_DAMPED, 1.0f);
+        filter.Filter(1000.0f);
+        float output = 0;
+        for (int step = 0; step < 1000; step++) {
+            output = filter.Filter(1010.0f);
+            assertTrue(output <= 1010.0f);
+        }
+        assertEquals(1010.0f, output, 1e-3f);
+    }
+
+    @Test
+    public void TimestampedSamplesMatchSteppingOnGrid()
+    {
+        BiquadCascadeFilter stepped = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.BUTTERWORTH, 1.0f);
+        BiquadCascadeFilter timed = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.BUTTERWORTH, 1.0f);
+        stepped.Filter(1000.0f);
+        timed.Filter(1000.0f, 0);
+        float expected = 0;
+        // Samples every 33ms are each held over the 10ms steps since the one before.
+        long time = 0;
+        for (int sample = 1; sample <= 100; sample++) {
+            long steps = (time + 33000000L) / TIME_STEP - time / TIME_STEP;
+            time += 33000000L;
+            float pressure = 1000.0f - sample * 0.01f;
+            for (long step = 0; step < steps; step++) {
+                expected = stepped.Filter(pressure);
+            }
+            float peek = timed.PeekAt(pressure, time);
+            assertEquals(expected, timed.Filter(pressure, time), 1e-4f);
+            assertEquals(expected, peek, 1e-4f);
+        }
+    }
+
+    @Test
+    public void GapsBeforeSettlingMatchSteppingOnGrid()
+    {
+        for (BiquadCascadeFilter.Shape shape : BiquadCascadeFilter.Shape.values()) {
+            BiquadCascadeFilter stepped = new BiquadCascadeFilter(shape, 10.0f);
+            BiquadCascadeFilter timed = new BiquadCascadeFilter(shape, 10.0f);
+            stepped.Filter(1000.0f);
+            timed.Filter(1000.0f, 0);
+            // Gaps from a fraction of a second to most of the settling time, with a different
+            // pressure held over each.
+            long time = 0;
+            float expected = 0;
+            for (long steps = 5; steps < 4000; steps = steps * 3 + 1) {
+                time += steps * TIME_STEP;
+                float pressure = 1000.0f - steps * 0.001f;
+                for (long step = 0; step < steps; step++) {
+                    expected = stepped.Filter(pressure);
+                }
+                float peek = timed.PeekAt(pressure, time);
+                assertEquals(expected, timed.Filter(pressure, time), 1e-4f);
+                assertEquals(expected, peek, 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    public void LongGapSettlesOnHeldSample()
+    {
+        BiquadCascadeFilter filter = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.BUTTERWORTH_FOURTH_ORDER, 10.0f);
+        filter.Filter(1000.0f, 0);
+        assertEquals(990.0f, filter.Filter(990.0f, 600000000000L), 0);
+    }
+
+    @Test
+    public void NoFilteringPassesSamples()
+    {
+        BiquadCascadeFilter filter = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.BUTTERWORTH, 0);
+        filter.Filter(1000.0f);
+        assertEquals(990.0f, filter.Filter(990.0f), 0);
+    }
+}
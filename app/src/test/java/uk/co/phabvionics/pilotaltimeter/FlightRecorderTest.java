@@ -0,0 +1,114 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class FlightRecorderTest {
+
+    private static ByteBuffer readSegment(File directory, String name, int segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(directory, FlightRecorder.segmentFileName(name, segment)), "r");
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void RecordsRollOverIntoNewSegments() throws IOException
+    {
+        File directory = File.createTempFile("flights", "");
+        assertTrue(directory.delete());
+        FlightRecorder recorder = new FlightRecorder(directory, "test", 2);
+        for (int record = 0; record < 5; record++) {
+            assertTrue(recorder.record(record * 1000L, 1000 - record, 1001 - record, record * 10, record * 0.5f));
+        }
+        recorder.close();
+        assertEquals(5, recorder.getTotalRecords());
+
+        ByteBuffer first = readSegment(directory, "test", 0);
+        assertEquals(FlightRecorder.MAGIC, first.getInt(0));
+        assertEquals(FlightRecorder.RECORD_SIZE, first.getInt(8));
+        assertEquals(2, first.getInt(FlightRecorder.COUNT_OFFSET));
+        int second = FlightRecorder.HEADER_SIZE + FlightRecorder.RECORD_SIZE;
+        assertEquals(1000L, first.getLong(second));
+        assertEquals(999, first.getFloat(second + 8), 0);
+        assertEquals(1000, first.getFloat(second + 12), 0);
+        assertEquals(10, first.getFloat(second + 16), 0);
+        assertEquals(0.5f, first.getFloat(second + 20), 0);
+
+        ByteBuffer last = readSegment(directory, "test", 2);
+        assertEquals(2, last.getInt(12));
+        assertEquals(1, last.getInt(FlightRecorder.COUNT_OFFSET));
+        assertEquals(4000L, last.getLong(FlightRecorder.HEADER_SIZE));
+    }
+
+    @Test
+    public void ReaderReturnsRecordsAcrossSegments() throws IOException
+    {
+        File directory = File.createTempFile("flights", "");
+        assertTrue(directory.delete());
+        FlightRecorder recorder = new FlightRecorder(directory, "test", 3);
+        for (int record = 0; record < 7; record++) {
+            recorder.record(record * 1000L, 1000 - record, 1001 - record, record * 10,
+                    record == 3 ? Float.NaN : record * 0.5f);
+        }
+        recorder.close();
+
+        FlightRecordingReader reader = FlightRecordingReader.open(new File(directory, FlightRecorder.segmentFileName("test", 1)));
+        for (int record = 0; record < 7; record++) {
+            assertTrue(reader.next());
+            assertEquals(record * 1000L, reader.getTimestamp());
+            assertEquals(1000 - record, reader.getPressure(), 0);
+            assertEquals(1001 - record, reader.getFilteredPressure(), 0);
+            assertEquals(record * 10, reader.getVerticalSpeed(), 0);
+            assertEquals(record == 3 ? Float.NaN : record * 0.5f, reader.getAcceleration(), 0);
+        }
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void ReaderReadsVersionOneRecordingsWithoutAcceleration() throws IOException
+    {
+        File directory = File.createTempFile("flights", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+        ByteBuffer segment = ByteBuffer.allocate(FlightRecorder.HEADER_SIZE + 2 * FlightRecorder.VERSION_1_RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(0, FlightRecorder.MAGIC);
+        segment.putInt(4, 1);
+        segment.putInt(8, FlightRecorder.VERSION_1_RECORD_SIZE);
+        segment.putInt(FlightRecorder.COUNT_OFFSET, 2);
+        for (int record = 0; record < 2; record++) {
+            int position = FlightRecorder.HEADER_SIZE + record * FlightRecorder.VERSION_1_RECORD_SIZE;
+            segment.putLong(position, record * 1000L);
+            segment.putFloat(position + 8, 1000 - record);
+            segment.putFloat(position + 12, 1001 - record);
+            segment.putFloat(position + 16, record * 10);
+        }
+        RandomAccessFile file = new RandomAccessFile(new File(directory, FlightRecorder.segmentFileName("old", 0)), "rw");
+        file.write(segment.array());
+        file.close();
+
+        FlightRecordingReader reader = new FlightRecordingReader(directory, "old");
+        for (int record = 0; record < 2; record++) {
+            assertTrue(reader.next());
+            assertEquals(record * 1000L, reader.getTimestamp());
+            assertEquals(1000 - record, reader.getPressure(), 0);
+            assertEquals(record * 10, reader.getVerticalSpeed(), 0);
+            assertTrue(Float.isNaN(reader.getAcceleration()));
+        }
+        assertFalse(reader.next());
+        reader.close();
+    }
+}
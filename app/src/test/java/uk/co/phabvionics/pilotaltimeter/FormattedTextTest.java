@@ -0,0 +1,37 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FormattedTextTest {
+
+    @Test
+    public void NumbersMatchStringFormat()
+    {
+        FormattedText text = new FormattedText();
+        float[] values = {0.0f, 1.5f, 2.5f, -1.5f, 999.995f, 1013.25f, 29.92126f, -0.004f, 123456.78f, 0.125f};
+        for (float value : values) {
+            for (int decimals = 0; decimals <= 2; decimals++) {
+                String expected = String.format("%." + decimals + "f", value);
+                if (expected.matches("-0(\\.0*)?")) {
+                    expected = expected.substring(1);
+                }
+                assertEquals(expected, text.clear().append(value, decimals).toString());
+            }
+        }
+        assertEquals("FL-12 dropped 9223372036854775807", text.clear().append("FL").append(-12L).append(' ')
+                .append("dropped ").append(Long.MAX_VALUE).toString());
+    }
+
+    @Test
+    public void GrowsToFit()
+    {
+        FormattedText text = new FormattedText();
+        for (int count = 0; count < 20; count++) {
+            text.append(1234567890L);
+        }
+        assertEquals(200, text.length());
+        assertEquals('0', text.getChars()[199]);
+    }
+}
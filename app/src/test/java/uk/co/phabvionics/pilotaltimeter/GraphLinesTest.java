@@ -0,0 +1,48 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GraphLinesTest {
+
+    @Test
+    public void ShortHistoryIsDrawnSampleBySample()
+    {
+        HistoryBuffer history = new HistoryBuffer(5);
+        history.add(1.0f);
+        history.add(2.0f);
+        history.add(3.0f);
+        GraphLines lines = new GraphLines();
+        // 3 samples at the right of a 100 pixel graph, y = 50 - 10 * sample.
+        int length = lines.build(history, 10.0f, 100.0f, 50.0f, -10.0f);
+        assertEquals(8, length);
+        float[] expected = {60.0f, 40.0f, 85.0f, 30.0f, 85.0f, 30.0f, 110.0f, 20.0f};
+        for (int index = 0; index < length; index++) {
+            assertEquals(expected[index], lines.getLines()[index], 1e-4);
+        }
+        history.clear();
+        history.add(1.0f);
+        assertEquals(0, lines.build(history, 10.0f, 100.0f, 50.0f, -10.0f));
+    }
+
+    @Test
+    public void LongHistoryKeepsPeaksWithinPixelWidth()
+    {
+        HistoryBuffer history = new HistoryBuffer(600);
+        for (int sample = 0; sample < 600; sample++) {
+            history.add(sample == 300 ? 100.0f : sample == 301 ? -100.0f : 0.0f);
+        }
+        GraphLines lines = new GraphLines();
+        int length = lines.build(history, 0.0f, 50.0f, 0.0f, 1.0f);
+        assertTrue(length <= 4 * (2 * 50 - 1));
+        float max = 0;
+        float min = 0;
+        for (int index = 1; index < length; index += 2) {
+            max = Math.max(max, lines.getLines()[index]);
+            min = Math.min(min, lines.getLines()[index]);
+        }
+        assertEquals(100.0f, max, 0);
+        assertEquals(-100.0f, min, 0);
+    }
+}
@@ -0,0 +1,46 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistoryBufferTest {
+
+    @Test
+    public void AddWrapsAndKeepsNewest()
+    {
+        HistoryBuffer history = new HistoryBuffer(3);
+        history.add(1);
+        history.add(2);
+        assertEquals(2, history.size());
+        assertFalse(history.isFull());
+        assertEquals(1, history.get(0), 0);
+        assertEquals(2, history.getRecent(0), 0);
+        history.add(3);
+        history.add(4);
+        assertTrue(history.isFull());
+        assertEquals(2, history.get(0), 0);
+        assertEquals(3, history.get(1), 0);
+        assertEquals(4, history.get(2), 0);
+        assertEquals(2, history.getRecent(2), 0);
+    }
+
+    @Test
+    public void ResizeKeepsNewestSamples()
+    {
+        HistoryBuffer history = new HistoryBuffer(4);
+        for (int sample = 1; sample <= 6; sample++) {
+            history.add(sample);
+        }
+        history.resize(2);
+        assertEquals(2, history.size());
+        assertEquals(5, history.get(0), 0);
+        assertEquals(6, history.get(1), 0);
+        history.resize(5);
+        assertEquals(2, history.size());
+        assertEquals(5, history.capacity());
+        history.add(7);
+        assertEquals(5, history.get(0), 0);
+        assertEquals(7, history.getRecent(0), 0);
+    }
+}
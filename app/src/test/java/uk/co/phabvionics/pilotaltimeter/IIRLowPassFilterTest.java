@@ -0,0 +1,61 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IIRLowPassFilterTest {
+
+    @Test
+    public void AdvanceMatchesRepeatedFilter()
+    {
+        IIRLowPassFilter stepped = new IIRLowPassFilter(20);
+        IIRLowPassFilter advanced = new IIRLowPassFilter(20);
+        stepped.Filter(1000);
+        advanced.Filter(1000);
+        float expected = 0;
+        for (int step = 0; step < 75; step++) {
+            expected = stepped.Filter(990);
+        }
+        assertEquals(expected, advanced.Peek(990, 75), 1e-3);
+        assertEquals(expected, advanced.Advance(990, 75), 1e-3);
+        assertEquals(stepped.Filter(990), advanced.Filter(990), 1e-3);
+    }
+
+    @Test
+    public void AdvanceGeometricMatchesRepeatedFilter()
+    {
+        IIRLowPassFilter stepped = new IIRLowPassFilter(200);
+        IIRLowPassFilter advanced = new IIRLowPassFilter(200);
+        stepped.Filter(500);
+        advanced.Filter(500);
+        double ratio = Math.exp(-1.0 / 100);
+        float expected = 0;
+        for (int step = 1; step <= 300; step++) {
+            expected = stepped.Filter((float) (800 * Math.pow(ratio, step)));
+        }
+        assertEquals(expected, advanced.AdvanceGeometric(800, ratio, 300), 1e-2);
+    }
+
+    @Test
+    public void FilterAtTimestampsMatchesStepping()
+    {
+        long step = PressureResampler.TIME_STEP;
+        IIRLowPassFilter stepped = new IIRLowPassFilter(50);
+        IIRLowPassFilter timed = new IIRLowPassFilter(50);
+        stepped.Filter(1000);
+        timed.Reset(1000, 0);
+        float expected = 0;
+        // 3 steps, then 40 steps (taken in closed form), then 1 step.
+        for (int index = 0; index < 3; index++) {
+            expected = stepped.Filter(995);
+        }
+        assertEquals(expected, timed.Filter(995, 3 * step + step / 2), 0);
+        assertEquals(expected, timed.PeekAt(990, 3 * step + step / 2), 0);
+        for (int index = 0; index < 40; index++) {
+            expected = stepped.Filter(990);
+        }
+        assertEquals(expected, timed.Filter(990, 43 * step), 1e-3);
+        assertEquals(stepped.Filter(985), timed.Filter(985, 44 * step + 1), 1e-3);
+    }
+}
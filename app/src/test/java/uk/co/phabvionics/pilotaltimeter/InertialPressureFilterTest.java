@@ -0,0 +1,85 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InertialPressureFilterTest {
+    private static final long INTERVAL = 33000000L; // 33ms
+
+    private static InertialPressureFilter create() {
+        return new InertialPressureFilter(InertialPressureFilter.ACCELERATION_NOISE,
+                InertialPressureFilter.BIAS_NOISE, 0.2, 0.03);
+    }
+
+    @Test
+    public void FollowsPullUpFasterThanPressureAlone()
+    {
+        InertialPressureFilter fused = create();
+        KalmanPressureFilter pressureOnly = new KalmanPressureFilter(0.2, 0.03);
+        long time = 0;
+        // A minute of level flight.
+        for (int sample = 0; sample < 1800; sample++) {
+            time += INTERVAL;
+            fused.Filter(1000.0f, 0.0f, time);
+            pressureOnly.Filter(1000.0f, time);
+        }
+        // Pull up at 2m/s^2 for 0.33s, by which time the climb is 0.66m/s.
+        double height = 0;
+        double speed = 0;
+        for (int sample = 0; sample < 10; sample++) {
+            time += INTERVAL;
+            height += (speed + 2.0 * 0.033 / 2) * 0.033;
+            speed += 2.0 * 0.033;
+            float pressure = (float) (1000.0 - height / InertialPressureFilter.METRES_PER_HPA);
+            fused.Filter(pressure, 2.0f, time);
+            pressureOnly.Filter(pressure, time);
+        }
+        double rate = -speed / InertialPressureFilter.METRES_PER_HPA;
+        assertEquals(rate, fused.GetRate(), Math.abs(rate) * 0.1);
+        assertTrue(Math.abs(pressureOnly.GetRate() - rate) > Math.abs(rate) * 0.5);
+    }
+
+    @Test
+    public void EstimatesAccelerometerBias()
+    {
+        InertialPressureFilter filter = create();
+        long time = 0;
+        // Level, with the accelerometer reading 0.2m/s^2 too high.
+        for (int sample = 0; sample < 3600; sample++) {
+            time += INTERVAL;
+            filter.Filter(1000.0f, 0.2f, time);
+        }
+        assertEquals(0.2f, filter.GetAccelerationBias(), 0.02f);
+        assertEquals(0, filter.GetRate(), 1e-3f);
+    }
+
+    @Test
+    public void TracksRampWithoutAcceleration()
+    {
+        InertialPressureFilter filter = create();
+        long time = 0;
+        for (int sample = 0; sample < 2000; sample++) {
+            time += INTERVAL;
+            filter.Filter((float) (1000.0 - 0.3 * time / 1e9), Float.NaN, time);
+        }
+        assertEquals(-0.3f, filter.GetRate(), 1e-3f);
+        assertEquals(1000.0 - 0.3 * time / 1e9, filter.GetPressure(), 1e-3);
+    }
+
+    @Test
+    public void LongGapStartsNewEstimateKeepingBias()
+    {
+        InertialPressureFilter filter = create();
+        long time = 0;
+        for (int sample = 0; sample < 3600; sample++) {
+            time += INTERVAL;
+            filter.Filter(1000.0f - sample * 0.001f, 0.2f, time);
+        }
+        float bias = filter.GetAccelerationBias();
+        filter.Filter(900.0f, 0.2f, time + 5000000000L);
+        assertEquals(900.0f, filter.GetPressure(), 0);
+        assertEquals(0, filter.GetRate(), 0);
+        assertEquals(bias, filter.GetAccelerationBias(), 0);
+    }
+}
@@ -0,0 +1,90 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JointPressureEstimatorTest {
+
+    @Test
+    public void DisabledEstimatorIgnoresSamples()
+    {
+        JointPressureEstimator estimator = new JointPressureEstimator();
+        assertFalse(estimator.IsEnabled());
+        estimator.onSample(1000.0f, 1000000000L);
+        assertEquals(0, estimator.GetPressure(), 0);
+        estimator.SetAccelerationNoise(0.1f);
+        assertTrue(estimator.IsEnabled());
+        estimator.onSample(990.0f, 2000000000L);
+        assertEquals(990.0f, estimator.GetPressure(), 0);
+    }
+
+    @Test
+    public void PeekAtMatchesFilterBeforeTheSample()
+    {
+        JointPressureEstimator estimator = new JointPressureEstimator();
+        estimator.SetAccelerationNoise(0.1f);
+        KalmanPressureFilter filter = new KalmanPressureFilter(0.1, KalmanPressureFilter.SENSOR_NOISE);
+        long time = 1000000000L;
+        for (int sample = 0; sample < 200; sample++) {
+            time += 40000000L;
+            float pressure = 1000.0f - 0.001f * sample;
+            // What a filter of the altimeter's own would give between the last sample and this one.
+            float expected = filter.PeekAt(pressure, time - 15000000L);
+            filter.Filter(pressure, time);
+            estimator.onSample(pressure, time);
+            assertEquals(expected, estimator.PeekAt(pressure, time - 15000000L), 0);
+            assertEquals(filter.GetPressure(), estimator.GetPressure(), 0);
+        }
+    }
+
+    @Test
+    public void InstrumentsShowTheSameEstimate()
+    {
+        StalenessMonitor staleness = new StalenessMonitor();
+        PressureResampler resampler = new PressureResampler(staleness);
+        Altimeter altimeter = new Altimeter(staleness);
+        VerticalSpeedIndicator vsi = new VerticalSpeedIndicator(staleness);
+        resampler.addConsumer(altimeter);
+        resampler.addConsumer(vsi);
+        JointPressureEstimator estimator = resampler.getEstimator();
+        estimator.SetAccelerationNoise(0.05f);
+        altimeter.SetKalmanFilter(estimator);
+        vsi.setKalmanFilter(estimator);
+        // Ten seconds of a 600ft/min climb at 25Hz.
+        long time = 1000000000L;
+        for (int sample = 0; sample < 250; sample++) {
+            resampler.setPressure(1000.0f - 0.366f * sample * 0.04f, time);
+            time += 40000000L;
+        }
+        assertEquals(estimator.GetPressure(), altimeter.getFilteredPressure(), 0);
+        assertEquals(-estimator.GetRate() * 27.3104136394385f * 60.0f, vsi.getSpeed(), 0);
+        assertEquals(600, vsi.getSpeed(), 30);
+    }
+
+    @Test
+    public void KalmanVsiKeepsHistoryWithoutTheGrid()
+    {
+        StalenessMonitor staleness = new StalenessMonitor();
+        PressureResampler resampler = new PressureResampler(staleness);
+        VerticalSpeedIndicator classic = new VerticalSpeedIndicator(staleness);
+        VerticalSpeedIndicator kalman = new VerticalSpeedIndicator(staleness);
+        resampler.addConsumer(classic);
+        resampler.addConsumer(kalman);
+        resampler.getEstimator().SetAccelerationNoise(0.05f);
+        kalman.setKalmanFilter(resampler.getEstimator());
+        assertTrue(classic.isSteppingNeeded());
+        assertFalse(kalman.isSteppingNeeded());
+        // A minute at 25Hz with a ten second gap.
+        long time = 1000000000L;
+        for (int sample = 0; sample < 1500; sample++) {
+            resampler.setPressure(1000.0f, time);
+            time += sample == 700 ? 10000000000L : 40000000L;
+            assertEquals(classic.isIndicationValid(), kalman.isIndicationValid());
+        }
+        // The history points fall due at the same times as on the grid.
+        assertEquals(classic.getFlightHistory().getMean(0).getAddedCount(),
+                kalman.getFlightHistory().getMean(0).getAddedCount());
+        assertEquals(0, kalman.getSpeed(), 1);
+    }
+}
@@ -0,0 +1,50 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KalmanPressureFilterTest {
+
+    @Test
+    public void FirstMeasurementInitialises()
+    {
+        KalmanPressureFilter filter = new KalmanPressureFilter(0.1, 0.03);
+        assertFalse(filter.IsInitialised());
+        filter.Predict(0.01);
+        filter.Update(1000.0f);
+        assertTrue(filter.IsInitialised());
+        assertEquals(1000.0f, filter.GetPressure(), 0);
+        assertEquals(0, filter.GetRate(), 0);
+    }
+
+    @Test
+    public void TracksRampWithIrregularIntervals()
+    {
+        KalmanPressureFilter filter = new KalmanPressureFilter(0.1, 0.03);
+        double time = 0;
+        for (int sample = 0; sample < 2000; sample++) {
+            // Alternate between 20ms and 50ms intervals.
+            double interval = sample % 2 == 0 ? 0.02 : 0.05;
+            time += interval;
+            filter.Predict(interval);
+            filter.Update((float) (1000.0 - 0.3 * time));
+        }
+        assertEquals(-0.3f, filter.GetRate(), 1e-3f);
+        assertEquals(1000.0 - 0.3 * time, filter.GetPressure(), 1e-3);
+    }
+
+    @Test
+    public void ResetStartsNewEstimate()
+    {
+        KalmanPressureFilter filter = new KalmanPressureFilter(0.1, 0.03);
+        for (int sample = 0; sample < 100; sample++) {
+            filter.Predict(0.1);
+            filter.Update(1000.0f - sample);
+        }
+        filter.Reset();
+        filter.Update(900.0f);
+        assertEquals(900.0f, filter.GetPressure(), 0);
+        assertEquals(0, filter.GetRate(), 0);
+    }
+}
@@ -0,0 +1,70 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LeastSquaresSlopeTest {
+
+    @Test
+    public void RampGivesExactSlope()
+    {
+        LeastSquaresSlope slope = new LeastSquaresSlope(50);
+        assertEquals(0, slope.getSlope(), 0);
+        for (int index = 0; index < 1000; index++) {
+            slope.add(1013.25f - 0.01f * index);
+            if (index > 0) {
+                assertEquals(-0.01f, slope.getSlope(), 1e-5f);
+            }
+        }
+        assertEquals(50, slope.size());
+    }
+
+    @Test
+    public void SlidingWindowMatchesDirectFit()
+    {
+        LeastSquaresSlope slope = new LeastSquaresSlope(7);
+        float[] samples = new float[40];
+        for (int index = 0; index < samples.length; index++) {
+            samples[index] = 1000.0f + (float) Math.sin(index * 0.7) + 0.05f * index;
+            slope.add(samples[index]);
+            int first = Math.max(0, index - 6);
+            assertEquals(directSlope(samples, first, index + 1), slope.getSlope(), 1e-4f);
+        }
+    }
+
+    @Test
+    public void ConstantSamplesGiveZeroSlope()
+    {
+        LeastSquaresSlope slope = new LeastSquaresSlope(400);
+        for (int index = 0; index < 400; index++) {
+            slope.add(index < 200 ? 900.0f : 950.0f);
+        }
+        for (int index = 0; index < 400; index++) {
+            slope.add(950.0f);
+        }
+        assertEquals(0, slope.getSlope(), 0);
+    }
+
+    private static double directSlope(float[] samples, int start, int end)
+    {
+        int count = end - start;
+        if (count < 2) {
+            return 0;
+        }
+        double meanX = (count - 1) / 2.0;
+        double meanY = 0;
+        for (int index = start; index < end; index++) {
+            meanY += samples[index];
+        }
+        meanY /= count;
+        double covariance = 0;
+        double variance = 0;
+        for (int index = start; index < end; index++) {
+            double x = index - start - meanX;
+            covariance += x * (samples[index] - meanY);
+            variance += x * x;
+        }
+        return covariance / variance;
+    }
+}
@@ -0,0 +1,50 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PressureHeightConverterTest {
+
+    private static double exactHeight(double datum, double pressure) {
+        double pressureAlt = (1 - Math.pow(pressure / 1013.25, 1 / 5.2558797)) / 6.8755856e-6;
+        double pressureAltCorr = (1 - Math.pow(datum / 1013.25, 1 / 5.2558797)) / 6.8755856e-6;
+        return pressureAlt - pressureAltCorr;
+    }
+
+    @Test
+    public void TableIsWithinTenthOfAFootOfExactFormula()
+    {
+        PressureHeightConverter converter = new PressureHeightConverter();
+        float[] datums = { 950.0f, 1013.25f, 1050.0f };
+        for (float datum : datums) {
+            converter.setDatum(datum);
+            for (float pressure = 100.0f; pressure < 1100.0f; pressure += 0.0137f) {
+                assertEquals(exactHeight(datum, pressure), converter.toHeight(pressure), 0.1);
+            }
+        }
+    }
+
+    @Test
+    public void OutsideTableUsesExactFormula()
+    {
+        PressureHeightConverter converter = new PressureHeightConverter();
+        assertEquals(exactHeight(1013.25, 50.0), converter.toHeight(50.0f), 0.01);
+        assertEquals(exactHeight(1013.25, 1150.0), converter.toHeight(1150.0f), 0.01);
+    }
+
+    @Test
+    public void MetresAndBulkConversionMatchSingleConversion()
+    {
+        PressureHeightConverter converter = new PressureHeightConverter();
+        converter.setDatum(1000.0f);
+        converter.setDisplayInFeet(false);
+        float[] pressures = { 1000.0f, 900.0f, 800.5f, 1080.25f };
+        float[] heights = new float[pressures.length];
+        converter.toHeight(pressures, heights, pressures.length);
+        for (int index = 0; index < pressures.length; index++) {
+            assertEquals(exactHeight(1000.0, pressures[index]) * 0.3048, heights[index], 0.05);
+            assertEquals(converter.toHeight(pressures[index]), heights[index], 0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PressureResamplerTest {
+
+    private static class CountingConsumer implements PressureResampler.Consumer {
+        int steps;
+        long gapSteps;
+        int samples;
+        float lastPressure;
+        long lastTimestamp;
+        boolean steppingNeeded = true;
+
+        @Override
+        public boolean isSteppingNeeded() {
+            return steppingNeeded;
+        }
+
+        @Override
+        public void onStep(float pressure, long timestamp) {
+            steps++;
+            lastPressure = pressure;
+            lastTimestamp = timestamp;
+        }
+
+        @Override
+        public void onGap(float pressure, long steps, long timestamp) {
+            gapSteps += steps;
+            lastPressure = pressure;
+            lastTimestamp = timestamp;
+        }
+
+        @Override
+        public void onSample(float pressure, long timestamp) {
+            samples++;
+        }
+    }
+
+    @Test
+    public void StepsOnceForAllConsumers()
+    {
+        PressureResampler resampler = new PressureResampler();
+        CountingConsumer first = new CountingConsumer();
+        CountingConsumer second = new CountingConsumer();
+        resampler.addConsumer(first);
+        resampler.addConsumer(second);
+        long step = PressureResampler.TIME_STEP;
+        resampler.setPressure(1000.0f, 1000 * step);
+        resampler.setPressure(1001.0f, 1005 * step);
+        assertEquals(4, first.steps);
+        assertEquals(1001.0f, first.lastPressure, 0);
+        assertEquals(1004 * step, first.lastTimestamp);
+        assertEquals(2, first.samples);
+        assertEquals(first.steps, second.steps);
+        assertEquals(first.samples, second.samples);
+    }
+
+    @Test
+    public void LongGapsArePassedWhole()
+    {
+        PressureResampler resampler = new PressureResampler();
+        CountingConsumer consumer = new CountingConsumer();
+        resampler.addConsumer(consumer);
+        long step = PressureResampler.TIME_STEP;
+        resampler.setPressure(1000.0f, step);
+        resampler.setPressureBatch(new float[] { 999.0f, 998.0f }, new long[] { 502 * step, 503 * step }, 2);
+        assertEquals(500, consumer.gapSteps);
+        assertEquals(1, consumer.steps);
+        assertEquals(502 * step, consumer.lastTimestamp);
+        resampler.removeConsumer(consumer);
+        resampler.setPressure(997.0f, 600 * step);
+        assertEquals(3, consumer.samples);
+    }
+
+    @Test
+    public void SampleConsumersSkipTheGrid()
+    {
+        PressureResampler resampler = new PressureResampler();
+        final int[] samples = new int[1];
+        resampler.addConsumer(new PressureResampler.SampleConsumer() {
+            @Override
+            public void onSample(float pressure, long timestamp) {
+                samples[0]++;
+            }
+        });
+        long step = PressureResampler.TIME_STEP;
+        resampler.setPressure(1000.0f, step);
+        resampler.setPressure(1000.0f, 51 * step);
+        assertEquals(2, samples[0]);
+        assertEquals(50 * step, resampler.getTimestamp());
+    }
+
+    @Test
+    public void ConsumersNotNeedingTheGridArePassedOnlySamples()
+    {
+        PressureResampler resampler = new PressureResampler();
+        CountingConsumer idle = new CountingConsumer();
+        idle.steppingNeeded = false;
+        resampler.addConsumer(idle);
+        long step = PressureResampler.TIME_STEP;
+        resampler.setPressure(1000.0f, step);
+        resampler.setPressure(1000.0f, 6 * step);
+        resampler.setPressure(1000.0f, 507 * step);
+        assertEquals(0, idle.steps);
+        assertEquals(0, idle.gapSteps);
+        assertEquals(3, idle.samples);
+        assertEquals(506 * step, resampler.getTimestamp());
+        // Once it needs the grid again it is passed the steps from the latest sample on.
+        idle.steppingNeeded = true;
+        resampler.setPressure(1000.0f, 512 * step);
+        assertEquals(5, idle.steps);
+        assertEquals(511 * step, idle.lastTimestamp);
+    }
+
+    @Test
+    public void PreFilterSwitchedMidStreamCarriesOnFromLastSample()
+    {
+        PressureResampler resampler = new PressureResampler();
+        CountingConsumer consumer = new CountingConsumer();
+        resampler.addConsumer(consumer);
+        long step = PressureResampler.TIME_STEP;
+        // Samples every 33ms, so the latest falls between grid steps.
+        long time = 1000 * step;
+        for (int sample = 0; sample < 10; sample++) {
+            resampler.setPressure(1000.0f, time);
+            time += 33000000L;
+        }
+        long last = time - 33000000L;
+        assertTrue(resampler.getTimestamp() != last);
+        resampler.setPreFilter(new RCLowPassFilter(0.5f));
+        resampler.setPressure(990.0f, time);
+        // The filter is held at the last sample over the 33ms since it, not since the grid step.
+        RCLowPassFilter expected = new RCLowPassFilter(0.5f);
+        expected.Reset(1000.0f, last);
+        assertEquals(expected.Filter(990.0f, time), consumer.lastPressure, 0);
+        assertEquals(1000.0f - 10.0f * (1 - Math.exp(-0.033 / 0.5)), consumer.lastPressure, 1e-3);
+    }
+}
@@ -0,0 +1,32 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RCLowPassFilterTest {
+
+    @Test
+    public void FilterIsExactForAnyInterval()
+    {
+        RCLowPassFilter filter = new RCLowPassFilter(0.5f);
+        assertEquals(1000.0f, filter.Filter(1000.0f, 0), 0);
+        // One time constant takes the output 63.2% of the way to the new sample.
+        assertEquals(1000.0f - 10.0f * (1 - Math.exp(-1)), filter.Filter(990.0f, 500000000L), 1e-3);
+        RCLowPassFilter split = new RCLowPassFilter(0.5f);
+        split.Filter(1000.0f, 0);
+        split.Filter(990.0f, 123456789L);
+        assertEquals(filter.PeekAt(990.0f, 1000000000L), split.Filter(990.0f, 1000000000L), 1e-3);
+    }
+
+    @Test
+    public void ResetCarriesOnFromOutput()
+    {
+        RCLowPassFilter filter = new RCLowPassFilter(1.0f);
+        filter.Filter(900.0f, 0);
+        filter.Reset(1000.0f, 2000000000L);
+        assertEquals(1000.0f, filter.PeekAt(1000.0f, 3000000000L), 0);
+        filter.SetTimeConstant(0);
+        assertEquals(950.0f, filter.Filter(950.0f, 3000000000L), 0);
+    }
+}
@@ -0,0 +1,29 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleQueueTest {
+
+    @Test
+    public void OfferFailsWhenFullAndDrainPreservesOrder()
+    {
+        SampleQueue queue = new SampleQueue(4);
+        assertEquals(4, queue.capacity());
+        float[] values = new float[3];
+        long[] timestamps = new long[3];
+        for (int round = 0; round < 3; round++) {
+            for (int sample = 0; sample < 4; sample++) {
+                assertTrue(queue.offer(sample, sample * 10));
+            }
+            assertFalse(queue.offer(99, 99));
+            assertEquals(3, queue.drainTo(values, timestamps));
+            assertEquals(0, values[0], 0);
+            assertEquals(20, timestamps[2]);
+            assertEquals(1, queue.drainTo(values, timestamps));
+            assertEquals(3, values[0], 0);
+            assertTrue(queue.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SensorQueuesTest {
+
+    /**
+     * Records the times of the pressure samples and accelerations in the order they are passed on,
+     * the accelerations negated.
+     */
+    private static class OrderRecorder implements PressureResampler.SampleConsumer, AccelerationConsumer {
+        final List<Long> events = new ArrayList<Long>();
+
+        @Override
+        public void onSample(float pressure, long timestamp) {
+            events.add(timestamp);
+        }
+
+        @Override
+        public void onVerticalAcceleration(float acceleration, long timestamp) {
+            events.add(-timestamp);
+        }
+    }
+
+    @Test
+    public void BatchedPressureKeepsLaterAccelerationsQueued()
+    {
+        SensorQueues queues = new SensorQueues(256, 1024);
+        PressureResampler resampler = new PressureResampler(new StalenessMonitor());
+        OrderRecorder recorder = new OrderRecorder();
+        resampler.addConsumer(recorder);
+        // Accelerations every 20ms are queued as they happen, while pressure samples every 40ms
+        // are held in the sensor FIFO and queued a second late, a batch at a time.
+        long second = 1000000000L;
+        long acceleration = second + 10000000L;
+        long pressure = second;
+        for (long now = 2 * second; now <= 5 * second; now += second) {
+            for (; acceleration <= now; acceleration += 20000000L) {
+                assertTrue(queues.offerAcceleration(1.0f, acceleration));
+            }
+            for (; pressure <= now - second; pressure += 40000000L) {
+                assertTrue(queues.offerPressure(1000.0f, pressure));
+            }
+            queues.drainTo(resampler, recorder);
+            // Nothing later than the newest pressure sample has been passed on.
+            assertEquals(now - second, (long) recorder.events.get(recorder.events.size() - 1));
+        }
+        // Accelerations and samples are passed on in time order, and those accelerations after
+        // the newest sample are still queued.
+        long previous = 0;
+        int accelerations = 0;
+        for (long event : recorder.events) {
+            assertTrue(Math.abs(event) >= previous);
+            previous = Math.abs(event);
+            if (event < 0) {
+                accelerations++;
+            }
+        }
+        assertEquals(150, accelerations);
+        assertEquals(76, recorder.events.size() - accelerations);
+    }
+
+    @Test
+    public void AccelerationsBeforeTheLastSampleAreThrownAway()
+    {
+        SensorQueues queues = new SensorQueues(16, 16);
+        PressureResampler resampler = new PressureResampler(new StalenessMonitor());
+        OrderRecorder recorder = new OrderRecorder();
+        resampler.addConsumer(recorder);
+        assertTrue(queues.offerPressure(1000.0f, 100));
+        queues.drainTo(resampler, recorder);
+        // Held up behind a stall in pressure samples, or left from before the sensors were
+        // unregistered.
+        assertTrue(queues.offerAcceleration(1.0f, 50));
+        assertTrue(queues.offerAcceleration(1.0f, 100));
+        assertTrue(queues.offerAcceleration(1.0f, 150));
+        assertTrue(queues.offerPressure(1000.0f, 200));
+        queues.drainTo(resampler, recorder);
+        assertEquals(3, recorder.events.size());
+        assertEquals(-150L, (long) recorder.events.get(1));
+        assertTrue(queues.offerAcceleration(1.0f, 250));
+        queues.clearAccelerations();
+        assertTrue(queues.offerPressure(1000.0f, 300));
+        queues.drainTo(resampler, recorder);
+        assertEquals(4, recorder.events.size());
+        assertEquals(300L, (long) recorder.events.get(3));
+    }
+}
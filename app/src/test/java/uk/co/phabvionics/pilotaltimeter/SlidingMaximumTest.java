@@ -0,0 +1,33 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SlidingMaximumTest {
+
+    @Test
+    public void MatchesScanOfHistory()
+    {
+        HistoryBuffer history = new HistoryBuffer(21);
+        SlidingMaximum maximum = new SlidingMaximum(21);
+        assertEquals(0.0f, maximum.getMaximum(), 0);
+        Random random = new Random(3);
+        for (int sample = 0; sample < 1000; sample++) {
+            float speed = (random.nextFloat() - 0.5f) * (sample % 100 < 50 ? 4000 : 400);
+            history.add(speed);
+            maximum.add(speed);
+            if (sample == 500) {
+                history.resize(61);
+                maximum.resize(history, 61);
+            }
+            float expected = 0;
+            for (int index = 0; index < history.size(); index++) {
+                expected = Math.max(expected, Math.abs(history.get(index)));
+            }
+            assertEquals(expected, maximum.getMaximum(), 0);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SlidingMedianFilterTest {
+    private static final long STEP = 40000000L; // 40ms
+
+    @Test
+    public void SpikeIsRejected()
+    {
+        SlidingMedianFilter filter = new SlidingMedianFilter(500000000L, 0.5f, 64);
+        for (int sample = 0; sample < 20; sample++) {
+            filter.Filter(1000.0f, sample * STEP);
+        }
+        assertEquals(1000.0f, filter.Filter(1003.0f, 20 * STEP), 0);
+        assertEquals(1000.0f, filter.Filter(1003.0f, 21 * STEP), 0);
+        assertEquals(1000.0f, filter.Filter(1000.0f, 22 * STEP), 0);
+    }
+
+    @Test
+    public void MatchesSortedWindow()
+    {
+        SlidingMedianFilter median = new SlidingMedianFilter(1000000000L, 0.5f, 64);
+        SlidingMedianFilter trimmed = new SlidingMedianFilter(1000000000L, 0.25f, 64);
+        Random random = new Random(1);
+        float[] samples = new float[500];
+        for (int sample = 0; sample < samples.length; sample++) {
+            samples[sample] = 1000.0f + random.nextInt(40) * 0.125f;
+            long timestamp = sample * STEP;
+            float peeked = median.PeekAt(samples[sample], timestamp);
+            float output = median.Filter(samples[sample], timestamp);
+            assertEquals(peeked, output, 0);
+            float trimmedOutput = trimmed.Filter(samples[sample], timestamp);
+
+            // The window holds the samples from the last second.
+            int first = Math.max(0, sample - 25);
+            float[] window = Arrays.copyOfRange(samples, first, sample + 1);
+            Arrays.sort(window);
+            int count = window.length;
+            assertEquals(count, median.getCount());
+            float expected = count % 2 == 1 ? window[count / 2]
+                    : (window[count / 2 - 1] + window[count / 2]) / 2;
+            assertEquals(expected, output, 1e-4);
+            int low = Math.min(count / 4, (count - 1) / 2);
+            double sum = 0;
+            for (int index = low; index < count - low; index++) {
+                sum += window[index];
+            }
+            assertEquals(sum / (count - 2 * low), trimmedOutput, 1e-4);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StalenessMonitorTest {
+    private static class TestClock implements Clock {
+        long mTime = 5000000000L;
+
+        @Override
+        public long nanoTime() {
+            return mTime;
+        }
+    }
+
+    @Test
+    public void StoppedOnceNoSampleForStoppedTime()
+    {
+        TestClock clock = new TestClock();
+        StalenessMonitor staleness = new StalenessMonitor();
+        staleness.setClock(clock);
+        staleness.sampleReceived();
+        clock.mTime += StalenessMonitor.STOPPED_RECEIVING_DATA_TIME * 1000000L - 1;
+        assertFalse(staleness.isStopped());
+        clock.mTime++;
+        assertTrue(staleness.isStopped());
+        staleness.sampleReceived();
+        assertFalse(staleness.isStopped());
+    }
+
+    @Test
+    public void ReportLatencyDelaysStopped()
+    {
+        TestClock clock = new TestClock();
+        StalenessMonitor staleness = new StalenessMonitor();
+        staleness.setClock(clock);
+        staleness.setReportLatency(500);
+        staleness.sampleReceived();
+        clock.mTime += 1200000000L;
+        assertFalse(staleness.isStopped());
+        clock.mTime += 300000000L;
+        assertTrue(staleness.isStopped());
+    }
+
+    @Test
+    public void OnlyAltimeterShowsStoppedBeforeFirstSample()
+    {
+        TestClock clock = new TestClock();
+        StalenessMonitor staleness = new StalenessMonitor();
+        staleness.setClock(clock);
+        Altimeter altimeter = new Altimeter(staleness);
+        VerticalSpeedIndicator vsi = new VerticalSpeedIndicator(staleness);
+        assertTrue(altimeter.isStopped());
+        assertFalse(vsi.isStopped());
+        staleness.sampleReceived();
+        assertFalse(altimeter.isStopped());
+        assertFalse(vsi.isStopped());
+        clock.mTime += StalenessMonitor.STOPPED_RECEIVING_DATA_TIME * 1000000L;
+        assertTrue(altimeter.isStopped());
+        assertTrue(vsi.isStopped());
+    }
+}
@@ -0,0 +1,51 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TieredHistoryTest {
+
+    @Test
+    public void TiersSummarisePoints()
+    {
+        TieredHistory history = new TieredHistory(new int[] {1, 4, 8}, new int[] {10, 10, 10});
+        for (int point = 0; point < 16; point++) {
+            history.add(point);
+        }
+        assertEquals(10, history.getMean(0).size());
+        assertEquals(15.0f, history.getMean(0).getRecent(0), 0);
+        assertEquals(4, history.getMean(1).size());
+        assertEquals(12.0f, history.getMinimum(1).getRecent(0), 0);
+        assertEquals(13.5f, history.getMean(1).getRecent(0), 0);
+        assertEquals(15.0f, history.getMaximum(1).getRecent(0), 0);
+        assertEquals(2, history.getMean(2).size());
+        assertEquals(3.5f, history.getMean(2).get(0), 0);
+        assertEquals(0, history.getTierCovering(9));
+        assertEquals(1, history.getTierCovering(10));
+        assertEquals(2, history.getTierCovering(1000));
+    }
+
+    @Test
+    public void RepeatedPointsMatchAddingEachOne()
+    {
+        TieredHistory repeated = new TieredHistory(new int[] {1, 4, 8}, new int[] {10, 10, 10});
+        TieredHistory single = new TieredHistory(new int[] {1, 4, 8}, new int[] {10, 10, 10});
+        repeated.add(5.0f);
+        single.add(5.0f);
+        repeated.addRepeated(1.0f, 30);
+        for (int point = 0; point < 30; point++) {
+            single.add(1.0f);
+        }
+        repeated.add(7.0f);
+        single.add(7.0f);
+        for (int tier = 0; tier < 3; tier++) {
+            assertEquals(single.getMean(tier).size(), repeated.getMean(tier).size());
+            for (int index = 0; index < single.getMean(tier).size(); index++) {
+                assertEquals(single.getMinimum(tier).get(index), repeated.getMinimum(tier).get(index), 0);
+                assertEquals(single.getMean(tier).get(index), repeated.getMean(tier).get(index), 1e-6);
+                assertEquals(single.getMaximum(tier).get(index), repeated.getMaximum(tier).get(index), 0);
+            }
+        }
+    }
+}
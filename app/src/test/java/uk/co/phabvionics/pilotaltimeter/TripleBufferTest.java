@@ -0,0 +1,50 @@
+package uk.co.phabvionics.pilotaltimeter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TripleBufferTest {
+    private static TripleBuffer<int[]> create() {
+        return new TripleBuffer<int[]>(new int[1], new int[1], new int[1]);
+    }
+
+    @Test
+    public void ReaderSeesNothingPublishedUntilPublish()
+    {
+        TripleBuffer<int[]> buffer = create();
+        int[] first = buffer.getFront();
+        buffer.getBack()[0] = 1;
+        assertSame(first, buffer.getFront());
+        assertEquals(0, buffer.getFront()[0]);
+    }
+
+    @Test
+    public void ReaderSeesLatestPublished()
+    {
+        TripleBuffer<int[]> buffer = create();
+        for (int value = 1; value <= 5; value++) {
+            buffer.getBack()[0] = value;
+            buffer.publish();
+        }
+        assertEquals(5, buffer.getFront()[0]);
+        // Nothing new is published, so the reader keeps the same snapshot.
+        assertEquals(5, buffer.getFront()[0]);
+    }
+
+    @Test
+    public void WriterNeverFillsReadersSnapshot()
+    {
+        TripleBuffer<int[]> buffer = create();
+        for (int value = 1; value <= 20; value++) {
+            int[] front = buffer.getFront();
+            assertFalse(front == buffer.getBack());
+            buffer.getBack()[0] = value;
+            buffer.publish();
+            assertFalse(front == buffer.getBack());
+            if (value % 3 == 0) {
+                assertEquals(value, buffer.getFront()[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package uk.co.phabvionics.pilotaltimeter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import uk.co.phabvionics.pilotaltimeter.BiquadCascadeFilter;
+import uk.co.phabvionics.pilotaltimeter.IIRLowPassFilter;
+import uk.co.phabvionics.pilotaltimeter.MovingAverageFilter;
+import uk.co.phabvionics.pilotaltimeter.PressureFilter;
+import uk.co.phabvionics.pilotaltimeter.RCLowPassFilter;
+import uk.co.phabvionics.pilotaltimeter.SlidingMedianFilter;
+
+/**
+ * Per-sample cost of the individual filters over a realistic sensor trace.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(SensorTrace.TRACE_SAMPLES)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmark {
+    private SensorTrace mTrace;
+    private IIRLowPassFilter mIIRFilter;
+    private RCLowPassFilter mRCFilter;
+    private MovingAverageFilter mMovingAverageFilter;
+    private SensorTrace mSlowTrace;
+    private PressureFilter mGridFilter;
+    private PressureFilter mExactFilter;
+    private PressureFilter mMedianFilter;
+    private PressureFilter mBiquadFilter;
+    private PressureFilter mFourthOrderFilter;
+
+    @Setup
+    public void setUp() {
+        mTrace = SensorTrace.steady();
+        mIIRFilter = new IIRLowPassFilter(50);
+        mRCFilter = new RCLowPassFilter(0.5f);
+        mMovingAverageFilter = new MovingAverageFilter(50);
+        mSlowTrace = SensorTrace.slow();
+        mGridFilter = new IIRLowPassFilter(50);
+        mExactFilter = new RCLowPassFilter(0.5f);
+        mMedianFilter = new SlidingMedianFilter(1000000000L, 0.5f, 256);
+        mBiquadFilter = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.BUTTERWORTH, 2.5f);
+        mFourthOrderFilter = new BiquadCascadeFilter(BiquadCascadeFilter.Shape.BUTTERWORTH_FOURTH_ORDER, 2.5f);
+    }
+
+    private float filterSamples(PressureFilter filter, SensorTrace trace) {
+        float[] pressures = trace.pressures;
+        long[] timestamps = trace.timestamps;
+        float result = 0;
+        for (int sample = 0; sample < pressures.length; sample++) {
+            result = filter.Filter(pressures[sample], timestamps[sample]);
+        }
+        filter.Reset(result, 0);
+        return result;
+    }
+
+    @Benchmark
+    public float iirSamplesOnGrid() {
+        return filterSamples(mGridFilter, mTrace);
+    }
+
+    @Benchmark
+    public float iirSamplesOnGridSlow() {
+        return filterSamples(mGridFilter, mSlowTrace);
+    }
+
+    @Benchmark
+    public float rcSamplesExact() {
+        return filterSamples(mExactFilter, mTrace);
+    }
+
+    @Benchmark
+    public float rcSamplesExactSlow() {
+        return filterSamples(mExactFilter, mSlowTrace);
+    }
+
+    @Benchmark
+    public float biquadSamplesOnGrid() {
+        return filterSamples(mBiquadFilter, mTrace);
+    }
+
+    @Benchmark
+    public float fourthOrderSamplesOnGrid() {
+        return filterSamples(mFourthOrderFilter, mTrace);
+    }
+
+    @Benchmark
+    public float medianOverOneSecond() {
+        return filterSamples(mMedianFilter, mTrace);
+    }
+
+    @Benchmark
+    public float iirFilter() {
+        float[] pressures = mTrace.pressures;
+        float result = 0;
+        for (int sample = 0; sample < pressures.length; sample++) {
+            result = mIIRFilter.Filter(pressures[sample]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public float rcNewSample() {
+        float[] pressures = mTrace.pressures;
+        long[] timestamps = mTrace.timestamps;
+        float result = 0;
+        for (int sample = 0; sample < pressures.length; sample++) {
+            result = mRCFilter.NewSample(pressures[sample], timestamps[sample] / 1e9f);
+        }
+        // The next invocation starts the trace again; with the input held at the output, the step
+        // back in time leaves the output unchanged.
+        mRCFilter.Reset(result, 0);
+        return result;
+    }
+
+    @Benchmark
+    public float movingAverageFilter() {
+        float[] pressures = mTrace.pressures;
+        float result = 0;
+        for (int sample = 0; sample < pressures.length; sample++) {
+            result = mMovingAverageFilter.Filter(pressures[sample]);
+        }
+        return result;
+    }
+}
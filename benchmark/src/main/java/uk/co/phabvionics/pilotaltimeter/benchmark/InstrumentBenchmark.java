@@ -0,0 +1,141 @@
+package uk.co.phabvionics.pilotaltimeter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import uk.co.phabvionics.pilotaltimeter.Altimeter;
+import uk.co.phabvionics.pilotaltimeter.PressureHeightConverter;
+import uk.co.phabvionics.pilotaltimeter.PressureResampler;
+import uk.co.phabvionics.pilotaltimeter.VerticalSpeedIndicator;
+
+/**
+ * Per-sample cost of feeding the instruments, including the resampling onto the fixed-step grid
+ * and the filtering and history updates behind it, and of the pressure to height conversion.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(SensorTrace.TRACE_SAMPLES)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InstrumentBenchmark {
+    private SensorTrace mSteadyTrace;
+    private SensorTrace mGapTrace;
+    private Altimeter mAltimeter;
+    private VerticalSpeedIndicator mVSI;
+    private PressureResampler mAltimeterInput;
+    private PressureResampler mVSIInput;
+    private PressureResampler mInstrumentsInput; // Feeds the altimeter and a VSI together.
+    private PressureHeightConverter mConverter;
+    private float[] mHeights;
+    private long[] mBatchTimestamps;
+    // Each invocation replays the trace later than the last so that time keeps moving forwards.
+    private long mTimeOffset;
+
+    @Setup
+    public void setUp() {
+        mSteadyTrace = SensorTrace.steady();
+        mGapTrace = SensorTrace.withGaps();
+        mAltimeter = Altimeter.getInstance();
+        mAltimeter.SetFilterSettlingTime(2.5f);
+        mAltimeter.SetDisplayGraphSeconds(300);
+        mVSI = new VerticalSpeedIndicator();
+        mVSI.setDisplayGraphSeconds(300);
+        mAltimeterInput = new PressureResampler();
+        mAltimeterInput.addConsumer(mAltimeter);
+        mVSIInput = new PressureResampler();
+        mVSIInput.addConsumer(mVSI);
+        mInstrumentsInput = new PressureResampler();
+        mInstrumentsInput.addConsumer(mAltimeter);
+        VerticalSpeedIndicator vsi = new VerticalSpeedIndicator();
+        vsi.setDisplayGraphSeconds(300);
+        mInstrumentsInput.addConsumer(vsi);
+        mConverter = new PressureHeightConverter();
+        mConverter.setDatum(1000.0f);
+        mHeights = new float[SensorTrace.TRACE_SAMPLES];
+        mBatchTimestamps = new long[SensorTrace.TRACE_SAMPLES];
+        mTimeOffset = 1000000000L;
+    }
+
+    private void feedAltimeter(SensorTrace trace) {
+        float[] pressures = trace.pressures;
+        long[] timestamps = trace.timestamps;
+        for (int sample = 0; sample < pressures.length; sample++) {
+            mAltimeterInput.setPressure(pressures[sample], mTimeOffset + timestamps[sample]);
+        }
+        mTimeOffset += trace.duration;
+    }
+
+    @Benchmark
+    public float altimeterSteady() {
+        feedAltimeter(mSteadyTrace);
+        return mAltimeter.getFilteredPressure();
+    }
+
+    @Benchmark
+    public float altimeterWithGaps() {
+        feedAltimeter(mGapTrace);
+        return mAltimeter.getFilteredPressure();
+    }
+
+    @Benchmark
+    public float altimeterBatch() {
+        long[] timestamps = mSteadyTrace.timestamps;
+        for (int sample = 0; sample < timestamps.length; sample++) {
+            mBatchTimestamps[sample] = mTimeOffset + timestamps[sample];
+        }
+        mAltimeterInput.setPressureBatch(mSteadyTrace.pressures, mBatchTimestamps, timestamps.length);
+        mTimeOffset += mSteadyTrace.duration;
+        return mAltimeter.getFilteredPressure();
+    }
+
+    @Benchmark
+    public float verticalSpeedIndicator() {
+        float[] pressures = mSteadyTrace.pressures;
+        long[] timestamps = mSteadyTrace.timestamps;
+        for (int sample = 0; sample < pressures.length; sample++) {
+            mVSIInput.setPressure(pressures[sample], mTimeOffset + timestamps[sample]);
+        }
+        mTimeOffset += mSteadyTrace.duration;
+        return mVSI.getSpeed();
+    }
+
+    @Benchmark
+    public float bothInstruments() {
+        float[] pressures = mSteadyTrace.pressures;
+        long[] timestamps = mSteadyTrace.timestamps;
+        for (int sample = 0; sample < pressures.length; sample++) {
+            mInstrumentsInput.setPressure(pressures[sample], mTimeOffset + timestamps[sample]);
+        }
+        mTimeOffset += mSteadyTrace.duration;
+        return mAltimeter.getFilteredPressure();
+    }
+
+    @Benchmark
+    public float pressureToHeight() {
+        float[] pressures = mSteadyTrace.pressures;
+        float result = 0;
+        for (int sample = 0; sample < pressures.length; sample++) {
+            result += mAltimeter.pressureToHeight(pressures[sample]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public float[] pressureToHeightBulk() {
+        mConverter.toHeight(mSteadyTrace.pressures, mHeights, mHeights.length);
+        return mHeights;
+    }
+}
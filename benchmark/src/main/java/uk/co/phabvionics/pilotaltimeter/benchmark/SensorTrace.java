@@ -0,0 +1,58 @@
+package uk.co.phabvionics.pilotaltimeter.benchmark;
+
+import java.util.Random;
+
+/**
+ * A repeatable synthetic pressure sensor trace: a steady climb with sensor noise, sampled at a
+ * nominal interval with timestamp jitter, optionally with periodic gaps in the samples.
+ */
+public class SensorTrace {
+    public final float[] pressures;
+    public final long[] timestamps;
+    public final long duration; // ns from the first sample to one interval after the last
+
+    /**
+     * @param samples The number of samples in the trace.
+     * @param interval The nominal time between samples in ns (33ms is typical of SENSOR_DELAY_FASTEST).
+     * @param gapEvery Leave a gap after every this many samples, or 0 for no gaps.
+     * @param gapLength The length of each gap in ns.
+     */
+    public SensorTrace(int samples, long interval, int gapEvery, long gapLength) {
+        Random random = new Random(1013);
+        pressures = new float[samples];
+        timestamps = new long[samples];
+        long time = 0;
+        double pressure = 1013.25;
+        for (int sample = 0; sample < samples; sample++) {
+            // Climb at about 500ft/min (roughly 0.3hPa/s near sea level) with 0.05hPa of noise.
+            pressure -= 0.3 * interval / 1e9;
+            pressures[sample] = (float) (pressure + random.nextGaussian() * 0.05);
+            timestamps[sample] = time;
+            time += interval + (long) (random.nextGaussian() * interval * 0.05);
+            if (gapEvery > 0 && sample % gapEvery == gapEvery - 1) {
+                time += gapLength;
+            }
+        }
+        duration = time;
+    }
+
+    public static SensorTrace steady() {
+        return new SensorTrace(TRACE_SAMPLES, 33000000L, 0, 0);
+    }
+
+    /**
+     * A trace at 200ms intervals, typical of SENSOR_DELAY_NORMAL.
+     */
+    public static SensorTrace slow() {
+        return new SensorTrace(TRACE_SAMPLES, 200000000L, 0, 0);
+    }
+
+    /**
+     * A trace with a five-second gap after every 100 samples, as when the sensor stalls.
+     */
+    public static SensorTrace withGaps() {
+        return new SensorTrace(TRACE_SAMPLES, 33000000L, 100, 5000000000L);
+    }
+
+    public static final int TRACE_SAMPLES = 1000;
+}
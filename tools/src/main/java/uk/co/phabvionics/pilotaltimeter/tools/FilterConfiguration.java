@@ -0,0 +1,199 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.co.phabvionics.pilotaltimeter.Altimeter;
+import uk.co.phabvionics.pilotaltimeter.BiquadCascadeFilter;
+import uk.co.phabvionics.pilotaltimeter.JointPressureEstimator;
+import uk.co.phabvionics.pilotaltimeter.VerticalSpeedIndicator;
+
+/**
+ * One way of filtering one of the instruments, as tried by the Sweep tool: the filter used and
+ * its parameters. Applying a configuration sets every filter setting of that instrument, so it
+ * does not matter what the instrument was set to before.
+ */
+public class FilterConfiguration {
+    public enum Method {
+        /**
+         * Altimeter first order low pass filter on the 10ms grid; parameter: settling time in s.
+         */
+        ALTIMETER_GRID,
+        /**
+         * Altimeter first order low pass filter at the exact sample times; parameter: settling
+         * time in s.
+         */
+        ALTIMETER_EXACT_TIME,
+        /**
+         * Altimeter second order filter of a given shape; parameter: settling time in s.
+         */
+        ALTIMETER_BIQUAD,
+        /**
+         * Altimeter Kalman estimator; parameter: acceleration noise.
+         */
+        ALTIMETER_KALMAN,
+        /**
+         * VSI filtered pressure difference; parameters: difference time, pressure time constant
+         * and output time constant in s.
+         */
+        VSI_DIFFERENCE,
+        /**
+         * VSI least-squares line fit; parameter: window in s.
+         */
+        VSI_LEAST_SQUARES,
+        /**
+         * VSI Kalman estimator; parameter: acceleration noise.
+         */
+        VSI_KALMAN
+    }
+
+    private static final float[] SETTLING_TIMES = {0.25f, 0.5f, 0.75f, 1.0f, 1.5f, 2.0f, 2.5f, 3.0f, 4.0f, 5.0f,
+            6.0f, 8.0f, 10.0f, 15.0f, 20.0f};
+    private static final float[] ACCELERATION_NOISES = {0.002f, 0.005f, 0.01f, 0.02f, 0.05f, 0.1f, 0.2f, 0.5f, 1.0f};
+    private static final float[] DELTA_TIMES = {0.25f, 0.5f, 1.0f, 2.0f};
+    private static final float[] PRESSURE_TIME_CONSTANTS = {0.0f, 0.25f, 0.5f, 1.0f, 2.0f};
+    private static final float[] OUTPUT_TIME_CONSTANTS = {0.0f, 0.5f, 1.0f, 2.0f, 4.0f};
+    private static final float[] LINE_FIT_WINDOWS = {1.0f, 1.5f, 2.0f, 3.0f, 4.0f, 5.0f, 6.0f, 8.0f, 10.0f, 12.0f};
+
+    private final Method mMethod;
+    private final BiquadCascadeFilter.Shape mShape; // Only for ALTIMETER_BIQUAD.
+    private final float[] mParameters;
+
+    public FilterConfiguration(Method method, float... parameters) {
+        this(method, null, parameters);
+    }
+
+    public FilterConfiguration(Method method, BiquadCascadeFilter.Shape shape, float... parameters) {
+        mMethod = method;
+        mShape = shape;
+        mParameters = parameters.clone();
+    }
+
+    /**
+     * @return Configurations of both instruments covering the useful range of every filter:
+     * a couple of hundred in all.
+     */
+    public static List<FilterConfiguration> createSweep() {
+        List<FilterConfiguration> configurations = new ArrayList<FilterConfiguration>();
+        for (float settlingTime : SETTLING_TIMES) {
+            configurations.add(new FilterConfiguration(Method.ALTIMETER_GRID, settlingTime));
+            configurations.add(new FilterConfiguration(Method.ALTIMETER_EXACT_TIME, settlingTime));
+            for (BiquadCascadeFilter.Shape shape : BiquadCascadeFilter.Shape.values()) {
+                configurations.add(new FilterConfiguration(Method.ALTIMETER_BIQUAD, shape, settlingTime));
+            }
+        }
+        for (float noise : ACCELERATION_NOISES) {
+            configurations.add(new FilterConfiguration(Method.ALTIMETER_KALMAN, noise));
+        }
+        for (float delta : DELTA_TIMES) {
+            for (float pressureTimeConstant : PRESSURE_TIME_CONSTANTS) {
+                for (float outputTimeConstant : OUTPUT_TIME_CONSTANTS) {
+                    configurations.add(new FilterConfiguration(Method.VSI_DIFFERENCE,
+                            delta, pressureTimeConstant, outputTimeConstant));
+                }
+            }
+        }
+        for (float window : LINE_FIT_WINDOWS) {
+            configurations.add(new FilterConfiguration(Method.VSI_LEAST_SQUARES, window));
+        }
+        for (float noise : ACCELERATION_NOISES) {
+            configurations.add(new FilterConfiguration(Method.VSI_KALMAN, noise));
+        }
+        return configurations;
+    }
+
+    public Method getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * @return true if this configures the altimeter, false if the VSI.
+     */
+    public boolean isAltimeter() {
+        return mMethod.ordinal() <= Method.ALTIMETER_KALMAN.ordinal();
+    }
+
+    /**
+     * Set up the instrument this configures.
+     * @param engine The engine whose instruments and joint estimator to set up.
+     */
+    public void apply(ReplayEngine engine) {
+        Altimeter altimeter = engine.getAltimeter();
+        VerticalSpeedIndicator vsi = engine.getVSI();
+        JointPressureEstimator estimator = engine.getResampler().getEstimator();
+        switch (mMethod) {
+            case ALTIMETER_GRID:
+            case ALTIMETER_EXACT_TIME:
+            case ALTIMETER_BIQUAD:
+                altimeter.SetKalmanFilter(null);
+                altimeter.SetFilterSettlingTime(mParameters[0]);
+                altimeter.SetExactTimeFiltering(mMethod == Method.ALTIMETER_EXACT_TIME);
+                altimeter.SetBiquadFilter(mShape);
+                break;
+            case ALTIMETER_KALMAN:
+                altimeter.SetBiquadFilter(null);
+                altimeter.SetExactTimeFiltering(false);
+                estimator.SetAccelerationNoise(mParameters[0]);
+                altimeter.SetKalmanFilter(estimator);
+                break;
+            case VSI_DIFFERENCE:
+                vsi.setKalmanFilter(null);
+                vsi.setAccelerationFusion(false);
+                vsi.setSpeedWindowSeconds(0);
+                vsi.setDifferenceSmoothing(mParameters[0], mParameters[1], mParameters[2]);
+                break;
+            case VSI_LEAST_SQUARES:
+                vsi.setKalmanFilter(null);
+                vsi.setAccelerationFusion(false);
+                vsi.setSpeedWindowSeconds(mParameters[0]);
+                break;
+            case VSI_KALMAN:
+                vsi.setAccelerationFusion(false);
+                estimator.SetAccelerationNoise(mParameters[0]);
+                vsi.setKalmanFilter(estimator);
+                break;
+        }
+        altimeter.SetDisplayInFeet(true);
+        altimeter.setPressureDatum(1013.25f);
+        vsi.setDisplayInFeet(true);
+    }
+
+    /**
+     * @param altimeter The altimeter.
+     * @param vsi The vertical speed indicator.
+     * @return The reading of the instrument this configures: the pressure altitude in feet or the
+     * vertical speed in ft/min, or NaN while it has no valid reading.
+     */
+    public float getReading(Altimeter altimeter, VerticalSpeedIndicator vsi) {
+        if (isAltimeter()) {
+            if (!altimeter.isPressureMeasurementValid()) {
+                return Float.NaN;
+            }
+            return altimeter.pressureToHeight(altimeter.getFilteredPressure());
+        }
+        return vsi.isIndicationValid() ? vsi.getSpeed() : Float.NaN;
+    }
+
+    @Override
+    public String toString() {
+        switch (mMethod) {
+            case ALTIMETER_GRID:
+                return String.format("altimeter first order, settling %.2fs", mParameters[0]);
+            case ALTIMETER_EXACT_TIME:
+                return String.format("altimeter first order at exact times, settling %.2fs", mParameters[0]);
+            case ALTIMETER_BIQUAD:
+                return String.format("altimeter %s, settling %.2fs", mShape.name().toLowerCase().replace('_', ' '),
+                        mParameters[0]);
+            case ALTIMETER_KALMAN:
+                return String.format("altimeter Kalman, acceleration noise %.3f", mParameters[0]);
+            case VSI_DIFFERENCE:
+                return String.format("VSI difference over %.2fs, pressure time constant %.2fs, output time constant %.2fs",
+                        mParameters[0], mParameters[1], mParameters[2]);
+            case VSI_LEAST_SQUARES:
+                return String.format("VSI line fit over %.1fs", mParameters[0]);
+            case VSI_KALMAN:
+                return String.format("VSI Kalman, acceleration noise %.3f", mParameters[0]);
+        }
+        return mMethod.name();
+    }
+}
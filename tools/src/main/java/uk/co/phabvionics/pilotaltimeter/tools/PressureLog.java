@@ -0,0 +1,180 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import uk.co.phabvionics.pilotaltimeter.FlightRecordingReader;
+
+/**
+ * A recorded stream of pressure samples, loaded completely into primitive arrays so that it can
+ * be replayed without any parsing or I/O in the loop. Each sample may carry the mean vertical
+ * acceleration since the sample before, or NaN if there was none.
+ */
+public class PressureLog {
+    private float[] mPressures;
+    private float[] mAccelerations;
+    private long[] mTimestamps;
+    private int mCount;
+
+    public PressureLog() {
+        this(1024);
+    }
+
+    public PressureLog(int capacity) {
+        mPressures = new float[Math.max(capacity, 1)];
+        mAccelerations = new float[Math.max(capacity, 1)];
+        mTimestamps = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Append a sample, growing the arrays as needed.
+     * @param pressure Pressure in hPa.
+     * @param timestamp Time in nanoseconds.
+     */
+    public void add(float pressure, long timestamp) {
+        add(pressure, Float.NaN, timestamp);
+    }
+
+    /**
+     * Append a sample, growing the arrays as needed.
+     * @param pressure Pressure in hPa.
+     * @param acceleration Mean vertical acceleration since the previous sample in m/s^2 upwards,
+     *                     or NaN if there was none.
+     * @param timestamp Time in nanoseconds.
+     */
+    public void add(float pressure, float acceleration, long timestamp) {
+        if (mCount == mPressures.length) {
+            mPressures = Arrays.copyOf(mPressures, mCount * 2);
+            mAccelerations = Arrays.copyOf(mAccelerations, mCount * 2);
+            mTimestamps = Arrays.copyOf(mTimestamps, mCount * 2);
+        }
+        mPressures[mCount] = pressure;
+        mAccelerations[mCount] = acceleration;
+        mTimestamps[mCount] = timestamp;
+        mCount++;
+    }
+
+    /**
+     * Empty the log, keeping its arrays.
+     */
+    public void clear() {
+        mCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public float getPressure(int index) {
+        return mPressures[index];
+    }
+
+    public float getAcceleration(int index) {
+        return mAccelerations[index];
+    }
+
+    public long getTimestamp(int index) {
+        return mTimestamps[index];
+    }
+
+    /**
+     * @return The pressures; only the first size() entries are valid.
+     */
+    public float[] getPressures() {
+        return mPressures;
+    }
+
+    /**
+     * @return The accelerations; only the first size() entries are valid.
+     */
+    public float[] getAccelerations() {
+        return mAccelerations;
+    }
+
+    /**
+     * @return The timestamps; only the first size() entries are valid.
+     */
+    public long[] getTimestamps() {
+        return mTimestamps;
+    }
+
+    /**
+     * @return The time from the first sample to the last, in nanoseconds.
+     */
+    public long getDuration() {
+        return mCount == 0 ? 0 : mTimestamps[mCount - 1] - mTimestamps[0];
+    }
+
+    /**
+     * Read a log in either the binary flight recording format or the old CSV format, depending on
+     * the file name.
+     * @param file The log file; for a flight recording, any of its segment files.
+     * @return The log.
+     * @throws IOException if the file cannot be read or parsed.
+     */
+    public static PressureLog read(File file) throws IOException {
+        if (FlightRecordingReader.isSegmentFile(file)) {
+            return readFlightRecording(file);
+        }
+        return readCsv(file);
+    }
+
+    /**
+     * Read a CSV log as written by the old debug logger (nexus-4-pressure-log.txt): one line per
+     * sample holding the timestamp in seconds and the pressure in hPa, separated by a comma.
+     * @param file The log file.
+     * @return The log.
+     * @throws IOException if the file cannot be read or a line cannot be parsed.
+     */
+    public static PressureLog readCsv(File file) throws IOException {
+        PressureLog log = new PressureLog();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                try {
+                    if (comma < 0) {
+                        throw new NumberFormatException("no comma");
+                    }
+                    double seconds = Double.parseDouble(line.substring(0, comma));
+                    float pressure = Float.parseFloat(line.substring(comma + 1));
+                    log.add(pressure, Math.round(seconds * 1e9));
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + ": cannot parse \"" + line + "\"", e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return log;
+    }
+
+    /**
+     * Read the raw pressures and accelerations from a binary flight recording.
+     * @param segmentFile Any segment file of the recording.
+     * @return The log.
+     * @throws IOException if the recording cannot be read.
+     */
+    public static PressureLog readFlightRecording(File segmentFile) throws IOException {
+        PressureLog log = new PressureLog();
+        FlightRecordingReader reader = FlightRecordingReader.open(segmentFile);
+        try {
+            while (reader.next()) {
+                log.add(reader.getPressure(), reader.getAcceleration(), reader.getTimestamp());
+            }
+        } finally {
+            reader.close();
+        }
+        return log;
+    }
+}
@@ -0,0 +1,138 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import uk.co.phabvionics.pilotaltimeter.PressureHeightConverter;
+
+/**
+ * The altitude and vertical speed that a recorded flight is scored against by the Sweep tool.
+ * At each sample a straight line is fitted by least squares to the raw pressure over a window
+ * centred on it, looking ahead as well as back, so the reference has no lag however long the
+ * window it averages the noise over. The samples are weighted by a Gaussian of a quarter of the
+ * window, so that the reference is not simply one of the VSI's own line fits delayed, which would
+ * then appear to have no noise at all.
+ *
+ * The vertical speed is converted from the rate of change of pressure with the same sea-level
+ * factor the VSI uses, so the scores show the VSI's lag and noise rather than that factor.
+ * Samples are only scored where the whole window lies within the recording, with no gap in it,
+ * and the filters have had time to settle since the start or the last gap.
+ */
+public class ReferenceFlight {
+    /**
+     * Samples further apart than this start a new stretch of the recording.
+     */
+    private static final long MAX_GAP = 1000000000L; // 1s
+    /**
+     * Samples are not scored until this long after the start of a stretch.
+     */
+    private static final long SETTLING_TIME = 30000000000L; // 30s
+    private static final double FEET_PER_HPA = 27.3104136394385;
+
+    private final PressureLog mLog;
+    private final float[] mAltitudes; // ft
+    private final float[] mSpeeds; // ft/min
+    private final boolean[] mScored;
+
+    /**
+     * @param log The recorded flight.
+     * @param window The length of the window in seconds.
+     */
+    public ReferenceFlight(PressureLog log, double window) {
+        mLog = log;
+        int count = log.size();
+        mAltitudes = new float[count];
+        mSpeeds = new float[count];
+        mScored = new boolean[count];
+        long halfWindow = (long) (window * 1e9 / 2);
+        double sigma = window / 4;
+        long[] timestamps = log.getTimestamps();
+        float[] pressures = log.getPressures();
+        double[] fit = new double[2];
+        int start = 0; // The first sample of the current stretch.
+        while (start < count) {
+            int end = start + 1; // The sample after the last of the stretch.
+            while (end < count && timestamps[end] - timestamps[end - 1] <= MAX_GAP) {
+                end++;
+            }
+            int low = start;
+            int high = start;
+            for (int sample = start; sample < end; sample++) {
+                long time = timestamps[sample];
+                while (timestamps[low] < time - halfWindow) {
+                    low++;
+                }
+                while (high < end && timestamps[high] <= time + halfWindow) {
+                    high++;
+                }
+                fitLine(timestamps, pressures, low, high, time, sigma, fit);
+                mAltitudes[sample] = PressureHeightConverter.pressureAltitude((float) fit[0]);
+                // Falling pressure means climbing.
+                mSpeeds[sample] = (float) (-fit[1] * FEET_PER_HPA * 60);
+                mScored[sample] = time - Math.max(halfWindow, SETTLING_TIME) >= timestamps[start]
+                        && time + halfWindow <= timestamps[end - 1];
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Fit a straight line by weighted least squares.
+     * @param timestamps The times of the values in nanoseconds.
+     * @param values The values.
+     * @param low The first value to fit.
+     * @param high The value after the last to fit.
+     * @param time The time at which to evaluate the line, about which the weights are centred.
+     * @param sigma The standard deviation of the Gaussian weights in seconds.
+     * @param fit Receives the value of the line at the time and its slope per second.
+     */
+    private static void fitLine(long[] timestamps, float[] values, int low, int high, long time, double sigma,
+                                double[] fit) {
+        // Sum about the time and the first value, to keep the precision.
+        double origin = values[low];
+        double sumW = 0;
+        double sumT = 0;
+        double sumTT = 0;
+        double sumV = 0;
+        double sumTV = 0;
+        for (int index = low; index < high; index++) {
+            double t = (timestamps[index] - time) / 1e9;
+            double v = values[index] - origin;
+            double w = Math.exp(-0.5 * (t / sigma) * (t / sigma));
+            sumW += w;
+            sumT += w * t;
+            sumTT += w * t * t;
+            sumV += w * v;
+            sumTV += w * t * v;
+        }
+        double denominator = sumW * sumTT - sumT * sumT;
+        double slope = denominator > 0 ? (sumW * sumTV - sumT * sumV) / denominator : 0;
+        fit[0] = origin + (sumV - slope * sumT) / sumW;
+        fit[1] = slope;
+    }
+
+    public PressureLog getLog() {
+        return mLog;
+    }
+
+    /**
+     * @param index The index of a sample.
+     * @return true if the sample is to be scored.
+     */
+    public boolean isScored(int index) {
+        return mScored[index];
+    }
+
+    /**
+     * @param index The index of a sample.
+     * @return The reference pressure altitude at the sample in feet.
+     */
+    public float getAltitude(int index) {
+        return mAltitudes[index];
+    }
+
+    /**
+     * @param index The index of a sample.
+     * @return The reference vertical speed at the sample in ft/min.
+     */
+    public float getSpeed(int index) {
+        return mSpeeds[index];
+    }
+}
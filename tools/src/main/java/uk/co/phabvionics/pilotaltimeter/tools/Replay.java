@@ -0,0 +1,159 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import uk.co.phabvionics.pilotaltimeter.Altimeter;
+import uk.co.phabvionics.pilotaltimeter.BiquadCascadeFilter;
+import uk.co.phabvionics.pilotaltimeter.JointPressureEstimator;
+import uk.co.phabvionics.pilotaltimeter.SlidingMedianFilter;
+import uk.co.phabvionics.pilotaltimeter.VerticalSpeedIndicator;
+
+/**
+ * Command line tool that replays pressure logs through the instruments and reports throughput.
+ *
+ * Usage: Replay [-s settlingTime] [-e] [-b shape] [-k accelerationNoise] [-a] [-m medianWindow] [-o output.csv] log...
+ *
+ * With -e the altimeter filters each sample at its exact time rather than on the 10ms grid.
+ * With -b the altimeter uses a second order filter with the same noise bandwidth: shape 1 for
+ * Butterworth, 2 for critically damped or 3 for fourth order Butterworth.
+ * With -k the Kalman estimator is used in place of the low pass filters.
+ * With -a vertical speed is estimated by fusing the recorded vertical acceleration with pressure.
+ * With -m spikes are rejected by a sliding median over a window of the given number of seconds
+ * ahead of the filters.
+ * Each log is either a flight recording segment (.palt) or an old CSV debug log. With -o, the
+ * instrument state after every sample is written as CSV: time in seconds, raw pressure, filtered
+ * pressure, altitude in feet, vertical speed in ft/min and the vertical acceleration applied in
+ * m/s^2 (NaN where there was none).
+ */
+public class Replay {
+    private static final int MEDIAN_CAPACITY = 4096;
+
+    public static void main(String[] args) throws IOException {
+        float settlingTime = 2.5f;
+        float accelerationNoise = 0;
+        float medianWindow = 0;
+        boolean exactTime = false;
+        BiquadCascadeFilter.Shape biquadShape = null;
+        boolean accelerationFusion = false;
+        File output = null;
+        int arg = 0;
+        while (arg < args.length && args[arg].startsWith("-")) {
+            if (args[arg].equals("-s") && arg + 1 < args.length) {
+                settlingTime = Float.parseFloat(args[arg + 1]);
+                arg += 2;
+            } else if (args[arg].equals("-e")) {
+                exactTime = true;
+                arg++;
+            } else if (args[arg].equals("-b") && arg + 1 < args.length) {
+                int shape = Integer.parseInt(args[arg + 1]);
+                if (shape < 1 || shape > BiquadCascadeFilter.Shape.values().length) {
+                    usage();
+                    return;
+                }
+                biquadShape = BiquadCascadeFilter.Shape.values()[shape - 1];
+                arg += 2;
+            } else if (args[arg].equals("-k") && arg + 1 < args.length) {
+                accelerationNoise = Float.parseFloat(args[arg + 1]);
+                arg += 2;
+            } else if (args[arg].equals("-a")) {
+                accelerationFusion = true;
+                arg++;
+            } else if (args[arg].equals("-m") && arg + 1 < args.length) {
+                medianWindow = Float.parseFloat(args[arg + 1]);
+                arg += 2;
+            } else if (args[arg].equals("-o") && arg + 1 < args.length) {
+                output = new File(args[arg + 1]);
+                arg += 2;
+            } else {
+                usage();
+                return;
+            }
+        }
+        if (arg == args.length) {
+            usage();
+            return;
+        }
+
+        Writer writer = output == null ? null : new BufferedWriter(new FileWriter(output));
+        try {
+            for (; arg < args.length; arg++) {
+                File file = new File(args[arg]);
+                PressureLog log = PressureLog.read(file);
+                // Each log starts from fresh instruments, whatever the times of the one before.
+                ReplayEngine engine = createEngine(settlingTime, exactTime, biquadShape, accelerationNoise,
+                        accelerationFusion, medianWindow);
+                long elapsed = engine.run(log, writer == null ? null : new CsvObserver(log, writer));
+                double logSeconds = log.getDuration() / 1e9;
+                double replaySeconds = elapsed / 1e9;
+                System.out.printf("%s: %d samples, %.1fs of flight replayed in %.3fs (%.0f samples/s, %.0fx real time)%n",
+                        file, log.size(), logSeconds, replaySeconds,
+                        log.size() / replaySeconds, logSeconds / replaySeconds);
+                System.out.printf("  final altitude %.0fft, vertical speed %.0fft/min%n",
+                        engine.getAltimeter().pressureToHeight(engine.getAltimeter().getFilteredPressure()),
+                        engine.getVSI().getSpeed());
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * @return An engine with instruments of its own, set up as given on the command line.
+     */
+    private static ReplayEngine createEngine(float settlingTime, boolean exactTime,
+                                             BiquadCascadeFilter.Shape biquadShape, float accelerationNoise,
+                                             boolean accelerationFusion, float medianWindow) {
+        ReplayEngine engine = new ReplayEngine();
+        Altimeter altimeter = engine.getAltimeter();
+        altimeter.SetFilterSettlingTime(settlingTime);
+        altimeter.SetExactTimeFiltering(exactTime);
+        altimeter.SetBiquadFilter(biquadShape);
+        JointPressureEstimator estimator = engine.getResampler().getEstimator();
+        estimator.SetAccelerationNoise(accelerationNoise);
+        altimeter.SetKalmanFilter(estimator.IsEnabled() ? estimator : null);
+        altimeter.SetDisplayInFeet(true);
+        altimeter.SetDisplayGraphSeconds(300);
+        VerticalSpeedIndicator vsi = engine.getVSI();
+        vsi.setKalmanFilter(estimator.IsEnabled() ? estimator : null);
+        vsi.setAccelerationFusion(accelerationFusion);
+        vsi.setDisplayInFeet(true);
+        vsi.setDisplayGraphSeconds(300);
+        if (medianWindow > 0) {
+            engine.getResampler().setPreFilter(
+                    new SlidingMedianFilter((long) (medianWindow * 1e9), 0.5f, MEDIAN_CAPACITY));
+        }
+        return engine;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: Replay [-s settlingTime] [-e] [-b shape] [-k accelerationNoise] [-a] [-m medianWindow] [-o output.csv] log...");
+    }
+
+    private static class CsvObserver implements ReplayEngine.Observer {
+        private final PressureLog mLog;
+        private final Writer mWriter;
+
+        CsvObserver(PressureLog log, Writer writer) {
+            mLog = log;
+            mWriter = writer;
+        }
+
+        @Override
+        public void onSample(int index, Altimeter altimeter, VerticalSpeedIndicator vsi) {
+            float filtered = altimeter.getFilteredPressure();
+            try {
+                mWriter.write(String.format("%f,%f,%f,%f,%f,%f%n",
+                        mLog.getTimestamp(index) / 1e9, mLog.getPressure(index), filtered,
+                        altimeter.pressureToHeight(filtered), vsi.getSpeed(), vsi.getAcceleration()));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import uk.co.phabvionics.pilotaltimeter.Clock;
+
+/**
+ * A clock that only moves when it is told to, so that time follows the samples being replayed
+ * rather than the wall clock.
+ */
+public class ReplayClock implements Clock {
+    private volatile long mTime;
+
+    @Override
+    public long nanoTime() {
+        return mTime;
+    }
+
+    public void setTime(long time) {
+        mTime = time;
+    }
+}
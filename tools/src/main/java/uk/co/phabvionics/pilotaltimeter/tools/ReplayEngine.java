@@ -0,0 +1,126 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import uk.co.phabvionics.pilotaltimeter.Altimeter;
+import uk.co.phabvionics.pilotaltimeter.Clock;
+import uk.co.phabvionics.pilotaltimeter.PressureResampler;
+import uk.co.phabvionics.pilotaltimeter.StalenessMonitor;
+import uk.co.phabvionics.pilotaltimeter.VerticalSpeedIndicator;
+
+/**
+ * Feeds a recorded pressure log through the instruments as fast as the CPU allows.
+ * Time is taken from the recorded timestamps rather than the wall clock, so a whole flight can be
+ * re-run in milliseconds and behaves exactly as it did in real time. Recorded accelerations are
+ * passed to the vertical speed indicator just ahead of their samples, as they were in flight.
+ *
+ * An engine created without instruments has its own altimeter, VSI and staleness monitor, timed
+ * by its own clock, and shares no state with any other; several can replay on different threads
+ * at once.
+ */
+public class ReplayEngine {
+    /**
+     * Receives the state of the instruments after each sample has been replayed.
+     */
+    public interface Observer {
+        /**
+         * @param index The index of the sample in the log.
+         * @param altimeter The altimeter.
+         * @param vsi The vertical speed indicator.
+         */
+        void onSample(int index, Altimeter altimeter, VerticalSpeedIndicator vsi);
+    }
+
+    private final Altimeter mAltimeter;
+    private final VerticalSpeedIndicator mVSI;
+    private final PressureResampler mResampler;
+    private final StalenessMonitor mStaleness;
+    private final boolean mSharedStaleness;
+    private final ReplayClock mClock = new ReplayClock();
+
+    /**
+     * Replay through the given instruments, which report staleness against the shared monitor.
+     * The shared monitor is timed by the replay clock only while run() is under way, and by the
+     * system clock again once it returns.
+     */
+    public ReplayEngine(Altimeter altimeter, VerticalSpeedIndicator vsi) {
+        this(altimeter, vsi, StalenessMonitor.getInstance(), true);
+    }
+
+    /**
+     * Replay through a new altimeter and VSI of the engine's own.
+     */
+    public ReplayEngine() {
+        this(new StalenessMonitor());
+    }
+
+    private ReplayEngine(StalenessMonitor staleness) {
+        this(new Altimeter(staleness), new VerticalSpeedIndicator(staleness), staleness, false);
+        // Nothing else uses this monitor, so it can keep the replay clock between runs.
+        staleness.setClock(mClock);
+    }
+
+    private ReplayEngine(Altimeter altimeter, VerticalSpeedIndicator vsi, StalenessMonitor staleness,
+                         boolean shared) {
+        mAltimeter = altimeter;
+        mVSI = vsi;
+        mStaleness = staleness;
+        mSharedStaleness = shared;
+        mResampler = new PressureResampler(staleness);
+        mResampler.addConsumer(altimeter);
+        mResampler.addConsumer(vsi);
+    }
+
+    /**
+     * Replay a log.
+     * @param log The log to replay.
+     * @param observer Receives the instrument state after each sample, or null.
+     * @return The time taken in nanoseconds.
+     */
+    public long run(PressureLog log, Observer observer) {
+        final float[] pressures = log.getPressures();
+        final float[] accelerations = log.getAccelerations();
+        final long[] timestamps = log.getTimestamps();
+        final int count = log.size();
+        long start = System.nanoTime();
+        mStaleness.setClock(mClock);
+        try {
+            for (int index = 0; index < count; index++) {
+                mClock.setTime(timestamps[index]);
+                if (!Float.isNaN(accelerations[index])) {
+                    mVSI.onVerticalAcceleration(accelerations[index], timestamps[index]);
+                }
+                mResampler.setPressure(pressures[index], timestamps[index]);
+                if (observer != null) {
+                    observer.onSample(index, mAltimeter, mVSI);
+                }
+            }
+        } finally {
+            if (mSharedStaleness) {
+                mStaleness.setClock(Clock.SYSTEM);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return The resampler feeding the instruments, to which further consumers can be added.
+     */
+    public PressureResampler getResampler() {
+        return mResampler;
+    }
+
+    public Altimeter getAltimeter() {
+        return mAltimeter;
+    }
+
+    public VerticalSpeedIndicator getVSI() {
+        return mVSI;
+    }
+
+    /**
+     * @return The clock the replay is timed by. Only an engine with instruments of its own keeps
+     * its staleness monitor on this clock once run() has returned.
+     */
+    public ReplayClock getClock() {
+        return mClock;
+    }
+}
@@ -0,0 +1,263 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import uk.co.phabvionics.pilotaltimeter.Altimeter;
+import uk.co.phabvionics.pilotaltimeter.JointPressureEstimator;
+import uk.co.phabvionics.pilotaltimeter.VerticalSpeedIndicator;
+
+/**
+ * Command line tool that flies a long synthetic flight through the instruments as fast as the
+ * CPU allows, to look for drift and for samples that take far longer than the rest.
+ *
+ * Usage: Soak [-h hours] [-r sampleRate] [-n noise] [-q quantum] [-j jitter] [-g gust]
+ *             [-d dropoutsPerHour] [-k accelerationNoise] [-a] [-x seed]
+ *
+ * The flight repeats a climb at 1000ft/min for 5 minutes, 10 minutes level, a descent at
+ * 500ft/min for 10 minutes and 5 minutes level. Every simulated hour the altitude and vertical
+ * speed errors against the true flight are reported, with the replay speed and the slowest
+ * chunk of samples, and at the end the memory in use. With -a vertical speed is estimated by
+ * fusing the generated acceleration.
+ */
+public class Soak {
+    /**
+     * Samples are generated and replayed a minute of flight at a time; the time taken by each
+     * chunk shows up any sample whose processing is not bounded.
+     */
+    private static final double CHUNK_SECONDS = 60;
+    /**
+     * Errors are only counted once the filters have settled after the start or a dropout.
+     */
+    private static final long SETTLING_TIME = 10000000000L; // 10s
+    /**
+     * Samples flown before the soak so that the code has been compiled before it is timed.
+     */
+    private static final int WARM_UP_SAMPLES = 200000;
+
+    public static void main(String[] args) {
+        double hours = 1;
+        double sampleRate = 30;
+        double noise = 0.03;
+        double quantum = 0.01;
+        double jitter = 0.05;
+        double gust = 0;
+        double dropoutsPerHour = 0;
+        float accelerationNoise = 0;
+        boolean accelerationFusion = false;
+        long seed = 1013;
+        int arg = 0;
+        try {
+            while (arg < args.length) {
+                String option = args[arg];
+                if (option.equals("-a")) {
+                    accelerationFusion = true;
+                    arg++;
+                    continue;
+                }
+                if (arg + 1 == args.length) {
+                    usage();
+                    return;
+                }
+                String value = args[arg + 1];
+                arg += 2;
+                if (option.equals("-h")) {
+                    hours = Double.parseDouble(value);
+                } else if (option.equals("-r")) {
+                    sampleRate = Double.parseDouble(value);
+                } else if (option.equals("-n")) {
+                    noise = Double.parseDouble(value);
+                } else if (option.equals("-q")) {
+                    quantum = Double.parseDouble(value);
+                } else if (option.equals("-j")) {
+                    jitter = Double.parseDouble(value);
+                } else if (option.equals("-g")) {
+                    gust = Double.parseDouble(value);
+                } else if (option.equals("-d")) {
+                    dropoutsPerHour = Double.parseDouble(value);
+                } else if (option.equals("-k")) {
+                    accelerationNoise = Float.parseFloat(value);
+                } else if (option.equals("-x")) {
+                    seed = Long.parseLong(value);
+                } else {
+                    usage();
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+            return;
+        }
+
+        int chunkSamples = (int) Math.max(1, Math.round(sampleRate * CHUNK_SECONDS));
+        PressureLog log = new PressureLog(chunkSamples);
+        // Warm up on instruments of their own, so that the soak starts from fresh ones.
+        SyntheticFlight warmUp = new SyntheticFlight(seed + 1, 2000, 1000000000L);
+        warmUp.setSampling(sampleRate, jitter);
+        ReplayEngine warmUpEngine = createEngine(accelerationNoise, accelerationFusion);
+        for (int sample = 0; sample < WARM_UP_SAMPLES; sample += chunkSamples) {
+            warmUp.fill(log, chunkSamples);
+            warmUpEngine.run(log, null);
+        }
+        ReplayEngine engine = createEngine(accelerationNoise, accelerationFusion);
+        SyntheticFlight flight = new SyntheticFlight(seed, 2000, 1000000000L);
+        flight.setSampling(sampleRate, jitter);
+        flight.setSensorNoise(noise, quantum);
+        flight.setTurbulence(gust, 2.0);
+        flight.setDropouts(dropoutsPerHour, 5.0);
+        flight.setAccelerationNoise(0.1, 0.05);
+        System.out.printf("Soaking for %.1f hours at %.0fHz%n", hours, sampleRate);
+        long memoryBefore = usedMemory();
+        ErrorObserver observer = new ErrorObserver(flight, log, (long) (1e9 / sampleRate));
+        long samplesPerHour = Math.round(sampleRate * 3600);
+        long totalSamples = Math.round(sampleRate * 3600 * hours);
+        long samples = 0;
+        for (int hour = 1; samples < totalSamples; hour++) {
+            long hourEnd = Math.min(samples + samplesPerHour, totalSamples);
+            long hourSamples = hourEnd - samples;
+            long elapsed = 0;
+            long slowestChunk = 0;
+            long fullChunkTime = 0;
+            int chunks = 0;
+            long startTime = flight.getTime();
+            while (samples < hourEnd) {
+                int count = (int) Math.min(chunkSamples, hourEnd - samples);
+                flight.fill(log, count);
+                long chunkTime = engine.run(log, observer);
+                elapsed += chunkTime;
+                if (count == chunkSamples) {
+                    slowestChunk = Math.max(slowestChunk, chunkTime);
+                    fullChunkTime += chunkTime;
+                    chunks++;
+                }
+                samples += count;
+            }
+            double flightSeconds = (flight.getTime() - startTime) / 1e9;
+            System.out.printf("hour %d: altitude error mean %+.1fft rms %.1fft max %.1fft, "
+                            + "vertical speed error rms %.0fft/min max %.0fft/min%n",
+                    hour, observer.getMeanAltitudeError(), observer.getRmsAltitudeError(),
+                    observer.getMaxAltitudeError(), observer.getRmsSpeedError(), observer.getMaxSpeedError());
+            System.out.printf("  %.0f samples/s, %.0fx real time", hourSamples / (elapsed / 1e9),
+                    flightSeconds / (elapsed / 1e9));
+            if (chunks > 0) {
+                System.out.printf(", slowest chunk %.1fx the mean", slowestChunk / ((double) fullChunkTime / chunks));
+            }
+            System.out.println();
+            observer.clear();
+        }
+        long memoryAfter = usedMemory();
+        System.out.printf("memory in use %dkB before, %dkB after%n", memoryBefore / 1024, memoryAfter / 1024);
+    }
+
+    /**
+     * @return An engine with instruments of its own, set up as for the soak.
+     */
+    private static ReplayEngine createEngine(float accelerationNoise, boolean accelerationFusion) {
+        ReplayEngine engine = new ReplayEngine();
+        JointPressureEstimator estimator = engine.getResampler().getEstimator();
+        estimator.SetAccelerationNoise(accelerationNoise);
+        Altimeter altimeter = engine.getAltimeter();
+        altimeter.SetFilterSettlingTime(2.5f);
+        altimeter.SetKalmanFilter(estimator.IsEnabled() ? estimator : null);
+        altimeter.SetDisplayInFeet(true);
+        altimeter.SetDisplayGraphSeconds(300);
+        altimeter.setPressureDatum(1013.25f);
+        VerticalSpeedIndicator vsi = engine.getVSI();
+        vsi.setKalmanFilter(estimator.IsEnabled() ? estimator : null);
+        vsi.setAccelerationFusion(accelerationFusion);
+        vsi.setDisplayInFeet(true);
+        vsi.setDisplayGraphSeconds(300);
+        return engine;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: Soak [-h hours] [-r sampleRate] [-n noise] [-q quantum] [-j jitter] [-g gust]"
+                + " [-d dropoutsPerHour] [-k accelerationNoise] [-a] [-x seed]");
+    }
+
+    /**
+     * Accumulates the errors of the instruments against the true flight.
+     */
+    static class ErrorObserver implements ReplayEngine.Observer {
+        private final SyntheticFlight mFlight;
+        private final PressureLog mLog;
+        private final long mMaxInterval;
+        private long mSettledTime = Long.MIN_VALUE;
+        private long mLastTimestamp;
+        private long mCount;
+        private double mAltitudeErrorSum;
+        private double mAltitudeErrorSquares;
+        private double mMaxAltitudeError;
+        private double mSpeedErrorSquares;
+        private double mMaxSpeedError;
+
+        /**
+         * @param flight The flight being replayed.
+         * @param log The log of the samples being replayed.
+         * @param interval The nominal interval between samples in nanoseconds.
+         */
+        ErrorObserver(SyntheticFlight flight, PressureLog log, long interval) {
+            mFlight = flight;
+            mLog = log;
+            mMaxInterval = Math.max(1000000000L, 3 * interval);
+        }
+
+        @Override
+        public void onSample(int index, Altimeter altimeter, VerticalSpeedIndicator vsi) {
+            // The instruments start again after a dropout, so wait for them to settle again.
+            long timestamp = mLog.getTimestamp(index);
+            if (mSettledTime == Long.MIN_VALUE || timestamp - mLastTimestamp > mMaxInterval) {
+                mSettledTime = timestamp + SETTLING_TIME;
+            }
+            mLastTimestamp = timestamp;
+            if (timestamp < mSettledTime || !altimeter.isPressureMeasurementValid() || !vsi.isIndicationValid()) {
+                return;
+            }
+            double altitudeError = altimeter.pressureToHeight(altimeter.getFilteredPressure())
+                    - mFlight.getTrueAltitude(index);
+            double speedError = vsi.getSpeed() - mFlight.getTrueSpeed(index);
+            mAltitudeErrorSum += altitudeError;
+            mAltitudeErrorSquares += altitudeError * altitudeError;
+            mMaxAltitudeError = Math.max(mMaxAltitudeError, Math.abs(altitudeError));
+            mSpeedErrorSquares += speedError * speedError;
+            mMaxSpeedError = Math.max(mMaxSpeedError, Math.abs(speedError));
+            mCount++;
+        }
+
+        void clear() {
+            mCount = 0;
+            mAltitudeErrorSum = 0;
+            mAltitudeErrorSquares = 0;
+            mMaxAltitudeError = 0;
+            mSpeedErrorSquares = 0;
+            mMaxSpeedError = 0;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        double getMeanAltitudeError() {
+            return mCount == 0 ? 0 : mAltitudeErrorSum / mCount;
+        }
+
+        double getRmsAltitudeError() {
+            return mCount == 0 ? 0 : Math.sqrt(mAltitudeErrorSquares / mCount);
+        }
+
+        double getMaxAltitudeError() {
+            return mMaxAltitudeError;
+        }
+
+        double getRmsSpeedError() {
+            return mCount == 0 ? 0 : Math.sqrt(mSpeedErrorSquares / mCount);
+        }
+
+        double getMaxSpeedError() {
+            return mMaxSpeedError;
+        }
+    }
+}
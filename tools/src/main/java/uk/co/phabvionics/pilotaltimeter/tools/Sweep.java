@@ -0,0 +1,338 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import uk.co.phabvionics.pilotaltimeter.Altimeter;
+import uk.co.phabvionics.pilotaltimeter.VerticalSpeedIndicator;
+
+/**
+ * Command line tool that replays recorded flights through a couple of hundred filter
+ * configurations of the altimeter and VSI in parallel, scores each for lag and noise against a
+ * reference, and reports those that are not beaten on both by another: the Pareto front.
+ *
+ * Usage: Sweep [-t threads] [-w referenceWindow] log...
+ *
+ * Each configuration is replayed through a pipeline of its own (see ReplayEngine) on a fork-join
+ * pool, by default of one thread per processor. The reference is a least-squares line fitted
+ * over a window centred on each sample (see ReferenceFlight), of 4 seconds unless given by -w.
+ * The lag is the delay of the reference that best matches the readings, and the noise is the RMS
+ * difference between them once the reference is so delayed.
+ */
+public class Sweep {
+    private static final double DEFAULT_REFERENCE_WINDOW = 4.0;
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        double window = DEFAULT_REFERENCE_WINDOW;
+        int arg = 0;
+        try {
+            while (arg < args.length && args[arg].startsWith("-")) {
+                if (args[arg].equals("-t") && arg + 1 < args.length) {
+                    threads = Integer.parseInt(args[arg + 1]);
+                    arg += 2;
+                } else if (args[arg].equals("-w") && arg + 1 < args.length) {
+                    window = Double.parseDouble(args[arg + 1]);
+                    arg += 2;
+                } else {
+                    usage();
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+            return;
+        }
+        if (arg == args.length || threads < 1 || window <= 0) {
+            usage();
+            return;
+        }
+
+        List<ReferenceFlight> flights = new ArrayList<ReferenceFlight>();
+        long samples = 0;
+        for (; arg < args.length; arg++) {
+            PressureLog log = PressureLog.read(new File(args[arg]));
+            flights.add(new ReferenceFlight(log, window));
+            samples += log.size();
+        }
+        List<FilterConfiguration> configurations = FilterConfiguration.createSweep();
+        long start = System.nanoTime();
+        Score[] scores = run(configurations, flights, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d configurations over %d samples in %.1fs on %d threads (%.0f samples/s)%n",
+                configurations.size(), samples, seconds, threads, configurations.size() * samples / seconds);
+
+        List<Score> altimeter = new ArrayList<Score>();
+        List<Score> vsi = new ArrayList<Score>();
+        for (Score score : scores) {
+            if (score.getCount() > 0) {
+                (score.getConfiguration().isAltimeter() ? altimeter : vsi).add(score);
+            }
+        }
+        System.out.println("Altimeter Pareto front (lag, noise):");
+        for (Score score : paretoFront(altimeter)) {
+            System.out.printf("  %6.2fs %7.2fft    %s%n", score.getLag(), score.getNoise(), score.getConfiguration());
+        }
+        System.out.println("VSI Pareto front (lag, noise):");
+        for (Score score : paretoFront(vsi)) {
+            System.out.printf("  %6.2fs %7.1fft/min    %s%n", score.getLag(), score.getNoise(), score.getConfiguration());
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: Sweep [-t threads] [-w referenceWindow] log...");
+    }
+
+    /**
+     * Score configurations over recorded flights in parallel.
+     * @param configurations The configurations.
+     * @param flights The flights, with their references.
+     * @param threads The number of threads to run on.
+     * @return The score of each configuration, in the same order.
+     */
+    public static Score[] run(List<FilterConfiguration> configurations, List<ReferenceFlight> flights, int threads) {
+        Score[] scores = new Score[configurations.size()];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new SweepTask(configurations, flights, scores, 0, scores.length));
+        } finally {
+            pool.shutdown();
+        }
+        return scores;
+    }
+
+    /**
+     * @param scores Scores of configurations of one instrument.
+     * @return Those whose lag or noise is lower than every other's with no more of the other,
+     * in order of increasing lag and so of decreasing noise.
+     */
+    public static List<Score> paretoFront(List<Score> scores) {
+        Score[] sorted = scores.toArray(new Score[scores.size()]);
+        Arrays.sort(sorted, new Comparator<Score>() {
+            @Override
+            public int compare(Score a, Score b) {
+                int lag = Double.compare(a.getLag(), b.getLag());
+                return lag != 0 ? lag : Double.compare(a.getNoise(), b.getNoise());
+            }
+        });
+        List<Score> front = new ArrayList<Score>();
+        for (Score score : sorted) {
+            if (front.isEmpty() || score.getNoise() < front.get(front.size() - 1).getNoise()) {
+                front.add(score);
+            }
+        }
+        return front;
+    }
+
+    /**
+     * Scores a range of the configurations, splitting it until each task has one.
+     */
+    private static class SweepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<FilterConfiguration> mConfigurations;
+        private final List<ReferenceFlight> mFlights;
+        private final Score[] mScores;
+        private final int mStart;
+        private final int mEnd;
+
+        SweepTask(List<FilterConfiguration> configurations, List<ReferenceFlight> flights, Score[] scores,
+                  int start, int end) {
+            mConfigurations = configurations;
+            mFlights = flights;
+            mScores = scores;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart > 1) {
+                int middle = (mStart + mEnd) >>> 1;
+                invokeAll(new SweepTask(mConfigurations, mFlights, mScores, mStart, middle),
+                        new SweepTask(mConfigurations, mFlights, mScores, middle, mEnd));
+                return;
+            }
+            if (mEnd == mStart) {
+                return;
+            }
+            Score score = new Score(mConfigurations.get(mStart));
+            for (ReferenceFlight flight : mFlights) {
+                // A fresh pipeline for each flight, so that no state is shared between threads
+                // and each flight starts from nothing.
+                ReplayEngine engine = new ReplayEngine();
+                score.getConfiguration().apply(engine);
+                score.startFlight(flight);
+                engine.run(flight.getLog(), score);
+            }
+            score.finish();
+            mScores[mStart] = score;
+        }
+    }
+
+    /**
+     * The lag and noise of one configuration. The readings are kept as each flight is replayed;
+     * once all have been, the lag is found as the delay of the reference that best matches them,
+     * and the noise as the RMS difference from the reference so delayed.
+     */
+    public static class Score implements ReplayEngine.Observer {
+        /**
+         * The range of lags searched, in seconds.
+         */
+        private static final double MIN_LAG = -2.0;
+        private static final double MAX_LAG = 15.0;
+        /**
+         * The lag is first found to within this many seconds by trying each in turn, so that the
+         * search cannot settle on a poorer match further away, and then refined to LAG_TOLERANCE.
+         */
+        private static final double LAG_SCAN_STEP = 0.5;
+        private static final double LAG_TOLERANCE = 0.005;
+        private static final double GOLDEN_RATIO = (Math.sqrt(5) - 1) / 2;
+
+        private final FilterConfiguration mConfiguration;
+        private final List<ReferenceFlight> mFlights = new ArrayList<ReferenceFlight>();
+        private final List<float[]> mReadings = new ArrayList<float[]>();
+        private float[] mFlightReadings; // Those of the flight being replayed.
+        private long mCount;
+        private double mLag;
+        private double mNoise;
+
+        public Score(FilterConfiguration configuration) {
+            mConfiguration = configuration;
+        }
+
+        /**
+         * Start keeping the readings of a flight about to be replayed.
+         * @param flight The flight.
+         */
+        void startFlight(ReferenceFlight flight) {
+            mFlightReadings = new float[flight.getLog().size()];
+            Arrays.fill(mFlightReadings, Float.NaN);
+            mFlights.add(flight);
+            mReadings.add(mFlightReadings);
+        }
+
+        @Override
+        public void onSample(int index, Altimeter altimeter, VerticalSpeedIndicator vsi) {
+            mFlightReadings[index] = mConfiguration.getReading(altimeter, vsi);
+        }
+
+        /**
+         * Find the lag and noise once every flight has been replayed.
+         */
+        void finish() {
+            // Scan for the best lag to the nearest step.
+            double best = 0;
+            double bestError = Double.MAX_VALUE;
+            for (double lag = MIN_LAG; lag <= MAX_LAG; lag += LAG_SCAN_STEP) {
+                double error = meanSquareError(lag);
+                if (error < bestError) {
+                    best = lag;
+                    bestError = error;
+                }
+            }
+            // Refine it by golden section search within a step either side.
+            double low = best - LAG_SCAN_STEP;
+            double high = best + LAG_SCAN_STEP;
+            double lag1 = high - GOLDEN_RATIO * (high - low);
+            double lag2 = low + GOLDEN_RATIO * (high - low);
+            double error1 = meanSquareError(lag1);
+            double error2 = meanSquareError(lag2);
+            while (high - low > LAG_TOLERANCE) {
+                if (error1 < error2) {
+                    high = lag2;
+                    lag2 = lag1;
+                    error2 = error1;
+                    lag1 = high - GOLDEN_RATIO * (high - low);
+                    error1 = meanSquareError(lag1);
+                } else {
+                    low = lag1;
+                    lag1 = lag2;
+                    error1 = error2;
+                    lag2 = low + GOLDEN_RATIO * (high - low);
+                    error2 = meanSquareError(lag2);
+                }
+            }
+            mLag = (low + high) / 2;
+            mNoise = Math.sqrt(meanSquareError(mLag));
+            mReadings.clear();
+            mFlights.clear();
+            mFlightReadings = null;
+        }
+
+        /**
+         * @param lag The delay of the reference in seconds.
+         * @return The mean square difference between the readings and the delayed reference,
+         * over the samples scored, or Double.MAX_VALUE if there are none; sets mCount.
+         */
+        private double meanSquareError(double lag) {
+            long delay = Math.round(lag * 1e9);
+            boolean altimeter = mConfiguration.isAltimeter();
+            double sum = 0;
+            mCount = 0;
+            for (int flight = 0; flight < mFlights.size(); flight++) {
+                ReferenceFlight reference = mFlights.get(flight);
+                float[] readings = mReadings.get(flight);
+                long[] timestamps = reference.getLog().getTimestamps();
+                int count = readings.length;
+                int before = 0; // The last sample at or before the delayed time.
+                for (int sample = 0; sample < count; sample++) {
+                    float reading = readings[sample];
+                    if (!reference.isScored(sample) || Float.isNaN(reading)) {
+                        continue;
+                    }
+                    long time = timestamps[sample] - delay;
+                    if (time < timestamps[0]) {
+                        continue;
+                    }
+                    while (before + 1 < count && timestamps[before + 1] <= time) {
+                        before++;
+                    }
+                    int after = before + 1;
+                    if (after == count || !reference.isScored(before) || !reference.isScored(after)) {
+                        continue;
+                    }
+                    double fraction = (double) (time - timestamps[before]) / (timestamps[after] - timestamps[before]);
+                    double value = altimeter
+                            ? reference.getAltitude(before) + (reference.getAltitude(after) - reference.getAltitude(before)) * fraction
+                            : reference.getSpeed(before) + (reference.getSpeed(after) - reference.getSpeed(before)) * fraction;
+                    double error = reading - value;
+                    sum += error * error;
+                    mCount++;
+                }
+            }
+            return mCount == 0 ? Double.MAX_VALUE : sum / mCount;
+        }
+
+        public FilterConfiguration getConfiguration() {
+            return mConfiguration;
+        }
+
+        /**
+         * @return The number of samples scored.
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return The lag in seconds.
+         */
+        public double getLag() {
+            return mLag;
+        }
+
+        /**
+         * @return The RMS difference from the reference delayed by the lag, in ft or ft/min.
+         */
+        public double getNoise() {
+            return mNoise;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import java.util.Random;
+
+/**
+ * Generates a repeatable synthetic flight as the pressure sensor would report it, for soak and
+ * throughput testing without recorded logs. The aircraft flies a repeating profile of legs, each
+ * a steady vertical speed reached with limited acceleration, through turbulence modelled as
+ * random vertical gusts. Its true altitude is converted to pressure with the International
+ * Standard Atmosphere, and the sensor adds noise, quantises the reading, jitters the timestamps
+ * and drops out from time to time. The earth-frame vertical acceleration is generated as well,
+ * with its own noise and bias, as the motion sensors would report it.
+ *
+ * Samples are generated a chunk at a time into a PressureLog, so that a flight of any length can
+ * be replayed through a ReplayEngine without holding it all in memory.
+ */
+public class SyntheticFlight {
+    private static final double ISA_EXPONENT = 5.2558797;
+    private static final double FEET_PER_UNIT = 1 / 6.8755856e-6;
+    private static final double METRES_PER_FOOT = 0.3048;
+    private static final double SECONDS_PER_MINUTE = 60;
+    /**
+     * The pilot works the displacement by gusts off with this time constant in seconds, so that
+     * turbulence does not make the altitude wander without limit over a long flight.
+     */
+    private static final double ALTITUDE_HOLD_TIME = 30;
+
+    // The profile: the duration of each leg in seconds and its vertical speed in ft/min.
+    private double[] mLegDurations = {300, 600, 600, 300};
+    private double[] mLegSpeeds = {1000, 0, -500, 0};
+    private double mMaxAcceleration = 1.0; // m/s^2
+    private double mGustIntensity; // Standard deviation of the vertical gusts in ft/min.
+    private double mGustTime = 2.0; // Correlation time of the gusts in seconds.
+    private double mSampleRate = 30; // Hz
+    private double mJitter; // Standard deviation of the timestamp jitter as a fraction of the interval.
+    private double mNoise; // Standard deviation of the sensor noise in hPa.
+    private double mQuantum; // Resolution of the sensor in hPa, or 0 for none.
+    private double mDropoutsPerHour;
+    private double mMeanDropout = 5; // Mean length of a dropout in seconds.
+    private double mAccelerationNoise; // Standard deviation in m/s^2.
+    private double mAccelerationBias; // m/s^2
+
+    private final Random mRandom;
+    private long mTime; // Nominal time of the next sample in ns, before jitter.
+    private long mTimestamp = Long.MIN_VALUE; // Of the latest sample.
+    private double mAltitude; // True altitude of the aircraft without gusts, in feet.
+    private double mSpeed; // Vertical speed of the aircraft without gusts, in ft/min.
+    private double mGust; // Vertical speed of the air in ft/min.
+    private double mGustAltitude; // Displacement by the gusts in feet.
+    private int mLeg;
+    private double mLegTime; // Seconds into the current leg.
+    private double mTrueAltitude;
+    private double mTrueSpeed;
+    private float[] mTrueAltitudes = new float[0];
+    private float[] mTrueSpeeds = new float[0];
+
+    /**
+     * Start a flight at the given altitude and time.
+     * @param seed The seed of the random numbers, so that the flight can be repeated.
+     * @param altitude The pressure altitude in feet.
+     * @param startTime The time of the first sample in nanoseconds.
+     */
+    public SyntheticFlight(long seed, double altitude, long startTime) {
+        mRandom = new Random(seed);
+        mAltitude = altitude;
+        mTrueAltitude = altitude;
+        mTime = startTime;
+    }
+
+    /**
+     * Set the profile flown, which repeats once all its legs have been flown.
+     * @param durations The duration of each leg in seconds.
+     * @param speeds The vertical speed of each leg in ft/min.
+     */
+    public void setProfile(double[] durations, double[] speeds) {
+        if (durations.length == 0 || durations.length != speeds.length) {
+            throw new IllegalArgumentException("A profile needs one speed for each leg");
+        }
+        mLegDurations = durations.clone();
+        mLegSpeeds = speeds.clone();
+        mLeg = 0;
+        mLegTime = 0;
+    }
+
+    /**
+     * @param acceleration The largest vertical acceleration used to change speed, in m/s^2.
+     */
+    public void setMaxAcceleration(double acceleration) {
+        mMaxAcceleration = acceleration;
+    }
+
+    /**
+     * @param intensity The standard deviation of the vertical gusts in ft/min, or 0 for still air.
+     * @param correlationTime The correlation time of the gusts in seconds.
+     */
+    public void setTurbulence(double intensity, double correlationTime) {
+        mGustIntensity = intensity;
+        mGustTime = Math.max(correlationTime, 1e-3);
+    }
+
+    /**
+     * @param sampleRate The nominal sample rate in Hz.
+     * @param jitter The standard deviation of the timestamp jitter, as a fraction of the interval.
+     */
+    public void setSampling(double sampleRate, double jitter) {
+        mSampleRate = sampleRate;
+        mJitter = jitter;
+    }
+
+    /**
+     * @param noise The standard deviation of the sensor noise in hPa.
+     * @param quantum The resolution of the sensor in hPa, or 0 for none.
+     */
+    public void setSensorNoise(double noise, double quantum) {
+        mNoise = noise;
+        mQuantum = quantum;
+    }
+
+    /**
+     * @param perHour The mean number of dropouts per hour, when the sensor reports nothing.
+     * @param meanLength The mean length of a dropout in seconds.
+     */
+    public void setDropouts(double perHour, double meanLength) {
+        mDropoutsPerHour = perHour;
+        mMeanDropout = meanLength;
+    }
+
+    /**
+     * @param noise The standard deviation of the acceleration noise in m/s^2.
+     * @param bias The constant error of the acceleration in m/s^2.
+     */
+    public void setAccelerationNoise(double noise, double bias) {
+        mAccelerationNoise = noise;
+        mAccelerationBias = bias;
+    }
+
+    /**
+     * Calculate the pressure at a pressure altitude in the International Standard Atmosphere.
+     * @param altitude The pressure altitude in feet.
+     * @return The pressure in hPa.
+     */
+    public static double isaPressure(double altitude) {
+        return 1013.25 * Math.pow(1 - altitude / FEET_PER_UNIT, ISA_EXPONENT);
+    }
+
+    /**
+     * Generate the next samples, replacing the contents of a log.
+     * @param log Receives the samples, with the mean vertical acceleration over each interval.
+     * @param count The number of samples to generate.
+     */
+    public void fill(PressureLog log, int count) {
+        log.clear();
+        if (mTrueAltitudes.length < count) {
+            mTrueAltitudes = new float[count];
+            mTrueSpeeds = new float[count];
+        }
+        double interval = 1 / mSampleRate;
+        double dropoutProbability = mDropoutsPerHour * interval / 3600;
+        for (int sample = 0; sample < count; sample++) {
+            if (dropoutProbability > 0 && mRandom.nextDouble() < dropoutProbability) {
+                // Fly on through the dropout without reporting anything.
+                double dropout = -mMeanDropout * Math.log(1 - mRandom.nextDouble());
+                for (long step = (long) (dropout / interval); step > 0; step--) {
+                    advance(interval);
+                }
+            }
+            double acceleration = advance(interval);
+            double pressure = isaPressure(mTrueAltitude) + mRandom.nextGaussian() * mNoise;
+            if (mQuantum > 0) {
+                pressure = Math.round(pressure / mQuantum) * mQuantum;
+            }
+            // Sensor timestamps never go backwards, however large the jitter.
+            long timestamp = Math.max(mTime + (long) (mRandom.nextGaussian() * mJitter * interval * 1e9), mTimestamp + 1);
+            mTimestamp = timestamp;
+            acceleration += mAccelerationBias + mRandom.nextGaussian() * mAccelerationNoise;
+            log.add((float) pressure, (float) acceleration, timestamp);
+            mTrueAltitudes[sample] = (float) mTrueAltitude;
+            mTrueSpeeds[sample] = (float) mTrueSpeed;
+        }
+    }
+
+    /**
+     * Fly on by one sample interval.
+     * @param interval The interval in seconds.
+     * @return The mean vertical acceleration over the interval in m/s^2.
+     */
+    private double advance(double interval) {
+        double startSpeed = mTrueSpeed;
+        // Change speed towards that of the leg as fast as the acceleration limit allows.
+        double maxChange = mMaxAcceleration / METRES_PER_FOOT * SECONDS_PER_MINUTE * interval;
+        double change = Math.max(-maxChange, Math.min(maxChange, mLegSpeeds[mLeg] - mSpeed));
+        mAltitude += (mSpeed + change / 2) * interval / SECONDS_PER_MINUTE;
+        mSpeed += change;
+        // The gusts are a first order Gauss-Markov process.
+        if (mGustIntensity > 0) {
+            double decay = Math.exp(-interval / mGustTime);
+            double gust = mGust * decay + mGustIntensity * Math.sqrt(1 - decay * decay) * mRandom.nextGaussian();
+            mGustAltitude += ((mGust + gust) / 2 / SECONDS_PER_MINUTE - mGustAltitude / ALTITUDE_HOLD_TIME) * interval;
+            mGust = gust;
+        }
+        mTrueAltitude = mAltitude + mGustAltitude;
+        mTrueSpeed = mSpeed + mGust - mGustAltitude / ALTITUDE_HOLD_TIME * SECONDS_PER_MINUTE;
+        mTime += (long) (interval * 1e9);
+        mLegTime += interval;
+        if (mLegTime >= mLegDurations[mLeg]) {
+            mLegTime -= mLegDurations[mLeg];
+            mLeg = (mLeg + 1) % mLegDurations.length;
+        }
+        return (mTrueSpeed - startSpeed) / SECONDS_PER_MINUTE * METRES_PER_FOOT / interval;
+    }
+
+    /**
+     * @param index The index of a sample in the log last filled.
+     * @return The true altitude at the sample in feet.
+     */
+    public float getTrueAltitude(int index) {
+        return mTrueAltitudes[index];
+    }
+
+    /**
+     * @param index The index of a sample in the log last filled.
+     * @return The true vertical speed at the sample in ft/min.
+     */
+    public float getTrueSpeed(int index) {
+        return mTrueSpeeds[index];
+    }
+
+    /**
+     * @return The nominal time of the next sample in nanoseconds.
+     */
+    public long getTime() {
+        return mTime;
+    }
+}
@@ -0,0 +1,86 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import uk.co.phabvionics.pilotaltimeter.Altimeter;
+import uk.co.phabvionics.pilotaltimeter.VerticalSpeedIndicator;
+
+import static org.junit.Assert.*;
+
+public class ReplayEngineTest {
+
+    @Test
+    public void ReadsOldCsvLog() throws IOException
+    {
+        File file = File.createTempFile("pressure-log", ".txt");
+        FileWriter writer = new FileWriter(file);
+        writer.write("12.500000,1013.250000\n12.533000,1013.240000\n\n12.566000,1013.230000\n");
+        writer.close();
+        PressureLog log = PressureLog.read(file);
+        assertEquals(3, log.size());
+        assertEquals(12500000000L, log.getTimestamp(0));
+        assertEquals(1013.24f, log.getPressure(1), 0);
+        assertEquals(66000000L, log.getDuration());
+    }
+
+    @Test
+    public void ReplaySettlesOnConstantPressureAndFollowsRecordedTime()
+    {
+        PressureLog log = new PressureLog();
+        // A minute of samples at 33ms intervals, after which the recorded time runs on five
+        // seconds with no more samples.
+        long time = 1000000000L;
+        for (int sample = 0; sample < 1800; sample++) {
+            log.add(1000.0f, time);
+            time += 33000000L;
+        }
+        ReplayEngine engine = new ReplayEngine();
+        Altimeter altimeter = engine.getAltimeter();
+        VerticalSpeedIndicator vsi = engine.getVSI();
+        altimeter.SetFilterSettlingTime(2.5f);
+        engine.run(log, null);
+        assertEquals(1000.0f, altimeter.getFilteredPressure(), 1e-3);
+        assertEquals(0.0f, vsi.getSpeed(), 1e-2);
+        assertFalse(altimeter.isStopped());
+        engine.getClock().setTime(time + 5000000000L);
+        assertTrue(altimeter.isStopped());
+        assertTrue(vsi.isStopped());
+    }
+
+    @Test
+    public void FusedReplayFollowsRecordedPullUpPromptly()
+    {
+        PressureLog log = new PressureLog();
+        // Half a minute of level flight, then a pull-up at 2m/s^2 for half a second.
+        long time = 1000000000L;
+        for (int sample = 0; sample < 900; sample++) {
+            log.add(1000.0f, 0.0f, time);
+            time += 33000000L;
+        }
+        double height = 0;
+        double speed = 0;
+        for (int sample = 0; sample < 15; sample++) {
+            height += (speed + 2.0 * 0.033 / 2) * 0.033;
+            speed += 2.0 * 0.033;
+            log.add((float) (1000.0 - height / 8.32421), 2.0f, time);
+            time += 33000000L;
+        }
+        float speedFeetPerMinute = (float) (speed / 0.3048 * 60);
+
+        ReplayEngine fusedEngine = new ReplayEngine();
+        VerticalSpeedIndicator fused = fusedEngine.getVSI();
+        fused.setAccelerationFusion(true);
+        fusedEngine.run(log, null);
+        ReplayEngine pressureOnlyEngine = new ReplayEngine();
+        VerticalSpeedIndicator pressureOnly = pressureOnlyEngine.getVSI();
+        pressureOnlyEngine.run(log, null);
+
+        assertEquals(2.0f, fused.getAcceleration(), 0);
+        assertEquals(speedFeetPerMinute, fused.getSpeed(), speedFeetPerMinute * 0.1f);
+        assertTrue(pressureOnly.getSpeed() < speedFeetPerMinute * 0.5f);
+    }
+}
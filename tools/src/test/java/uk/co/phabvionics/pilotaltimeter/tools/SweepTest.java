@@ -0,0 +1,107 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SweepTest {
+
+    private static List<ReferenceFlight> createFlights()
+    {
+        // Ten minutes at 25Hz: a climb and the start of a level leg, through light turbulence.
+        SyntheticFlight flight = new SyntheticFlight(7, 3000, 1000000000L);
+        flight.setSampling(25, 0.05);
+        flight.setSensorNoise(0.03, 0.01);
+        flight.setTurbulence(100, 3);
+        flight.setProfile(new double[] {300, 300}, new double[] {800, 0});
+        PressureLog log = new PressureLog();
+        flight.fill(log, 15000);
+        List<ReferenceFlight> flights = new ArrayList<ReferenceFlight>();
+        flights.add(new ReferenceFlight(log, 4.0));
+        return flights;
+    }
+
+    @Test
+    public void ReferenceFollowsSteadyClimbWithoutLag()
+    {
+        SyntheticFlight flight = new SyntheticFlight(8, 1000, 1000000000L);
+        flight.setSampling(20, 0);
+        flight.setProfile(new double[] {600}, new double[] {600});
+        PressureLog log = new PressureLog();
+        flight.fill(log, 2400);
+        ReferenceFlight reference = new ReferenceFlight(log, 4.0);
+        assertFalse(reference.isScored(0));
+        assertFalse(reference.isScored(2399));
+        assertTrue(reference.isScored(1200));
+        assertEquals(flight.getTrueAltitude(1200), reference.getAltitude(1200), 0.2);
+        // The VSI's sea-level factor reads low at altitude, and the reference with it.
+        assertEquals(600, reference.getSpeed(1200), 40);
+        assertTrue(reference.getSpeed(1200) < 600);
+    }
+
+    @Test
+    public void StrongerFilteringTradesLagForNoise()
+    {
+        List<FilterConfiguration> configurations = new ArrayList<FilterConfiguration>();
+        configurations.add(new FilterConfiguration(FilterConfiguration.Method.ALTIMETER_GRID, 0.5f));
+        configurations.add(new FilterConfiguration(FilterConfiguration.Method.ALTIMETER_GRID, 5.0f));
+        configurations.add(new FilterConfiguration(FilterConfiguration.Method.VSI_LEAST_SQUARES, 1.0f));
+        configurations.add(new FilterConfiguration(FilterConfiguration.Method.VSI_LEAST_SQUARES, 8.0f));
+        Sweep.Score[] scores = Sweep.run(configurations, createFlights(), 2);
+        for (Sweep.Score score : scores) {
+            assertTrue(score.getCount() > 10000);
+        }
+        // A first order filter lags by its time constant, a fifth of the settling time.
+        assertEquals(0.1, scores[0].getLag(), 0.03);
+        assertEquals(1.0, scores[1].getLag(), 0.1);
+        assertTrue(scores[1].getNoise() < scores[0].getNoise());
+        // A line fit lags by half its window.
+        assertEquals(0.5, scores[2].getLag(), 0.1);
+        assertEquals(4.0, scores[3].getLag(), 0.5);
+        assertTrue(scores[3].getNoise() < scores[2].getNoise());
+    }
+
+    @Test
+    public void ParallelSweepMatchesSerialSweepAndFrontIsUndominated()
+    {
+        List<FilterConfiguration> configurations = FilterConfiguration.createSweep();
+        assertTrue(configurations.size() > 100);
+        // Only the VSI difference configurations, to keep the test quick.
+        List<FilterConfiguration> subset = new ArrayList<FilterConfiguration>();
+        for (FilterConfiguration configuration : configurations) {
+            if (configuration.getMethod() == FilterConfiguration.Method.VSI_DIFFERENCE) {
+                subset.add(configuration);
+            }
+        }
+        List<ReferenceFlight> flights = createFlights();
+        Sweep.Score[] parallel = Sweep.run(subset, flights, 4);
+        Sweep.Score[] serial = Sweep.run(subset, flights, 1);
+        List<Sweep.Score> all = new ArrayList<Sweep.Score>();
+        for (int index = 0; index < subset.size(); index++) {
+            // Pipelines share no state, so the order they run in makes no difference.
+            assertSame(subset.get(index), parallel[index].getConfiguration());
+            assertEquals(serial[index].getLag(), parallel[index].getLag(), 0);
+            assertEquals(serial[index].getNoise(), parallel[index].getNoise(), 0);
+            all.add(parallel[index]);
+        }
+        List<Sweep.Score> front = Sweep.paretoFront(all);
+        assertTrue(front.size() > 1);
+        for (int index = 1; index < front.size(); index++) {
+            assertTrue(front.get(index).getLag() >= front.get(index - 1).getLag());
+            assertTrue(front.get(index).getNoise() < front.get(index - 1).getNoise());
+        }
+        for (Sweep.Score score : all) {
+            if (front.contains(score)) {
+                continue;
+            }
+            boolean dominated = false;
+            for (Sweep.Score best : front) {
+                dominated |= best.getLag() <= score.getLag() && best.getNoise() <= score.getNoise();
+            }
+            assertTrue(dominated);
+        }
+    }
+}
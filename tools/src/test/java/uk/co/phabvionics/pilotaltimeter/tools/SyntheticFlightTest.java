@@ -0,0 +1,89 @@
+package uk.co.phabvionics.pilotaltimeter.tools;
+
+import org.junit.Test;
+
+import uk.co.phabvionics.pilotaltimeter.Altimeter;
+import uk.co.phabvionics.pilotaltimeter.PressureHeightConverter;
+
+import static org.junit.Assert.*;
+
+public class SyntheticFlightTest {
+
+    @Test
+    public void PressureFollowsStandardAtmosphere()
+    {
+        assertEquals(1013.25, SyntheticFlight.isaPressure(0), 1e-9);
+        assertEquals(10000, PressureHeightConverter.pressureAltitude((float) SyntheticFlight.isaPressure(10000)), 1);
+        assertEquals(-1000, PressureHeightConverter.pressureAltitude((float) SyntheticFlight.isaPressure(-1000)), 1);
+    }
+
+    @Test
+    public void SamplesAreQuantisedAtTheRateWithRisingTimestamps()
+    {
+        SyntheticFlight flight = new SyntheticFlight(1, 1000, 5000000000L);
+        flight.setSampling(50, 0.5);
+        flight.setSensorNoise(0.05, 0.01);
+        PressureLog log = new PressureLog();
+        flight.fill(log, 3000);
+        assertEquals(3000, log.size());
+        for (int sample = 1; sample < log.size(); sample++) {
+            assertTrue(log.getTimestamp(sample) > log.getTimestamp(sample - 1));
+            float steps = log.getPressure(sample) / 0.01f;
+            assertEquals(Math.round(steps), steps, 0.01f);
+        }
+        // A minute at 50Hz.
+        assertEquals(60, log.getDuration() / 1e9, 0.1);
+        assertEquals(65000000000L, flight.getTime());
+        // The climb at 1000ft/min starts from level flight and takes about 5s to reach speed at
+        // 1m/s^2, losing about 42ft on a steady climb.
+        assertEquals(0, flight.getTrueSpeed(0), 10);
+        assertEquals(1000, flight.getTrueSpeed(2999), 0);
+        assertEquals(1000 + 1000 * (59.98 / 60) - 42, flight.getTrueAltitude(2999), 2);
+    }
+
+    @Test
+    public void DropoutsLeaveGapsWhileTheFlightCarriesOn()
+    {
+        SyntheticFlight flight = new SyntheticFlight(2, 1000, 0);
+        flight.setSampling(10, 0);
+        flight.setDropouts(60, 5);
+        PressureLog log = new PressureLog();
+        flight.fill(log, 36000);
+        int gaps = 0;
+        for (int sample = 1; sample < log.size(); sample++) {
+            if (log.getTimestamp(sample) - log.getTimestamp(sample - 1) > 200000000L) {
+                gaps++;
+            }
+        }
+        // About one dropout a minute over an hour of samples, with the flight time carried on.
+        assertTrue(gaps > 40 && gaps < 80);
+        assertTrue(log.getDuration() > 3600000000000L + gaps * 2000000000L);
+    }
+
+    @Test
+    public void SoakAtHighAndLowRatesTracksTheTrueFlight()
+    {
+        double[] rates = {1000, 1};
+        for (double rate : rates) {
+            SyntheticFlight flight = new SyntheticFlight(3, 2000, 1000000000L);
+            flight.setSampling(rate, 0.1);
+            flight.setSensorNoise(0.03, 0.01);
+            flight.setTurbulence(100, 2);
+            ReplayEngine engine = new ReplayEngine();
+            Altimeter altimeter = engine.getAltimeter();
+            altimeter.SetFilterSettlingTime(2.5f);
+            altimeter.SetDisplayInFeet(true);
+            PressureLog log = new PressureLog();
+            Soak.ErrorObserver observer = new Soak.ErrorObserver(flight, log, (long) (1e9 / rate));
+            int chunk = (int) Math.max(1, rate * 60);
+            // Half an hour of flight, covering the climb, the level legs and the descent.
+            for (int minute = 0; minute < 30; minute++) {
+                flight.fill(log, chunk);
+                engine.run(log, observer);
+            }
+            assertTrue(observer.getCount() > 0);
+            assertEquals(0, observer.getMeanAltitudeError(), 1);
+            assertTrue(observer.getMaxAltitudeError() < 30);
+        }
+    }
+}